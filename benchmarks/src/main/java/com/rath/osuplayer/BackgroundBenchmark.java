@@ -0,0 +1,83 @@
+
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Background scaling and bar color sampling, as done on every song change. Run with -prof gc to compare how much
+ * each scaling path allocates per image (gc.alloc.rate.norm).
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BackgroundBenchmark {
+
+  /** Size of the original background image. */
+  @Param({ "1366x768", "1920x1080", "3840x2160" })
+  public String source;
+
+  /** Size of the screen it is scaled to. */
+  @Param({ "1920x1080" })
+  public String screen;
+
+  /** Decoded background, before scaling. */
+  private BufferedImage original;
+
+  /** Background already scaled to the screen. */
+  private BufferedImage scaled;
+
+  /** Screen width. */
+  private int screenW;
+
+  /** Screen height. */
+  private int screenH;
+
+  @Setup
+  public void setup() {
+
+    final String[] src = this.source.split("x");
+    final String[] dst = this.screen.split("x");
+    this.screenW = Integer.parseInt(dst[0]);
+    this.screenH = Integer.parseInt(dst[1]);
+    this.original = Fixtures.background(Integer.parseInt(src[0]), Integer.parseInt(src[1]));
+    this.scaled = Fixtures.background(this.screenW, this.screenH);
+  }
+
+  @Benchmark
+  public BufferedImage scaleSmoothAndConvert() {
+
+    return SongPanel.convertImage(this.original.getScaledInstance(this.screenW, this.screenH, Image.SCALE_SMOOTH));
+  }
+
+  @Benchmark
+  public BufferedImage scaleMultiStep() {
+
+    return ImageScaler.scale(this.original, this.screenW, this.screenH);
+  }
+
+  @Benchmark
+  public Color getBarColor() {
+
+    return SongPanel.getBarColor(this.scaled);
+  }
+}
@@ -0,0 +1,319 @@
+
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates synthetic beatmaps, images, and audio so the benchmarks can run without a real osu! install.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+final class Fixtures {
+
+  /** Charset of .osu files. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Size of one MPEG-1 Layer III frame at 128kbps/44.1kHz without padding. */
+  private static final int MP3_FRAME_SIZE = 417;
+
+  private Fixtures() {}
+
+  /**
+   * Creates a temporary directory that is deleted when the JVM exits.
+   *
+   * @param prefix directory name prefix.
+   * @return the directory.
+   * @throws IOException if it can't be created.
+   */
+  static File tempDir(final String prefix) throws IOException {
+
+    final File dir = File.createTempFile(prefix, "");
+    dir.delete();
+    dir.mkdirs();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  /**
+   * Builds the bytes of a .osu file laid out like the ones osu! writes.
+   *
+   * @param hitObjects how many hit object lines to add.
+   * @param withSource whether to include a Source line.
+   * @param withBackground whether to include a background event.
+   * @return the .osu file contents.
+   */
+  static byte[] osuFile(final int hitObjects, final boolean withSource, final boolean withBackground) {
+
+    final StringBuilder sb = new StringBuilder(64 * hitObjects + 1024);
+    sb.append("﻿osu file format v14\r\n\r\n");
+    sb.append("[General]\r\nAudioFilename: audio.mp3\r\nAudioLeadIn: 0\r\nPreviewTime: 64000\r\n");
+    sb.append("Countdown: 0\r\nSampleSet: Soft\r\nStackLeniency: 0.7\r\nMode: 0\r\n\r\n");
+    sb.append("[Editor]\r\nBookmarks: 1000,2000,3000\r\nDistanceSpacing: 1\r\nBeatDivisor: 4\r\n\r\n");
+    sb.append("[Metadata]\r\nTitle:Synthetic Song\r\nTitleUnicode:合成の歌\r\n");
+    sb.append("Artist:Benchmark Artist\r\nArtistUnicode:Benchmark Artist\r\nCreator:jmh\r\nVersion:Insane\r\n");
+    if (withSource) {
+      sb.append("Source:Synthetic Source\r\n");
+    }
+    sb.append("Tags:benchmark synthetic fixture\r\nBeatmapID:1\r\nBeatmapSetID:1\r\n\r\n");
+    sb.append("[Difficulty]\r\nHPDrainRate:6\r\nCircleSize:4\r\nOverallDifficulty:8\r\nApproachRate:9\r\n\r\n");
+    sb.append("[Events]\r\n//Background and Video events\r\n");
+    if (withBackground) {
+      sb.append("0,0,\"bg.jpg\",0,0\r\n");
+    }
+    sb.append("//Break Periods\r\n//Storyboard Layer 0 (Background)\r\n\r\n");
+    sb.append("[TimingPoints]\r\n");
+    for (int i = 0; i < 64; i++) {
+      sb.append(i * 4000).append(",300,4,2,1,60,1,0\r\n");
+    }
+    sb.append("\r\n[Colours]\r\nCombo1 : 255,128,0\r\n\r\n[HitObjects]\r\n");
+    final Random rand = new Random(1L);
+    for (int i = 0; i < hitObjects; i++) {
+      sb.append(rand.nextInt(512)).append(',').append(rand.nextInt(384)).append(',').append(i * 150)
+          .append(",1,0,0:0:0:0:\r\n");
+    }
+    return sb.toString().getBytes(UTF8);
+  }
+
+  /**
+   * Writes a beatmap folder containing a single .osu file.
+   *
+   * @param parent where to create the folder.
+   * @param hitObjects how many hit object lines to add.
+   * @param withSource whether to include a Source line.
+   * @param withBackground whether to include a background event.
+   * @return the beatmap folder.
+   * @throws IOException if it can't be written.
+   */
+  static File beatmapFolder(final File parent, final int hitObjects, final boolean withSource,
+      final boolean withBackground) throws IOException {
+
+    final File dir = new File(parent, "1 Benchmark Artist - Synthetic Song");
+    dir.mkdirs();
+    dir.deleteOnExit();
+    write(new File(dir, "Benchmark Artist - Synthetic Song (jmh) [Insane].osu"),
+        osuFile(hitObjects, withSource, withBackground));
+    return dir;
+  }
+
+  /**
+   * Draws a noisy gradient that looks enough like a beatmap background to give the scalers real work.
+   *
+   * @param w image width.
+   * @param h image height.
+   * @return the image.
+   */
+  static BufferedImage background(final int w, final int h) {
+
+    final BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D g2 = img.createGraphics();
+    g2.setPaint(new GradientPaint(0, 0, new Color(30, 60, 160), w, h, new Color(240, 120, 40)));
+    g2.fillRect(0, 0, w, h);
+    final Random rand = new Random(2L);
+    for (int i = 0; i < 400; i++) {
+      g2.setColor(new Color(rand.nextInt(256), rand.nextInt(256), rand.nextInt(256), 96));
+      g2.fillOval(rand.nextInt(w), rand.nextInt(h), rand.nextInt(w >> 3) + 8, rand.nextInt(h >> 3) + 8);
+    }
+    g2.dispose();
+    return img;
+  }
+
+  /**
+   * Writes an image to disk.
+   *
+   * @param img the image.
+   * @param format "jpg" or "png".
+   * @param file where to write it.
+   * @throws IOException if it can't be written.
+   */
+  static void writeImage(final BufferedImage img, final String format, final File file) throws IOException {
+
+    if (!ImageIO.write(img, format, file)) {
+      throw new IOException("No ImageIO writer for " + format);
+    }
+  }
+
+  /** Words the synthetic library is made from (English, romaji, and Japanese, like a real osu! library). */
+  private static final String[] WORDS = { "blue", "zenith", "night", "of", "the", "fire", "love", "song", "dream",
+      "world", "star", "light", "heart", "sky", "ocean", "feat", "remix", "tv", "size", "ver", "kimi", "no", "sekai",
+      "yume", "hikari", "sora", "kokoro", "ai", "uta", "hoshi", "Freedom", "DIVE", "Brain", "Power", "Crystal",
+      "ユメ", "ヒカリ", "星空", "世界", "君の", "未来", "リンネ", "ＦＵＬＬ", "Ünïcödé", "Straße", "Tsukiyo",
+      "Camellia", "xi", "DragonForce", "Halozy", "ryu", "nora2r", "cYsmix", "Yooh", "t+pazolite", "Kano", "LeaF" };
+
+  /** Syllables the rest of the synthetic vocabulary is made from. */
+  private static final String[] SYLLABLES = { "ka", "ki", "ku", "ke", "ko", "sa", "shi", "su", "se", "so", "ta", "chi",
+      "tsu", "te", "to", "na", "ni", "nu", "ne", "no", "ha", "hi", "fu", "he", "ho", "ma", "mi", "mu", "me", "mo", "ya",
+      "yu", "yo", "ra", "ri", "ru", "re", "ro", "wa", "n", "ga", "gi", "zu", "de", "bo", "pa", "ster", "ight", "ow", "ex" };
+
+  /** Number of made-up words; how often each is used falls off roughly like a real library's vocabulary. */
+  private static final int VOCABULARY = 30000;
+
+  /**
+   * Builds a synthetic library of random titles, artists, sources, and tags.
+   *
+   * @param n number of entries.
+   * @return the entries.
+   */
+  static List<LibraryEntry> library(final int n) {
+
+    final Random rand = new Random(4L);
+    final List<LibraryEntry> entries = new ArrayList<LibraryEntry>(n);
+    for (int i = 0; i < n; i++) {
+      final String title = phrase(rand, 1 + rand.nextInt(5));
+      final String artist = phrase(rand, 1 + rand.nextInt(2));
+      final String source = rand.nextInt(3) == 0 ? phrase(rand, 1 + rand.nextInt(3)) : "";
+      final String tags = phrase(rand, rand.nextInt(12));
+      entries.add(new LibraryEntry(i, i + " " + artist + " - " + title, "map.osu", "audio.mp3", "bg.jpg", title,
+          artist, source, tags, null, 0L, 0L));
+    }
+    return entries;
+  }
+
+  /**
+   * Makes up a word out of syllables. The same id always gives the same word.
+   *
+   * @param id which word.
+   * @return the word.
+   */
+  private static String madeUpWord(final int id) {
+
+    final Random rand = new Random(id * 31L + 7L);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 1 + rand.nextInt(4); i > 0; i--) {
+      sb.append(SYLLABLES[rand.nextInt(SYLLABLES.length)]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Joins random words, from WORDS or made up.
+   *
+   * @param rand the random number generator.
+   * @param words how many words.
+   * @return the phrase.
+   */
+  private static String phrase(final Random rand, final int words) {
+
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      if (rand.nextInt(3) == 0) {
+        sb.append(WORDS[rand.nextInt(WORDS.length)]);
+      } else {
+        sb.append(madeUpWord((int) Math.pow(VOCABULARY, rand.nextDouble())));
+      }
+      if (rand.nextInt(8) == 0) {
+        sb.append(rand.nextInt(100));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Builds a mono test signal: a few sines plus a little noise.
+   *
+   * @param n number of samples.
+   * @param sampleRate the sample rate, in Hz.
+   * @return the samples.
+   */
+  static float[] signal(final int n, final float sampleRate) {
+
+    final float[] samples = new float[n];
+    final Random rand = new Random(3L);
+    for (int i = 0; i < n; i++) {
+      final double t = i / (double) sampleRate;
+      samples[i] = (float) (0.4 * Math.sin(2 * Math.PI * 110 * t) + 0.3 * Math.sin(2 * Math.PI * 880 * t)
+          + 0.1 * Math.sin(2 * Math.PI * 5000 * t) + 0.05 * (rand.nextDouble() - 0.5));
+    }
+    return samples;
+  }
+
+  /**
+   * Builds a tagged MP3: an ID3v2.3 tag, silent MPEG-1 Layer III frames, and an ID3v1 tag.
+   *
+   * @param frames how many audio frames (about 26ms each).
+   * @return the file contents.
+   */
+  static byte[] mp3(final int frames) {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(frames * MP3_FRAME_SIZE + 4096);
+
+    // ID3v2.3 header with a single title frame
+    final byte[] title = "\u0000Synthetic Song".getBytes(Charset.forName("ISO-8859-1"));
+    final int tagSize = 10 + title.length;
+    out.write('I');
+    out.write('D');
+    out.write('3');
+    out.write(3);
+    out.write(0);
+    out.write(0);
+    out.write((tagSize >> 21) & 0x7F);
+    out.write((tagSize >> 14) & 0x7F);
+    out.write((tagSize >> 7) & 0x7F);
+    out.write(tagSize & 0x7F);
+    out.write('T');
+    out.write('I');
+    out.write('T');
+    out.write('2');
+    out.write((title.length >> 24) & 0xFF);
+    out.write((title.length >> 16) & 0xFF);
+    out.write((title.length >> 8) & 0xFF);
+    out.write(title.length & 0xFF);
+    out.write(0);
+    out.write(0);
+    out.write(title, 0, title.length);
+
+    // MPEG-1 Layer III, 128kbps, 44.1kHz, no padding, joint stereo
+    final byte[] frame = new byte[MP3_FRAME_SIZE];
+    frame[0] = (byte) 0xFF;
+    frame[1] = (byte) 0xFB;
+    frame[2] = (byte) 0x90;
+    frame[3] = (byte) 0x64;
+    for (int i = 0; i < frames; i++) {
+      out.write(frame, 0, frame.length);
+    }
+
+    // ID3v1
+    final byte[] v1 = new byte[128];
+    v1[0] = 'T';
+    v1[1] = 'A';
+    v1[2] = 'G';
+    final byte[] v1Title = "Synthetic Song".getBytes(Charset.forName("ISO-8859-1"));
+    System.arraycopy(v1Title, 0, v1, 3, v1Title.length);
+    out.write(v1, 0, v1.length);
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes bytes to a file.
+   *
+   * @param file the file.
+   * @param data what to write.
+   * @throws IOException if it can't be written.
+   */
+  static void write(final File file, final byte[] data) throws IOException {
+
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    file.deleteOnExit();
+  }
+}
@@ -0,0 +1,70 @@
+
+package com.rath.osuplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Beatmap header parsing, from a folder on disk and from memory.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MapParserBenchmark {
+
+  /** Whether the map has a Source and a background (without them, older parsers read the whole file). */
+  @Param({ "true", "false" })
+  public boolean complete;
+
+  /** Number of hit objects in the map. */
+  @Param({ "2000" })
+  public int hitObjects;
+
+  /** Beatmap folder on disk. */
+  private String mapDir;
+
+  /** The .osu file in memory. */
+  private byte[] osuBytes;
+
+  /** Parser reused across invocations. */
+  private final OsuHeaderParser parser = new OsuHeaderParser();
+
+  @Setup
+  public void setup() throws IOException {
+
+    final File root = Fixtures.tempDir("osuplayer-bench");
+    this.mapDir = Fixtures.beatmapFolder(root, this.hitObjects, this.complete, this.complete).getPath();
+    this.osuBytes = Fixtures.osuFile(this.hitObjects, this.complete, this.complete);
+  }
+
+  @Benchmark
+  public String[] parseBeatmap() {
+
+    return MapParser.parseBeatmap(this.mapDir);
+  }
+
+  @Benchmark
+  public BeatmapHeader parseHeaderFromMemory() throws IOException {
+
+    return this.parser.parse(new ByteArrayInputStream(this.osuBytes));
+  }
+}
@@ -0,0 +1,117 @@
+
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mpatric.mp3agic.InvalidDataException;
+import com.mpatric.mp3agic.Mp3File;
+import com.mpatric.mp3agic.NotSupportedException;
+import com.mpatric.mp3agic.UnsupportedTagException;
+
+/**
+ * Preparing a song's audio file for Minim: the old tag-stripping copy versus reading past the tags in place.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class Mp3TagBenchmark {
+
+  /** Number of MPEG frames (12000 is about 5 minutes, or 5MB). */
+  @Param({ "12000" })
+  public int frames;
+
+  /** The tagged MP3. */
+  private File mp3;
+
+  /** Read buffer, about the size Minim's decoder asks for. */
+  private final byte[] buf = new byte[4096];
+
+  @Setup
+  public void setup() throws IOException {
+
+    final File dir = Fixtures.tempDir("osuplayer-bench");
+    this.mp3 = new File(dir, "audio.mp3");
+    Fixtures.write(this.mp3, Fixtures.mp3(this.frames));
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    final String path = this.mp3.getPath();
+    new File(path.substring(0, path.length() - 4) + "0.mp3").delete();
+  }
+
+  /**
+   * What the player used to do before every song: parse the whole file with mp3agic and write a tag-free copy.
+   */
+  @Benchmark
+  public String stripTagsToCopy() throws IOException, UnsupportedTagException, InvalidDataException,
+      NotSupportedException {
+
+    final String s = this.mp3.getPath();
+    final String newFileName = s.substring(0, s.length() - 4) + "0.mp3";
+    final Mp3File mf = new Mp3File(s);
+    if (mf.hasId3v1Tag())
+      mf.removeId3v1Tag();
+    if (mf.hasId3v2Tag())
+      mf.removeId3v2Tag();
+    if (mf.hasCustomTag())
+      mf.removeCustomTag();
+    mf.save(newFileName);
+    return newFileName;
+  }
+
+  /**
+   * Opening the file through MinimHandler and finding the tags, without reading any audio.
+   */
+  @Benchmark
+  public long openTagSkippingStream() throws IOException {
+
+    final TagSkippingInputStream in = new TagSkippingInputStream(this.mp3);
+    try {
+      return in.getAudioLength();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reading all of the audio through MinimHandler, as the decoder would over the length of the song.
+   */
+  @Benchmark
+  public long readTagSkippingStream() throws IOException {
+
+    final InputStream in = new MinimHandler().createInput(this.mp3.getPath());
+    long total = 0L;
+    try {
+      int n;
+      while ((n = in.read(this.buf, 0, this.buf.length)) > 0) {
+        total += n;
+      }
+    } finally {
+      in.close();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,104 @@
+
+package com.rath.osuplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search-as-you-type against a synthetic library: replays typing sequences one keystroke per call (including typos
+ * and backspaces), so the score is the average time per keystroke. keystrokeFirstPage is the quick first page the
+ * SearchScheduler shows before the full ranking.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SearchBenchmark {
+
+  /** What gets typed, in order. */
+  private static final String[] TYPED = { "blue zenith", "kimi no sekai", "camelia", "camellia", "ｆｕｌｌ ver",
+      "星空", "straße", "STRASSE remix", "t+pazolite", "dragonforce night of fire", "hikari tv size", "xi freedom dive",
+      "lEaF", "yume 42", "brain power", "a" };
+
+  /** Every keystroke of every typing sequence, as the search field's contents after that keystroke. */
+  private static final String[] KEYSTROKES = keystrokes();
+
+  /** Number of entries in the library. */
+  @Param({ "5000", "50000" })
+  public int librarySize;
+
+  /** The synthetic library. */
+  private List<LibraryEntry> library;
+
+  /** The index being searched. */
+  private SongSearchIndex index;
+
+  /** The next keystroke to replay. */
+  private int next;
+
+  @Setup
+  public void setup() {
+
+    this.library = Fixtures.library(this.librarySize);
+    this.index = SongSearchIndex.build(this.library);
+  }
+
+  @Benchmark
+  public SongSearchIndex build() {
+
+    return SongSearchIndex.build(this.library);
+  }
+
+  @Benchmark
+  public List<LibraryEntry> keystroke() {
+
+    final String text = KEYSTROKES[this.next];
+    this.next = (this.next + 1) % KEYSTROKES.length;
+    return this.index.search(text, SongSearchIndex.DEFAULT_LIMIT);
+  }
+
+  @Benchmark
+  public List<LibraryEntry> keystrokeFirstPage() {
+
+    final String text = KEYSTROKES[this.next];
+    this.next = (this.next + 1) % KEYSTROKES.length;
+    return this.index.search(text, SongSearchIndex.DEFAULT_LIMIT, SongSearchIndex.DEFAULT_LIMIT);
+  }
+
+  /**
+   * Works out the field contents after every keystroke, with a typo and backspace every few words.
+   *
+   * @return the field contents, one per keystroke.
+   */
+  private static String[] keystrokes() {
+
+    final List<String> out = new ArrayList<String>();
+    for (final String typed : TYPED) {
+      for (int i = 1; i <= typed.length(); i++) {
+        final String prefix = typed.substring(0, i);
+        if (i % 7 == 0) {
+          out.add(prefix + "q");
+        }
+        out.add(prefix);
+      }
+    }
+    return out.toArray(new String[out.size()]);
+  }
+}
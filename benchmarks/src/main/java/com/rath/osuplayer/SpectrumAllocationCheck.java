@@ -0,0 +1,99 @@
+
+package com.rath.osuplayer;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the per-frame spectrum path allocates nothing once it is warmed up: the audio thread handing samples to
+ * the analyzer, the analysis thread running the SpectrumEngine, and the renderer reading the newest spectrum and
+ * recording its frame time. Uses the HotSpot ThreadMXBean's per-thread allocation counter, and exits with status 1 if
+ * any bytes were allocated.
+ *
+ * Run by 'gradle :benchmarks:check' (and so by 'gradle build').
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SpectrumAllocationCheck {
+
+  /** Frames run before measuring, so the JIT has settled. */
+  private static final int WARMUP_FRAMES = 50000;
+
+  /** Frames measured. */
+  private static final int FRAMES = 10000;
+
+  /** Sample rate of the synthetic signal. */
+  private static final float SAMPLE_RATE = 44100.0F;
+
+  /** Samples per buffer, like PreparedSong's players. */
+  private static final int BUFFER_SIZE = PreparedSong.AUDIO_BUFFER_SIZE;
+
+  public static void main(final String[] args) {
+
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      System.out.println("Thread allocation counters not supported by this JVM, skipping.");
+      return;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+    final long tid = Thread.currentThread().getId();
+
+    final float[] left = Fixtures.signal(BUFFER_SIZE, SAMPLE_RATE);
+    final float[] right = Fixtures.signal(BUFFER_SIZE, SAMPLE_RATE);
+    final float[] window = new float[SpectrumAnalyzer.WINDOW_SIZE];
+    final SpectrumEngine engine = new SpectrumEngine(SpectrumAnalyzer.WINDOW_SIZE);
+    engine.setSampleRate(SAMPLE_RATE);
+
+    final SpectrumAnalyzer analyzer = new SpectrumAnalyzer();
+    final float[] levels = new float[SpectrumAnalyzer.MAX_BANDS];
+    final float[] peaks = new float[SpectrumAnalyzer.MAX_BANDS];
+    final FrameStats stats = new FrameStats();
+
+    long checksum = 0L;
+    try {
+      for (int i = 0; i < WARMUP_FRAMES; i++) {
+        checksum += frame(engine, analyzer, left, right, window, levels, peaks, stats);
+      }
+
+      // Cost of reading the counter itself
+      final long overheadStart = threads.getThreadAllocatedBytes(tid);
+      final long overhead = threads.getThreadAllocatedBytes(tid) - overheadStart;
+
+      final long start = threads.getThreadAllocatedBytes(tid);
+      for (int i = 0; i < FRAMES; i++) {
+        checksum += frame(engine, analyzer, left, right, window, levels, peaks, stats);
+      }
+      final long allocated = threads.getThreadAllocatedBytes(tid) - start - overhead;
+
+      System.out.println(String.format("Spectrum path: %d bytes allocated over %d frames (%.2f bytes/frame)%s",
+          allocated, FRAMES, allocated / (double) FRAMES, (checksum == 42L) ? "." : ""));
+      if (allocated > 0L) {
+        System.err.println("Spectrum path allocates on every frame!");
+        System.exit(1);
+      }
+    } finally {
+      analyzer.shutdown();
+    }
+  }
+
+  /**
+   * Runs one frame's worth of the spectrum path on the current thread.
+   *
+   * @return something derived from the output, so the work can't be optimized away.
+   */
+  private static int frame(final SpectrumEngine engine, final SpectrumAnalyzer analyzer, final float[] left,
+      final float[] right, final float[] window, final float[] levels, final float[] peaks, final FrameStats stats) {
+
+    // Audio thread
+    analyzer.samples(left, right);
+
+    // Analysis thread
+    System.arraycopy(left, 0, window, 0, window.length);
+    engine.analyze(window);
+
+    // Renderer
+    final int bands = analyzer.read(levels, peaks);
+    stats.record(System.nanoTime() & 0xFFFFFFL);
+    return bands + (int) engine.getLevels()[0];
+  }
+}
@@ -0,0 +1,117 @@
+
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ddf.minim.analysis.FFT;
+
+/**
+ * The spectrum work: the FFT the analysis thread runs per buffer, and the bar drawing loop the renderer runs per frame,
+ * drawn into an offscreen image.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SpectrumBenchmark {
+
+  /** Samples per analysis window. */
+  private static final int BUFFER_SIZE = SpectrumAnalyzer.WINDOW_SIZE;
+
+  /** Sample rate of the synthetic signal. */
+  private static final float SAMPLE_RATE = 44100.0F;
+
+  /** Offscreen frame. */
+  private BufferedImage frame;
+
+  /** Graphics for the offscreen frame. */
+  private Graphics2D g2;
+
+  /** Minim's FFT with log averages, the way the visualization used to run it. */
+  private FFT fft;
+
+  /** Band averages from the old FFT setup. */
+  private final float[] bands = new float[SpectrumAnalyzer.MAX_BANDS];
+
+  /** The spectrum engine the analysis thread runs. */
+  private SpectrumEngine engine;
+
+  /** A mix of a few sines plus noise. */
+  private float[] samples;
+
+  /** Window handed to the FFT (which may change it). */
+  private float[] window;
+
+  @Setup
+  public void setup() {
+
+    this.frame = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_ARGB);
+    this.g2 = this.frame.createGraphics();
+    this.g2.setColor(new Color(255, 255, 255, 180));
+
+    this.fft = new FFT(BUFFER_SIZE, SAMPLE_RATE);
+    this.fft.logAverages(SongPanel.NUM_BANDS, 10);
+
+    this.engine = new SpectrumEngine(BUFFER_SIZE);
+    this.engine.setSampleRate(SAMPLE_RATE);
+
+    this.samples = Fixtures.signal(BUFFER_SIZE, SAMPLE_RATE);
+    this.window = new float[BUFFER_SIZE];
+    for (int i = 0; i < 16; i++) {
+      System.arraycopy(this.samples, 0, this.window, 0, BUFFER_SIZE);
+      this.engine.analyze(this.window);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    this.g2.dispose();
+  }
+
+  @Benchmark
+  public void drawBands() {
+
+    SongPanel.drawBands(this.g2, this.engine.getLevels(), this.engine.getPeaks(), this.engine.getBandCount(),
+        this.frame.getHeight());
+  }
+
+  @Benchmark
+  public void logAveragesAndDrawBands() {
+
+    this.fft.forward(this.samples);
+    final int n = Math.min(this.fft.avgSize(), this.bands.length);
+    for (int i = 0; i < n; i++) {
+      this.bands[i] = this.fft.getAvg(i);
+    }
+    SongPanel.drawBands(this.g2, this.bands, null, n, this.frame.getHeight());
+  }
+
+  @Benchmark
+  public void analyzeAndDrawBands() {
+
+    System.arraycopy(this.samples, 0, this.window, 0, BUFFER_SIZE);
+    this.engine.analyze(this.window);
+    SongPanel.drawBands(this.g2, this.engine.getLevels(), this.engine.getPeaks(), this.engine.getBandCount(),
+        this.frame.getHeight());
+  }
+}
@@ -0,0 +1,222 @@
+
+package com.rath.osuplayer;
+
+import java.awt.DisplayMode;
+import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Draws the SongPanel from its own thread into a page-flipped BufferStrategy, paced to the display's refresh rate.
+ * This keeps painting off the EDT, so key handling and song switches no longer delay frames.
+ *
+ * Turned on with -Dosuplayer.activerender=true. If the frame can't get a BufferStrategy, start() returns null and the
+ * panel keeps using passive Swing painting.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class ActiveRenderer implements Runnable {
+
+  /** Number of buffers in the BufferStrategy. */
+  private static final int NUM_BUFFERS = 2;
+
+  /** Sleep until this long before a deadline, then yield the rest of the way, in nanoseconds. */
+  private static final long SPIN_NANOS = 1000000L;
+
+  /** The frame being drawn into. */
+  private final PlayerFrame frame;
+
+  /** The panel doing the drawing. */
+  private final SongPanel panel;
+
+  /** The frame's BufferStrategy. */
+  private final BufferStrategy strategy;
+
+  /** Time between frames, in nanoseconds. */
+  private final long periodNanos;
+
+  /** Frame timing statistics. */
+  private final FrameStats stats = new FrameStats();
+
+  /** The render thread. */
+  private final Thread thread;
+
+  /** Whether the render loop should keep going. */
+  private volatile boolean running = true;
+
+  /**
+   * Constructor.
+   *
+   * @param frame the frame to draw into.
+   * @param panel the panel to draw.
+   * @param strategy the frame's BufferStrategy.
+   * @param refreshRate frames per second to aim for.
+   */
+  private ActiveRenderer(final PlayerFrame frame, final SongPanel panel, final BufferStrategy strategy,
+      final int refreshRate) {
+    this.frame = frame;
+    this.panel = panel;
+    this.strategy = strategy;
+    this.periodNanos = 1000000000L / refreshRate;
+    this.thread = new Thread(this, "render");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Sets up active rendering for a frame and starts the render thread. Must be called on the EDT after the frame is
+   * visible.
+   *
+   * @param frame the frame to draw into.
+   * @param panel the panel to draw.
+   * @param fallbackRate frames per second to aim for if the display doesn't report its refresh rate.
+   * @return the running renderer, or null if active rendering isn't available.
+   */
+  public static final ActiveRenderer start(final PlayerFrame frame, final SongPanel panel, final int fallbackRate) {
+
+    if (GraphicsEnvironment.isHeadless() || !frame.isDisplayable()) {
+      return null;
+    }
+
+    final BufferStrategy strategy;
+    try {
+      frame.setIgnoreRepaint(true);
+      panel.setIgnoreRepaint(true);
+      frame.createBufferStrategy(NUM_BUFFERS);
+      strategy = frame.getBufferStrategy();
+    } catch (RuntimeException e) {
+      System.err.println("Active rendering not available, using Swing painting: " + e);
+      frame.setIgnoreRepaint(false);
+      panel.setIgnoreRepaint(false);
+      return null;
+    }
+    if (strategy == null) {
+      frame.setIgnoreRepaint(false);
+      panel.setIgnoreRepaint(false);
+      return null;
+    }
+
+    final ActiveRenderer renderer = new ActiveRenderer(frame, panel, strategy, getRefreshRate(frame, fallbackRate));
+    System.out.println(String.format("Active rendering at %dHz (page flipping: %b).",
+        1000000000L / renderer.periodNanos, strategy.getCapabilities().isPageFlipping()));
+    renderer.thread.start();
+    return renderer;
+  }
+
+  /**
+   * Gets the refresh rate of the display a frame is on.
+   *
+   * @param frame the frame.
+   * @param fallbackRate what to use if the display doesn't say.
+   * @return the refresh rate, in Hz.
+   */
+  private static final int getRefreshRate(final PlayerFrame frame, final int fallbackRate) {
+
+    final GraphicsDevice device = frame.getGraphicsConfiguration().getDevice();
+    final DisplayMode mode = device.getDisplayMode();
+    if (mode == null || mode.getRefreshRate() == DisplayMode.REFRESH_RATE_UNKNOWN || mode.getRefreshRate() <= 0) {
+      return fallbackRate;
+    }
+    return mode.getRefreshRate();
+  }
+
+  /**
+   * Stops the render thread and waits for it to finish its frame.
+   */
+  public final void stop() {
+
+    this.running = false;
+    if (Thread.currentThread() == this.thread) {
+      return;
+    }
+    try {
+      this.thread.join(1000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the frame timing statistics.
+   *
+   * @return the statistics.
+   */
+  public final FrameStats getStats() {
+
+    return this.stats;
+  }
+
+  @Override
+  public void run() {
+
+    long lastPresent = System.nanoTime();
+    long deadline = lastPresent + this.periodNanos;
+
+    while (this.running) {
+      try {
+        present();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+
+      // Frame timing
+      final long now = System.nanoTime();
+      this.stats.record(now - lastPresent);
+      lastPresent = now;
+
+      // If we ran past one or more deadlines, those frames are lost; line back up with the next one
+      if (now > deadline) {
+        final long missed = (now - deadline) / this.periodNanos + 1;
+        this.stats.drop(missed);
+        deadline += missed * this.periodNanos;
+      }
+
+      waitUntil(deadline);
+      deadline += this.periodNanos;
+    }
+  }
+
+  /**
+   * Draws one frame and shows it, redrawing if the buffer contents were lost along the way.
+   */
+  private final void present() {
+
+    final Point offset = SwingUtilities.convertPoint(this.panel, 0, 0, this.frame);
+    do {
+      do {
+        final Graphics2D g2 = (Graphics2D) this.strategy.getDrawGraphics();
+        try {
+          g2.translate(offset.x, offset.y);
+          this.panel.render(g2);
+        } finally {
+          g2.dispose();
+        }
+      } while (this.strategy.contentsRestored());
+      this.strategy.show();
+    } while (this.strategy.contentsLost());
+
+    // Some platforms buffer drawing commands; make sure the frame actually goes out now
+    Toolkit.getDefaultToolkit().sync();
+  }
+
+  /**
+   * Sleeps until a deadline, yielding for the last bit since parking isn't precise enough on its own.
+   *
+   * @param deadline when to wake up, from System.nanoTime().
+   */
+  private static final void waitUntil(final long deadline) {
+
+    final long left = deadline - System.nanoTime();
+    if (left > SPIN_NANOS) {
+      LockSupport.parkNanos(left - SPIN_NANOS);
+    }
+    while (deadline - System.nanoTime() > 0) {
+      Thread.yield();
+    }
+  }
+}
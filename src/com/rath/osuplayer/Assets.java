@@ -0,0 +1,276 @@
+package com.rath.osuplayer;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The player's own fonts and images, each loaded exactly once and shared by every panel. preload() starts loading all
+ * of them on worker threads right at startup, so by the time the panels are built (after the library and the audio
+ * system are up) they're usually ready; anything asked for before it's done is waited for.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class Assets {
+
+  /** The player font. */
+  public static final String FONT = "res/fonts/JAPANSANS80.OTF";
+
+  /** Left song info border. */
+  public static final String INFO_BORDER_LEFT = "res/img/info-border-left.png";
+
+  /** Right song info border. */
+  public static final String INFO_BORDER_RIGHT = "res/img/info-border-right.png";
+
+  /** Song info border (scalable). */
+  public static final String INFO_BORDER_CENTER = "res/img/info-border-center.png";
+
+  /** Search icon. */
+  public static final String MAG = "res/img/mag.png";
+
+  /** Play button. */
+  public static final String PLAY = "res/img/play.png";
+
+  /** Play button, hovered. */
+  public static final String PLAY_HOVER = "res/img/play-hover.png";
+
+  /** Pause button. */
+  public static final String PAUSE = "res/img/pause.png";
+
+  /** Pause button, hovered. */
+  public static final String PAUSE_HOVER = "res/img/pause-hover.png";
+
+  /** New song button. */
+  public static final String REFRESH = "res/img/refresh.png";
+
+  /** New song button, hovered. */
+  public static final String REFRESH_HOVER = "res/img/refresh-hover.png";
+
+  /** Close button. */
+  public static final String CLOSE = "res/img/close.png";
+
+  /** Close button, hovered. */
+  public static final String CLOSE_HOVER = "res/img/close-hover.png";
+
+  /** Every image, in the order they're preloaded. */
+  private static final String[] IMAGES = { INFO_BORDER_LEFT, INFO_BORDER_RIGHT, INFO_BORDER_CENTER, MAG, PLAY,
+      PLAY_HOVER, PAUSE, PAUSE_HOVER, REFRESH, REFRESH_HOVER, CLOSE, CLOSE_HOVER };
+
+  /** Most loader threads. */
+  private static final int MAX_THREADS = 4;
+
+  /** How long an idle loader thread sticks around, in seconds. */
+  private static final long IDLE_SECONDS = 5L;
+
+  /** The registry every panel shares. */
+  private static final Assets SHARED = new Assets();
+
+  /** Loads assets. */
+  private final ThreadPoolExecutor loader;
+
+  /** Every image asked for so far, by path (guarded by this). */
+  private final Map<String, Future<BufferedImage>> images = new HashMap<String, Future<BufferedImage>>();
+
+  /** The player font, at size 1 (guarded by this; null until asked for). */
+  private Future<Font> font = null;
+
+  /** Time spent loading assets, summed over the loader threads, in nanoseconds (guarded by this). */
+  private long loadNanos = 0L;
+
+  /** Time spent waiting for assets that weren't loaded yet, in nanoseconds (guarded by this). */
+  private long waitNanos = 0L;
+
+  /** Assets loaded (guarded by this). */
+  private int loaded = 0;
+
+  private Assets() {
+    this.loader = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, IDLE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+          @Override
+          public Thread newThread(final Runnable r) {
+
+            final Thread t = new Thread(r, "asset-loader");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.loader.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Gets the registry every panel shares.
+   *
+   * @return the shared Assets.
+   */
+  public static final Assets shared() {
+
+    return SHARED;
+  }
+
+  /**
+   * Starts loading the font and every image in the background. Safe to call more than once.
+   */
+  public final synchronized void preload() {
+
+    fontFuture();
+    for (final String path : IMAGES) {
+      imageFuture(path);
+    }
+  }
+
+  /**
+   * Gets an image, waiting for it if it's still loading.
+   *
+   * @param path the image's path.
+   * @return the image, or null if it couldn't be read.
+   */
+  public final BufferedImage getImage(final String path) {
+
+    return await(imageFuture(path));
+  }
+
+  /**
+   * Gets the player font (registered with the GraphicsEnvironment), waiting for it if it's still loading.
+   *
+   * @param size the font size.
+   * @return the font, or null if it couldn't be read.
+   */
+  public final Font getFont(final float size) {
+
+    final Font base = await(fontFuture());
+    return (base == null) ? null : base.deriveFont(size);
+  }
+
+  /**
+   * Gets the load of an image, starting it if nobody has asked for it yet.
+   *
+   * @param path the image's path.
+   * @return the image being loaded.
+   */
+  private final synchronized Future<BufferedImage> imageFuture(final String path) {
+
+    Future<BufferedImage> f = this.images.get(path);
+    if (f == null) {
+      f = this.loader.submit(new Callable<BufferedImage>() {
+
+        @Override
+        public BufferedImage call() {
+
+          final long start = System.nanoTime();
+          try {
+            return ImageIO.read(new File(path));
+          } catch (IOException e) {
+            System.err.println("Cannot read \"" + path + "\": " + e.getMessage());
+            return null;
+          } finally {
+            loadedOne(start);
+          }
+        }
+      });
+      this.images.put(path, f);
+    }
+    return f;
+  }
+
+  /**
+   * Gets the load of the font, starting it if nobody has asked for it yet.
+   *
+   * @return the font being loaded.
+   */
+  private final synchronized Future<Font> fontFuture() {
+
+    if (this.font == null) {
+      this.font = this.loader.submit(new Callable<Font>() {
+
+        @Override
+        public Font call() {
+
+          final long start = System.nanoTime();
+          try {
+            final Font f = Font.createFont(Font.TRUETYPE_FONT, new File(FONT));
+            GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(f);
+            return f;
+          } catch (IOException e) {
+            System.err.println("Cannot read \"" + FONT + "\": " + e.getMessage());
+          } catch (FontFormatException e) {
+            e.printStackTrace();
+          } finally {
+            loadedOne(start);
+          }
+          return null;
+        }
+      });
+    }
+    return this.font;
+  }
+
+  /**
+   * Counts a finished load.
+   *
+   * @param start when it started, from System.nanoTime().
+   */
+  private final synchronized void loadedOne(final long start) {
+
+    this.loaded++;
+    this.loadNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * Waits for an asset, counting the time spent waiting.
+   *
+   * @param f the asset being loaded.
+   * @return the asset, or null if it couldn't be loaded.
+   */
+  private final <T> T await(final Future<T> f) {
+
+    if (f.isDone()) {
+      return get(f);
+    }
+    final long start = System.nanoTime();
+    final T asset = get(f);
+    synchronized (this) {
+      this.waitNanos += System.nanoTime() - start;
+    }
+    return asset;
+  }
+
+  /**
+   * Gets a loaded asset.
+   *
+   * @param f the asset being loaded.
+   * @return the asset, or null if it couldn't be loaded.
+   */
+  private static final <T> T get(final Future<T> f) {
+
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized String toString() {
+
+    return String.format("Assets: %d loaded on %d threads, %.0fms of loading, %.0fms spent waiting", this.loaded,
+        MAX_THREADS, this.loadNanos / 1.0E6D, this.waitNanos / 1.0E6D);
+  }
+}
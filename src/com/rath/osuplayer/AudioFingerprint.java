@@ -0,0 +1,69 @@
+
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes the audio content of a song file. For .mp3 files only the MPEG payload is hashed (tags are skipped the same
+ * way TagSkippingInputStream skips them for playback), so retagging a song doesn't change its hash.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class AudioFingerprint {
+
+  /** Bytes read at a time (large, so hashing a whole library mostly streams). */
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private AudioFingerprint() {}
+
+  /**
+   * Hashes a song's audio content.
+   *
+   * @param audioFile the audio file.
+   * @return the SHA-1 of the audio content, as hex.
+   * @throws IOException if the file can't be read.
+   */
+  public static final String compute(final File audioFile) throws IOException {
+
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    final InputStream in = audioFile.getName().toLowerCase().endsWith(".mp3") ? new TagSkippingInputStream(audioFile)
+        : new FileInputStream(audioFile);
+    try {
+      final byte[] buf = new byte[BUFFER_SIZE];
+      int n;
+      while ((n = in.read(buf, 0, buf.length)) > 0) {
+        digest.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Formats bytes as lowercase hex.
+   *
+   * @param bytes the bytes.
+   * @return the hex String.
+   */
+  static final String toHex(final byte[] bytes) {
+
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+}
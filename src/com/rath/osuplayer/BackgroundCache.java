@@ -0,0 +1,399 @@
+
+package com.rath.osuplayer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * A two-tier cache of song backgrounds that are already scaled to the screen. The first tier keeps display-ready
+ * images in memory, evicting the least recently used ones once a byte budget is reached. The second tier keeps
+ * compressed copies of the scaled images on disk, which load much faster than the multi-megapixel originals.
+ *
+ * Entries are keyed by image path, modification time, and target size, so a changed image or a new screen resolution
+ * never returns a stale result.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class BackgroundCache {
+
+  /** Default directory of the disk tier. */
+  public static final String DEFAULT_DIR = "osuplayer-cache/bg";
+
+  /** Default size of the memory tier, in MB (override with -Dosuplayer.bgcache.mb). */
+  static final long DEFAULT_MEMORY_MB = 256L;
+
+  /** Default size of the disk tier, in MB (override with -Dosuplayer.bgcache.disk.mb). */
+  private static final long DEFAULT_DISK_MB = 512L;
+
+  /** JPEG quality of the disk tier. */
+  private static final float DISK_QUALITY = 0.9F;
+
+  /** Bytes in a megabyte. */
+  static final long MB = 1024L * 1024L;
+
+  /** Memory tier, in least recently used order. */
+  private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<String, BufferedImage>(16, 0.75F,
+      true);
+
+  /** Directory of the disk tier, or null if the disk tier is off. */
+  private final File diskDir;
+
+  /** Maximum bytes held by the memory tier. */
+  private final long maxMemoryBytes;
+
+  /** Maximum bytes held by the disk tier. */
+  private final long maxDiskBytes;
+
+  /** Bytes currently held by the memory tier. */
+  private long memoryBytes;
+
+  /** Bytes currently held by the disk tier. */
+  private long diskBytes;
+
+  // Statistics
+  private long memoryHits;
+  private long diskHits;
+  private long misses;
+  private long memoryEvictions;
+  private long diskEvictions;
+
+  /**
+   * Default constructor. Uses the default directory and sizes.
+   */
+  public BackgroundCache() {
+    this(new File(DEFAULT_DIR), Long.getLong("osuplayer.bgcache.mb", DEFAULT_MEMORY_MB) * MB,
+        Long.getLong("osuplayer.bgcache.disk.mb", DEFAULT_DISK_MB) * MB);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param diskDir directory of the disk tier, or null to keep everything in memory only.
+   * @param maxMemoryBytes maximum bytes held in memory.
+   * @param maxDiskBytes maximum bytes held on disk.
+   */
+  public BackgroundCache(final File diskDir, final long maxMemoryBytes, final long maxDiskBytes) {
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.maxDiskBytes = maxDiskBytes;
+
+    File dir = diskDir;
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      System.err.println("Could not create background cache directory \"" + dir + "\".");
+      dir = null;
+    }
+    this.diskDir = dir;
+    if (this.diskDir != null) {
+      trimDisk();
+    }
+  }
+
+  /**
+   * Gets a background scaled to the given size, from whichever tier has it, or by decoding and scaling the original.
+   *
+   * @param imageFile the original background image.
+   * @param w the target width.
+   * @param h the target height.
+   * @return the scaled image, or null if the original can't be read.
+   */
+  public final BufferedImage get(final File imageFile, final int w, final int h) {
+
+    final long mtime = imageFile.lastModified();
+    if (mtime == 0L) {
+      return null;
+    }
+    final String key = imageFile.getAbsolutePath() + '|' + mtime + '|' + w + 'x' + h;
+
+    // Memory tier
+    synchronized (this) {
+      final BufferedImage img = this.memory.get(key);
+      if (img != null) {
+        this.memoryHits++;
+        return img;
+      }
+    }
+
+    // Disk tier
+    final File diskFile = (this.diskDir != null) ? new File(this.diskDir, hash(key) + ".jpg") : null;
+    if (diskFile != null && diskFile.isFile()) {
+      try {
+        final BufferedImage jpeg = ImageIO.read(diskFile);
+        if (jpeg != null && jpeg.getWidth() == w && jpeg.getHeight() == h) {
+          synchronized (this) {
+            this.diskHits++;
+          }
+          diskFile.setLastModified(System.currentTimeMillis());
+
+          // The JPEG decodes as 3-byte BGR, which is slow to draw, so copy it into the screen's format
+          final BufferedImage img = ImageScaler.createOpaque(w, h);
+          final Graphics2D g2 = img.createGraphics();
+          g2.drawImage(jpeg, 0, 0, null);
+          g2.dispose();
+          putMemory(key, img);
+          return img;
+        }
+      } catch (IOException e) {
+        System.err.println("Corrupt cached background \"" + diskFile + "\".");
+      }
+    }
+
+    // Decode and scale the original
+    synchronized (this) {
+      this.misses++;
+    }
+    final BufferedImage img;
+    try {
+      final BufferedImage original = ImageIO.read(imageFile);
+      if (original == null) {
+        return null;
+      }
+      img = ImageScaler.scale(original, w, h);
+    } catch (IOException e) {
+      return null;
+    }
+
+    putMemory(key, img);
+    if (diskFile != null) {
+      putDisk(diskFile, img);
+    }
+    return img;
+  }
+
+  /**
+   * Adds an image to the memory tier, evicting old images until it fits.
+   *
+   * @param key the cache key.
+   * @param img the image.
+   */
+  private final synchronized void putMemory(final String key, final BufferedImage img) {
+
+    final long size = sizeOf(img);
+    if (size > this.maxMemoryBytes) {
+      return;
+    }
+
+    final BufferedImage old = this.memory.put(key, img);
+    if (old != null) {
+      this.memoryBytes -= sizeOf(old);
+    }
+    this.memoryBytes += size;
+
+    final Iterator<Map.Entry<String, BufferedImage>> it = this.memory.entrySet().iterator();
+    while (this.memoryBytes > this.maxMemoryBytes && it.hasNext()) {
+      final Map.Entry<String, BufferedImage> eldest = it.next();
+      if (eldest.getKey().equals(key)) {
+        continue;
+      }
+      this.memoryBytes -= sizeOf(eldest.getValue());
+      it.remove();
+      this.memoryEvictions++;
+    }
+  }
+
+  /**
+   * Writes a scaled image to the disk tier as a JPEG.
+   *
+   * @param diskFile where to write it.
+   * @param img the image.
+   */
+  private final void putDisk(final File diskFile, final BufferedImage img) {
+
+    // JPEG has no alpha channel
+    BufferedImage rgb = img;
+    if (img.getColorModel().hasAlpha()) {
+      rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+      final Graphics2D g2 = rgb.createGraphics();
+      g2.drawImage(img, 0, 0, null);
+      g2.dispose();
+    }
+
+    final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    final File tmpFile = new File(diskFile.getPath() + ".tmp");
+    ImageOutputStream out = null;
+    try {
+      out = ImageIO.createImageOutputStream(tmpFile);
+      writer.setOutput(out);
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(DISK_QUALITY);
+      writer.write(null, new IIOImage(rgb, null, null), param);
+      out.close();
+      out = null;
+
+      if (!tmpFile.renameTo(diskFile)) {
+        tmpFile.delete();
+        return;
+      }
+    } catch (IOException e) {
+      tmpFile.delete();
+      System.err.println("Could not cache background \"" + diskFile + "\": " + e.getMessage());
+      return;
+    } finally {
+      writer.dispose();
+      LibraryIndex.closeQuietly(out);
+    }
+
+    boolean overLimit;
+    synchronized (this) {
+      this.diskBytes += diskFile.length();
+      overLimit = this.diskBytes > this.maxDiskBytes;
+    }
+    if (overLimit) {
+      trimDisk();
+    }
+  }
+
+  /**
+   * Deletes the least recently used files of the disk tier until it is under its size limit.
+   */
+  private final void trimDisk() {
+
+    final File[] files = this.diskDir.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    final long[] mtimes = new long[files.length];
+    long total = 0L;
+    for (int i = 0; i < files.length; i++) {
+      mtimes[i] = files[i].lastModified();
+      total += files[i].length();
+    }
+
+    // Oldest first
+    final Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(final Integer a, final Integer b) {
+
+        return (mtimes[a] < mtimes[b]) ? -1 : ((mtimes[a] == mtimes[b]) ? 0 : 1);
+      }
+    });
+
+    int evicted = 0;
+    for (int i = 0; i < order.length && total > this.maxDiskBytes; i++) {
+      final File f = files[order[i]];
+      final long len = f.length();
+      if (f.delete()) {
+        total -= len;
+        evicted++;
+      }
+    }
+
+    synchronized (this) {
+      this.diskBytes = total;
+      this.diskEvictions += evicted;
+    }
+  }
+
+  /**
+   * Estimates the memory used by an image's pixels.
+   *
+   * @param img the image.
+   * @return its size in bytes.
+   */
+  private static final long sizeOf(final BufferedImage img) {
+
+    final DataBuffer db = img.getRaster().getDataBuffer();
+    return (long) db.getSize() * db.getNumBanks() * (DataBuffer.getDataTypeSize(db.getDataType()) >> 3);
+  }
+
+  /**
+   * Hashes a cache key into a filename.
+   *
+   * @param key the cache key.
+   * @return the key's SHA-1 as hex.
+   */
+  private static final String hash(final String key) {
+
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+      final StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (final byte b : digest) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public final synchronized long getMemoryHits() {
+
+    return this.memoryHits;
+  }
+
+  public final synchronized long getDiskHits() {
+
+    return this.diskHits;
+  }
+
+  public final synchronized long getMisses() {
+
+    return this.misses;
+  }
+
+  public final synchronized long getMemoryEvictions() {
+
+    return this.memoryEvictions;
+  }
+
+  public final synchronized long getDiskEvictions() {
+
+    return this.diskEvictions;
+  }
+
+  public final synchronized long getMemoryBytes() {
+
+    return this.memoryBytes;
+  }
+
+  public final synchronized long getDiskBytes() {
+
+    return this.diskBytes;
+  }
+
+  /**
+   * Gets the fraction of lookups served by either tier.
+   *
+   * @return the hit rate, from 0 to 1.
+   */
+  public final synchronized double getHitRate() {
+
+    final long total = this.memoryHits + this.diskHits + this.misses;
+    return (total == 0L) ? 0.0D : (this.memoryHits + this.diskHits) / (double) total;
+  }
+
+  @Override
+  public synchronized String toString() {
+
+    return String.format(
+        "Background cache: %.0f%% hit rate (%d memory, %d disk, %d miss), %d/%dMB memory, %d/%dMB disk, "
+            + "%d memory evictions, %d disk evictions",
+        getHitRate() * 100.0D, this.memoryHits, this.diskHits, this.misses, this.memoryBytes / MB,
+        this.maxMemoryBytes / MB, this.diskBytes / MB, this.maxDiskBytes / MB, this.memoryEvictions,
+        this.diskEvictions);
+  }
+}
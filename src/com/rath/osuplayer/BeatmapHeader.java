@@ -0,0 +1,89 @@
+
+package com.rath.osuplayer;
+
+/**
+ * The parts of a .osu file's header that the player cares about.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class BeatmapHeader {
+
+  /** Audio filename, from [General]. */
+  private final String audioFile;
+
+  /** Background image filename, from [Events]. */
+  private final String background;
+
+  /** Song title, from [Metadata]. */
+  private final String title;
+
+  /** Song artist, from [Metadata]. */
+  private final String artist;
+
+  /** Song source, from [Metadata]. */
+  private final String source;
+
+  /** Space-separated search tags, from [Metadata]. */
+  private final String tags;
+
+  /**
+   * Default constructor. Any field may be null if the .osu file didn't have it.
+   *
+   * @param audioFile audio filename.
+   * @param background background image filename.
+   * @param title song title.
+   * @param artist song artist.
+   * @param source song source.
+   * @param tags search tags.
+   */
+  public BeatmapHeader(final String audioFile, final String background, final String title, final String artist,
+      final String source, final String tags) {
+    this.audioFile = audioFile;
+    this.background = background;
+    this.title = title;
+    this.artist = artist;
+    this.source = source;
+    this.tags = tags;
+  }
+
+  /**
+   * Converts this header to the metadata array used by SongPanel.
+   *
+   * @param dir the beatmap directory.
+   * @return a String[] with indeces: {directory, BG-image, audio file, title, artist, source}
+   */
+  public final String[] toMetadata(final String dir) {
+
+    return new String[] { dir, this.background, this.audioFile, this.title, this.artist, this.source };
+  }
+
+  public final String getAudioFile() {
+
+    return this.audioFile;
+  }
+
+  public final String getBackground() {
+
+    return this.background;
+  }
+
+  public final String getTitle() {
+
+    return this.title;
+  }
+
+  public final String getArtist() {
+
+    return this.artist;
+  }
+
+  public final String getSource() {
+
+    return this.source;
+  }
+
+  public final String getTags() {
+
+    return this.tags;
+  }
+}
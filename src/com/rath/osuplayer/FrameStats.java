@@ -0,0 +1,142 @@
+package com.rath.osuplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frame timing statistics for the render loop: a histogram of frame times in 1ms buckets, plus a count of frames that
+ * missed their deadline.
+ *
+ * Recording is lock-free and allocation-free, since it runs once per frame on the render thread (or the EDT) while
+ * the metrics MBean and the debug overlay read from other threads. Readers see each counter up to date, but not
+ * necessarily all of them from the same frame.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class FrameStats {
+
+  /** Number of 1ms buckets; anything slower goes in the last one. */
+  private static final int NUM_BUCKETS = 100;
+
+  /** Nanoseconds in a millisecond. */
+  private static final long NANOS_PER_MS = 1000000L;
+
+  /** Frame count per frame time, in milliseconds. */
+  private final AtomicLongArray histogram = new AtomicLongArray(NUM_BUCKETS);
+
+  /** Frames recorded. */
+  private final AtomicLong frames = new AtomicLong();
+
+  /** Frames that missed their deadline. */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /** Sum of all frame times, in nanoseconds. */
+  private final AtomicLong totalNanos = new AtomicLong();
+
+  /** Slowest frame, in nanoseconds. */
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records one presented frame.
+   *
+   * @param frameNanos time since the previous frame was presented.
+   */
+  public final void record(final long frameNanos) {
+
+    final int bucket = (int) Math.max(0L, Math.min(NUM_BUCKETS - 1, frameNanos / NANOS_PER_MS));
+    this.histogram.incrementAndGet(bucket);
+    this.frames.incrementAndGet();
+    this.totalNanos.addAndGet(frameNanos);
+    long max = this.maxNanos.get();
+    while (frameNanos > max && !this.maxNanos.compareAndSet(max, frameNanos)) {
+      max = this.maxNanos.get();
+    }
+  }
+
+  /**
+   * Records frames that were skipped because the previous one ran late.
+   *
+   * @param count how many frame deadlines were missed.
+   */
+  public final void drop(final long count) {
+
+    this.dropped.addAndGet(count);
+  }
+
+  public final long getFrames() {
+
+    return this.frames.get();
+  }
+
+  public final long getDropped() {
+
+    return this.dropped.get();
+  }
+
+  /**
+   * Gets the mean frame time.
+   *
+   * @return the mean, in milliseconds.
+   */
+  public final double getMeanMillis() {
+
+    final long n = this.frames.get();
+    return (n == 0L) ? 0.0D : this.totalNanos.get() / (double) n / NANOS_PER_MS;
+  }
+
+  /**
+   * Gets the slowest frame time.
+   *
+   * @return the maximum, in milliseconds.
+   */
+  public final double getMaxMillis() {
+
+    return this.maxNanos.get() / (double) NANOS_PER_MS;
+  }
+
+  /**
+   * Gets a frame time percentile from the histogram.
+   *
+   * @param p the percentile, from 0 to 1.
+   * @return the upper bound of the bucket holding that percentile, in milliseconds.
+   */
+  public final int getPercentileMillis(final double p) {
+
+    final long[] counts = getHistogram();
+    long total = 0L;
+    for (final long c : counts) {
+      total += c;
+    }
+    final long target = (long) Math.ceil(p * total);
+    long seen = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target && seen > 0L) {
+        return i + 1;
+      }
+    }
+    return NUM_BUCKETS;
+  }
+
+  /**
+   * Gets a copy of the histogram.
+   *
+   * @return frame counts, where index i holds frames that took i to i+1 milliseconds.
+   */
+  public final long[] getHistogram() {
+
+    final long[] copy = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      copy[i] = this.histogram.get(i);
+    }
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format("Frames: %d presented, %d dropped, mean %.2fms, p50 %dms, p95 %dms, p99 %dms, max %.1fms",
+        getFrames(), getDropped(), getMeanMillis(), getPercentileMillis(0.5D), getPercentileMillis(0.95D),
+        getPercentileMillis(0.99D), getMaxMillis());
+  }
+}
@@ -0,0 +1,532 @@
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Headless benchmark of the song-switch pipeline, for catching performance regressions without a desktop. Each switch
+ * goes through the same stages the player uses (pick a song with the ShuffleEngine, parse its metadata, open its audio,
+ * decode and scale its background, sample it for a bar color), then renders a number of frames (background, song info
+ * panel, and spectrum bars from the song's own audio) into an offscreen image. Writes a JSON report of per-stage
+ * latency percentiles, throughput, and peak heap.
+ *
+ * Usage: java -Djava.awt.headless=true com.rath.osuplayer.HeadlessReplay &lt;Songs dir&gt; [switches] [report.json]
+ *
+ * Audio is opened the way Minim opens it (MinimHandler, tag skipping, then the MP3 decoder through javax.sound), but
+ * decoded straight to PCM instead of into an AudioPlayer: Minim won't open anything without an output line, which a
+ * headless box usually doesn't have.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class HeadlessReplay {
+
+  /** Default number of song switches. */
+  private static final int DEFAULT_SWITCHES = 100;
+
+  /** Default report file. */
+  private static final String DEFAULT_REPORT = "replay-report.json";
+
+  /** Default frames rendered per song (-Dosuplayer.replay.frames). */
+  private static final int DEFAULT_FRAMES = 30;
+
+  /** Default screen width (-Dosuplayer.replay.width). */
+  private static final int DEFAULT_WIDTH = 1920;
+
+  /** Default screen height (-Dosuplayer.replay.height). */
+  private static final int DEFAULT_HEIGHT = 1080;
+
+  /** Default random seed, so runs pick the same songs (-Dosuplayer.replay.seed). */
+  private static final long DEFAULT_SEED = 1L;
+
+  /** Percentiles in the report. */
+  private static final double[] PERCENTILES = { 0.5D, 0.9D, 0.99D };
+
+  /** The Songs directory. */
+  private final File songDir;
+
+  /** Screen width. */
+  private final int width;
+
+  /** Screen height. */
+  private final int height;
+
+  /** Frames rendered per song. */
+  private final int framesPerSwitch;
+
+  /** The library, scanned into a throwaway index file. */
+  private final LibraryIndex library;
+
+  /** Picks songs. */
+  private final ShuffleEngine shuffle;
+
+  /** Scaled backgrounds (memory only, so the player's disk cache is left alone). */
+  private final BackgroundCache bgCache;
+
+  /** Opens audio files, like it does for Minim. */
+  private final MinimHandler handler = new MinimHandler();
+
+  /** Where frames are drawn. */
+  private final BufferedImage screen;
+
+  /** Time to scan the library, in nanoseconds. */
+  private long scanNanos;
+
+  /** Whether the library's audio was hashed first (-Dosuplayer.replay.hash=true), so sets sharing audio count once. */
+  private final boolean hashed;
+
+  /** Time to hash the library's audio, in nanoseconds (0 if it wasn't). */
+  private long hashNanos;
+
+  // Stages
+  private final LatencyStats selectStats = new LatencyStats("select");
+  private final LatencyStats parseStats = new LatencyStats("parse");
+  private final LatencyStats audioStats = new LatencyStats("audioOpen");
+  private final LatencyStats imageStats = new LatencyStats("imageDecode");
+  private final LatencyStats colorStats = new LatencyStats("barColor");
+  private final LatencyStats infoStats = new LatencyStats("songInfo");
+  private final LatencyStats switchStats = new LatencyStats("switch");
+  private final LatencyStats frameStats = new LatencyStats("frame");
+
+  /** Switches asked for. */
+  private int requested;
+
+  /** Switches that loaded a song. */
+  private int completed;
+
+  /** Switches that couldn't load their song. */
+  private int failed;
+
+  /** Wall time of the whole run, in nanoseconds. */
+  private long wallNanos;
+
+  /**
+   * Constructor. Scans the Songs directory right away.
+   *
+   * @param songDir the Songs directory.
+   * @param w the screen width.
+   * @param h the screen height.
+   * @param framesPerSwitch frames rendered per song.
+   * @param seed the random seed for picking songs.
+   * @throws IOException if the throwaway index file can't be created.
+   */
+  public HeadlessReplay(final File songDir, final int w, final int h, final int framesPerSwitch, final long seed)
+      throws IOException {
+    this.songDir = songDir;
+    this.width = w;
+    this.height = h;
+    this.framesPerSwitch = framesPerSwitch;
+    this.bgCache = new BackgroundCache(null, Long.getLong("osuplayer.bgcache.mb",
+        BackgroundCache.DEFAULT_MEMORY_MB) * BackgroundCache.MB, 0L);
+    this.screen = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+
+    final File indexFile = File.createTempFile("osuplayer-replay", ".idx");
+    indexFile.deleteOnExit();
+    this.library = new LibraryIndex(indexFile, songDir);
+    final long start = System.nanoTime();
+    this.library.refresh();
+    this.scanNanos = System.nanoTime() - start;
+
+    // Hashing reads every song's audio, so it is only done when asked for; unhashed sets are tracks of their own
+    this.hashed = Boolean.getBoolean("osuplayer.replay.hash");
+    if (this.hashed) {
+      final long hashStart = System.nanoTime();
+      this.library.fingerprint();
+      this.hashNanos = System.nanoTime() - hashStart;
+    }
+
+    this.shuffle = new ShuffleEngine(ShuffleEngine.Mode.parse(System.getProperty("osuplayer.shuffle")),
+        SongPanel.QUEUE_THRESHOLD, null, new Random(seed));
+  }
+
+  /**
+   * Runs song switches.
+   *
+   * @param switches how many.
+   */
+  public final void run(final int switches) {
+
+    final Assets assets = Assets.shared();
+    final Font titleFont = assets.getFont(SongPanel.DEFAULT_TITLE_FONT_SIZE);
+    final Font labelFont = assets.getFont(SongPanel.DEFAULT_LABEL_FONT_SIZE);
+    final BufferedImage infoL = assets.getImage(Assets.INFO_BORDER_LEFT);
+    final BufferedImage infoC = assets.getImage(Assets.INFO_BORDER_CENTER);
+    final BufferedImage infoR = assets.getImage(Assets.INFO_BORDER_RIGHT);
+
+    final SpectrumEngine engine = new SpectrumEngine(SpectrumAnalyzer.WINDOW_SIZE);
+    final byte[] pcm = new byte[SpectrumAnalyzer.WINDOW_SIZE * 4];
+    final float[] window = new float[SpectrumAnalyzer.WINDOW_SIZE];
+
+    this.requested += switches;
+    final long runStart = System.nanoTime();
+    for (int i = 0; i < switches; i++) {
+
+      // Select
+      final long switchStart = System.nanoTime();
+      final LibraryEntry entry = this.shuffle.next(this.library.tracks());
+      long now = System.nanoTime();
+      this.selectStats.record(now - switchStart);
+      if (entry == null) {
+        System.err.println("No beatmaps found in \"" + this.songDir + "\"!");
+        this.failed += switches - i;
+        break;
+      }
+
+      // Parse
+      long start = now;
+      final String[] meta = entry.toMetadata(this.songDir.getPath() + "/");
+      final boolean audioExists = new File(meta[0], meta[2]).isFile();
+      now = System.nanoTime();
+      this.parseStats.record(now - start);
+      if (!audioExists) {
+        System.err.println("Missing audio for \"" + entry + "\", skipping it.");
+        this.failed++;
+        continue;
+      }
+
+      // Open audio
+      start = now;
+      final AudioInputStream stream = openAudio(meta[0] + "/" + meta[2]);
+      now = System.nanoTime();
+      this.audioStats.record(now - start);
+      if (stream == null) {
+        System.err.println("Could not open audio for \"" + entry + "\".");
+        this.failed++;
+        continue;
+      }
+
+      try {
+
+        // Decode image
+        start = now;
+        final BufferedImage bg = PreparedSong.loadBackground(this.bgCache, meta, this.width, this.height);
+        now = System.nanoTime();
+        this.imageStats.record(now - start);
+
+        // Bar color
+        start = now;
+        final Color barColor = PreparedSong.barColor(this.library, entry, bg);
+        now = System.nanoTime();
+        this.colorStats.record(now - start);
+        this.switchStats.record(now - switchStart);
+        this.completed++;
+
+        // Song info panel, once per song
+        start = now;
+        final BufferedImage info = SongPanel.renderSongInfo(titleFont, labelFont, infoL, infoC, infoR, meta[3],
+            meta[4], meta[5]);
+        now = System.nanoTime();
+        this.infoStats.record(now - start);
+
+        // Frames
+        engine.setSampleRate(stream.getFormat().getSampleRate());
+        engine.reset();
+        for (int f = 0; f < this.framesPerSwitch; f++) {
+          start = System.nanoTime();
+          renderFrame(stream, pcm, window, engine, bg, info, barColor);
+          this.frameStats.record(System.nanoTime() - start);
+        }
+      } finally {
+        LibraryIndex.closeQuietly(stream);
+      }
+    }
+    this.wallNanos = System.nanoTime() - runStart;
+  }
+
+  /**
+   * Renders one frame: the background, the song info panel, and spectrum bars from the next window of audio.
+   */
+  private final void renderFrame(final AudioInputStream stream, final byte[] pcm, final float[] window,
+      final SpectrumEngine engine, final BufferedImage bg, final BufferedImage info, final Color barColor) {
+
+    // Decode and analyze the next window, mixed down to mono
+    decodeWindow(stream, pcm, window);
+    engine.analyze(window);
+
+    final Graphics2D g2 = this.screen.createGraphics();
+    try {
+      g2.drawImage(bg, 0, 0, null);
+      g2.drawImage(info, (this.width - info.getWidth()) >> 1, (int) (SongPanel.SONGINFO_BG_Y * this.height), null);
+      g2.setColor(barColor);
+      SongPanel.drawBands(g2, engine.getLevels(), engine.getPeaks(),
+          Math.min(engine.getBandCount(), SpectrumAnalyzer.MAX_BANDS), this.height);
+    } finally {
+      g2.dispose();
+    }
+  }
+
+  /**
+   * Opens an audio file and decodes it to 16-bit little-endian PCM.
+   *
+   * @param path the audio file's path.
+   * @return the decoded audio, or null if it couldn't be opened.
+   */
+  private final AudioInputStream openAudio(final String path) {
+
+    final InputStream in = this.handler.createInput(path);
+    if (in == null) {
+      return null;
+    }
+    try {
+      final AudioInputStream encoded = AudioSystem.getAudioInputStream(new BufferedInputStream(in));
+      final AudioFormat src = encoded.getFormat();
+      final int channels = Math.max(1, src.getChannels());
+      final AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, src.getSampleRate(), 16, channels,
+          channels * 2, src.getSampleRate(), false);
+      return AudioSystem.getAudioInputStream(pcm, encoded);
+    } catch (UnsupportedAudioFileException e) {
+      System.err.println("Unsupported audio \"" + path + "\".");
+    } catch (IOException e) {
+      System.err.println("Cannot read \"" + path + "\": " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      System.err.println("No decoder for \"" + path + "\".");
+    }
+    LibraryIndex.closeQuietly(in);
+    return null;
+  }
+
+  /**
+   * Decodes the next window of audio, mixed down to mono. Past the end of the song, the window is silent.
+   *
+   * @param stream the decoded audio.
+   * @param pcm scratch space, at least 4 bytes per sample.
+   * @param window where the samples go.
+   */
+  private static final void decodeWindow(final AudioInputStream stream, final byte[] pcm, final float[] window) {
+
+    final int channels = stream.getFormat().getChannels();
+    final int frameSize = channels * 2;
+    final int wanted = Math.min(window.length, pcm.length / frameSize) * frameSize;
+    int filled = 0;
+    try {
+      while (filled < wanted) {
+        final int n = stream.read(pcm, filled, wanted - filled);
+        if (n < 0) {
+          break;
+        }
+        filled += n;
+      }
+    } catch (IOException e) {
+      System.err.println("Audio decode failed: " + e.getMessage());
+    }
+
+    final int frames = filled / frameSize;
+    for (int i = 0; i < window.length; i++) {
+      if (i >= frames) {
+        window[i] = 0.0F;
+        continue;
+      }
+      float sum = 0.0F;
+      for (int c = 0; c < channels; c++) {
+        final int at = i * frameSize + c * 2;
+        sum += (short) ((pcm[at] & 0xFF) | (pcm[at + 1] << 8)) / 32768.0F;
+      }
+      window[i] = sum / channels;
+    }
+  }
+
+  /**
+   * Writes the report.
+   *
+   * @param reportFile where to write it.
+   * @throws IOException if it can't be written.
+   */
+  public final void writeReport(final File reportFile) throws IOException {
+
+    final Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+    try {
+      out.write(toJson());
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Builds the report.
+   *
+   * @return the report, as JSON.
+   */
+  public final String toJson() {
+
+    final double wallSecs = this.wallNanos / 1.0E9D;
+    final long frames = this.frameStats.getCount();
+
+    final StringBuilder sb = new StringBuilder(4096);
+    sb.append("{\n");
+    sb.append("  \"songsDir\": ").append(quote(this.songDir.getAbsolutePath())).append(",\n");
+    sb.append("  \"javaVersion\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+    sb.append("  \"width\": ").append(this.width).append(",\n");
+    sb.append("  \"height\": ").append(this.height).append(",\n");
+    sb.append("  \"framesPerSwitch\": ").append(this.framesPerSwitch).append(",\n");
+    sb.append("  \"library\": { \"beatmapSets\": ").append(this.library.size()).append(", \"tracks\": ")
+        .append(this.library.tracks().length).append(", \"scanMillis\": ").append(number(this.scanNanos / 1.0E6D))
+        .append(", \"hashed\": ").append(this.hashed).append(", \"hashMillis\": ")
+        .append(number(this.hashNanos / 1.0E6D)).append(" },\n");
+    sb.append("  \"switches\": { \"requested\": ").append(this.requested).append(", \"completed\": ")
+        .append(this.completed).append(", \"failed\": ").append(this.failed).append(" },\n");
+    sb.append("  \"wallMillis\": ").append(number(this.wallNanos / 1.0E6D)).append(",\n");
+    sb.append("  \"switchesPerSecond\": ").append(number((wallSecs > 0.0D) ? this.completed / wallSecs : 0.0D))
+        .append(",\n");
+    sb.append("  \"framesPerSecond\": ").append(number((wallSecs > 0.0D) ? frames / wallSecs : 0.0D)).append(",\n");
+    sb.append("  \"backgroundCacheHitRate\": ").append(number(this.bgCache.getHitRate())).append(",\n");
+    sb.append("  \"peakHeapBytes\": ").append(peakHeapBytes()).append(",\n");
+    sb.append("  \"gcCount\": ").append(gcCount()).append(",\n");
+    sb.append("  \"gcMillis\": ").append(gcMillis()).append(",\n");
+    sb.append("  \"stages\": {\n");
+    final LatencyStats[] stages = { this.selectStats, this.parseStats, this.audioStats, this.imageStats,
+        this.colorStats, this.switchStats, this.infoStats, this.frameStats };
+    for (int i = 0; i < stages.length; i++) {
+      sb.append("    ").append(stageJson(stages[i])).append((i < stages.length - 1) ? ",\n" : "\n");
+    }
+    sb.append("  }\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  /**
+   * Builds the report entry of one stage.
+   *
+   * @param stats the stage's latencies.
+   * @return "name": { count, mean, percentiles, and max, in microseconds }.
+   */
+  private static final String stageJson(final LatencyStats stats) {
+
+    final StringBuilder sb = new StringBuilder(160);
+    sb.append(quote(stats.getName())).append(": { \"count\": ").append(stats.getCount()).append(", \"meanMicros\": ")
+        .append(number(stats.getMeanMicros()));
+    for (final double p : PERCENTILES) {
+      sb.append(", \"p").append(Math.round(p * 100.0D)).append("Micros\": ").append(stats.getPercentileMicros(p));
+    }
+    sb.append(", \"maxMicros\": ").append(number(stats.getMaxMicros())).append(" }");
+    return sb.toString();
+  }
+
+  /**
+   * Gets the most heap used since the JVM started (summed over the heap pools, each at its own peak).
+   *
+   * @return the peak, in bytes.
+   */
+  private static final long peakHeapBytes() {
+
+    long peak = 0L;
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * Gets how many garbage collections have run.
+   *
+   * @return the count, over every collector.
+   */
+  private static final long gcCount() {
+
+    long count = 0L;
+    for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0L, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  /**
+   * Gets how long garbage collection has taken.
+   *
+   * @return the time, in milliseconds, over every collector.
+   */
+  private static final long gcMillis() {
+
+    long millis = 0L;
+    for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0L, gc.getCollectionTime());
+    }
+    return millis;
+  }
+
+  /**
+   * Formats a number for JSON.
+   *
+   * @param d the number.
+   * @return it with at most three decimals.
+   */
+  private static final String number(final double d) {
+
+    return String.format(Locale.ROOT, "%.3f", d);
+  }
+
+  /**
+   * Quotes a string for JSON.
+   *
+   * @param s the string.
+   * @return it quoted and escaped.
+   */
+  private static final String quote(final String s) {
+
+    final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args the Songs directory, then optionally the number of switches and the report file.
+   */
+  public static void main(final String[] args) throws IOException {
+
+    if (args.length < 1) {
+      System.err.println("Usage: HeadlessReplay <Songs dir> [switches (" + DEFAULT_SWITCHES + ")] [report ("
+          + DEFAULT_REPORT + ")]");
+      System.exit(2);
+    }
+    System.setProperty("java.awt.headless", "true");
+    Assets.shared().preload();
+
+    final File songDir = new File(args[0]);
+    if (!songDir.isDirectory()) {
+      System.err.println("\"" + songDir + "\" is not a directory.");
+      System.exit(2);
+    }
+    final int switches = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SWITCHES;
+    final File reportFile = new File((args.length > 2) ? args[2] : DEFAULT_REPORT);
+
+    final HeadlessReplay replay = new HeadlessReplay(songDir, Integer.getInteger("osuplayer.replay.width",
+        DEFAULT_WIDTH), Integer.getInteger("osuplayer.replay.height", DEFAULT_HEIGHT), Integer.getInteger(
+        "osuplayer.replay.frames", DEFAULT_FRAMES), Long.getLong("osuplayer.replay.seed", DEFAULT_SEED));
+    replay.run(switches);
+    replay.writeReport(reportFile);
+    System.out.println("Replayed " + replay.completed + "/" + replay.requested + " switches, report written to "
+        + reportFile.getAbsolutePath());
+    System.exit(0);
+  }
+}
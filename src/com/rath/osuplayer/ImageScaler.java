@@ -0,0 +1,94 @@
+
+package com.rath.osuplayer;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales song backgrounds to the screen. Large downscales are done in bilinear halving steps (each of which is a 2x2
+ * box average, so quality stays close to SCALE_SMOOTH's area average), then one last bilinear step to the exact size.
+ * The result is an opaque image in the screen's native format, so it can be drawn without any conversion.
+ *
+ * Bicubic was tried for the last step, but Java2D's software bicubic loop made it slower than SCALE_SMOOTH.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class ImageScaler {
+
+  private ImageScaler() {}
+
+  /**
+   * Scales an image to exactly the given size (the aspect ratio is not kept, same as the old SCALE_SMOOTH path).
+   *
+   * @param src the image to scale.
+   * @param w the target width.
+   * @param h the target height.
+   * @return the scaled, opaque image.
+   */
+  public static final BufferedImage scale(final BufferedImage src, final int w, final int h) {
+
+    BufferedImage current = src;
+    int cw = src.getWidth();
+    int ch = src.getHeight();
+
+    // Halve while the image is still more than twice the target size
+    while (cw >= w << 1 || ch >= h << 1) {
+      final int nw = Math.max(w, cw >> 1);
+      final int nh = Math.max(h, ch >> 1);
+      if (nw == w && nh == h) {
+        break;
+      }
+      current = draw(current, cw, ch, nw, nh, RenderingHints.VALUE_INTERPOLATION_BILINEAR, false);
+      cw = nw;
+      ch = nh;
+    }
+
+    // Final step, straight into a screen-compatible image
+    return draw(current, cw, ch, w, h, RenderingHints.VALUE_INTERPOLATION_BILINEAR, true);
+  }
+
+  /**
+   * Draws an image into a new opaque image of a different size.
+   *
+   * @param src the image to draw.
+   * @param sw the source width.
+   * @param sh the source height.
+   * @param w the new width.
+   * @param h the new height.
+   * @param interpolation one of RenderingHints.VALUE_INTERPOLATION_*.
+   * @param forScreen whether to match the screen's pixel format.
+   * @return the new image.
+   */
+  private static final BufferedImage draw(final BufferedImage src, final int sw, final int sh, final int w,
+      final int h, final Object interpolation, final boolean forScreen) {
+
+    final BufferedImage dst = forScreen ? createOpaque(w, h) : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D g2 = dst.createGraphics();
+    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+    g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    g2.drawImage(src, 0, 0, w, h, 0, 0, sw, sh, null);
+    g2.dispose();
+    return dst;
+  }
+
+  /**
+   * Creates an opaque image in the screen's native format (or plain RGB when there is no screen).
+   *
+   * @param w the width.
+   * @param h the height.
+   * @return the new image.
+   */
+  static final BufferedImage createOpaque(final int w, final int h) {
+
+    if (!GraphicsEnvironment.isHeadless()) {
+      final GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+          .getDefaultConfiguration();
+      return gc.createCompatibleImage(w, h, Transparency.OPAQUE);
+    }
+    return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+  }
+}
@@ -0,0 +1,149 @@
+package com.rath.osuplayer;
+
+/**
+ * Latency statistics: a histogram of latencies in logarithmic buckets (four per power of two microseconds, so every
+ * bucket is within 19% of its neighbors), which is fine enough for percentiles from microseconds up to minutes.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class LatencyStats {
+
+  /** Buckets per power of two. */
+  private static final int SUB_BUCKETS = 4;
+
+  /** Number of buckets (enough for any long). */
+  private static final int NUM_BUCKETS = 64 * SUB_BUCKETS;
+
+  /** Nanoseconds in a microsecond. */
+  private static final long NANOS_PER_US = 1000L;
+
+  /** Name shown by toString(). */
+  private final String name;
+
+  /** Count per bucket. */
+  private final long[] histogram = new long[NUM_BUCKETS];
+
+  /** Latencies recorded. */
+  private long count;
+
+  /** Sum of all latencies, in nanoseconds. */
+  private long totalNanos;
+
+  /** Highest latency, in nanoseconds. */
+  private long maxNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param name what is being measured.
+   */
+  public LatencyStats(final String name) {
+    this.name = name;
+  }
+
+  /**
+   * Records one latency.
+   *
+   * @param nanos the latency, in nanoseconds.
+   */
+  public final synchronized void record(final long nanos) {
+
+    this.histogram[bucket(Math.max(0L, nanos) / NANOS_PER_US)]++;
+    this.count++;
+    this.totalNanos += nanos;
+    if (nanos > this.maxNanos) {
+      this.maxNanos = nanos;
+    }
+  }
+
+  public final String getName() {
+
+    return this.name;
+  }
+
+  public final synchronized long getCount() {
+
+    return this.count;
+  }
+
+  /**
+   * Gets the mean latency.
+   *
+   * @return the mean, in microseconds.
+   */
+  public final synchronized double getMeanMicros() {
+
+    return (this.count == 0L) ? 0.0D : this.totalNanos / (double) this.count / NANOS_PER_US;
+  }
+
+  /**
+   * Gets the highest latency.
+   *
+   * @return the maximum, in microseconds.
+   */
+  public final synchronized double getMaxMicros() {
+
+    return this.maxNanos / (double) NANOS_PER_US;
+  }
+
+  /**
+   * Gets a latency percentile from the histogram.
+   *
+   * @param p the percentile, from 0 to 1.
+   * @return the upper bound of the bucket holding that percentile, in microseconds.
+   */
+  public final synchronized long getPercentileMicros(final double p) {
+
+    final long target = (long) Math.ceil(p * this.count);
+    long seen = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += this.histogram[i];
+      if (seen >= target && seen > 0L) {
+        return upperBound(i);
+      }
+    }
+    return 0L;
+  }
+
+  /**
+   * Gets the bucket a latency goes in.
+   *
+   * @param micros the latency, in microseconds.
+   * @return the bucket index.
+   */
+  private static final int bucket(final long micros) {
+
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+
+    // The top bit picks the power of two, the next two bits pick the quarter within it
+    final int msb = 63 - Long.numberOfLeadingZeros(micros);
+    final int sub = (int) (micros >>> (msb - 2)) & (SUB_BUCKETS - 1);
+    return (msb - 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Gets the highest latency that goes in a bucket.
+   *
+   * @param bucket the bucket index.
+   * @return its upper bound, in microseconds.
+   */
+  private static final long upperBound(final int bucket) {
+
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int msb = bucket / SUB_BUCKETS + 1;
+    final long sub = bucket % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1) << (msb - 2)) - 1;
+  }
+
+  @Override
+  public synchronized String toString() {
+
+    return String.format("%s: %d, mean %.0fus, p50 %dus, p95 %dus, p99 %dus, max %.0fus", this.name, this.count,
+        getMeanMicros(), getPercentileMicros(0.5D), getPercentileMicros(0.95D), getPercentileMicros(0.99D),
+        this.maxNanos / (double) NANOS_PER_US);
+  }
+}
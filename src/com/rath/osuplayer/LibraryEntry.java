@@ -0,0 +1,191 @@
+
+package com.rath.osuplayer;
+
+/**
+ * A single beatmap set in the library index, holding everything needed to play it without touching its folder.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class LibraryEntry {
+
+  /** Stable ID of this entry (never reused while the index exists). */
+  private final int id;
+
+  /** Beatmap folder name, relative to the Songs directory. */
+  private final String folder;
+
+  /** The .osu file the metadata was read from. */
+  private final String osuFile;
+
+  /** Audio filename. */
+  private final String audioFile;
+
+  /** Background image filename. */
+  private final String background;
+
+  /** Song title. */
+  private final String title;
+
+  /** Song artist. */
+  private final String artist;
+
+  /** Song source. */
+  private final String source;
+
+  /** Space-separated search tags. */
+  private final String tags;
+
+  /** Hash of the audio content (see AudioFingerprint), or null if it hasn't been computed yet. */
+  private final String audioHash;
+
+  /** Last modified time of the beatmap folder when it was indexed. */
+  private final long folderModified;
+
+  /** Last modified time of the .osu file when it was indexed. */
+  private final long osuModified;
+
+  /**
+   * Default constructor.
+   *
+   * @param id stable entry ID.
+   * @param folder beatmap folder name.
+   * @param osuFile .osu filename.
+   * @param audioFile audio filename.
+   * @param background background image filename.
+   * @param title song title.
+   * @param artist song artist.
+   * @param source song source.
+   * @param tags search tags.
+   * @param audioHash hash of the audio content (may be null).
+   * @param folderModified folder mtime.
+   * @param osuModified .osu file mtime.
+   */
+  public LibraryEntry(final int id, final String folder, final String osuFile, final String audioFile,
+      final String background, final String title, final String artist, final String source, final String tags,
+      final String audioHash, final long folderModified, final long osuModified) {
+    this.id = id;
+    this.folder = folder;
+    this.osuFile = osuFile;
+    this.audioFile = audioFile;
+    this.background = background;
+    this.title = title;
+    this.artist = artist;
+    this.source = source;
+    this.tags = tags;
+    this.audioHash = audioHash;
+    this.folderModified = folderModified;
+    this.osuModified = osuModified;
+  }
+
+  /**
+   * Converts this entry to the metadata array used by SongPanel.
+   *
+   * @return a String[] with indeces: {directory, BG-image, audio file, title, artist, source}
+   */
+  public final String[] toMetadata() {
+
+    return toMetadata(LibraryIndex.SONGS_DIR);
+  }
+
+  /**
+   * Converts this entry to the metadata array used by SongPanel, for an entry of some other Songs directory.
+   *
+   * @param songDir the Songs directory, ending in a slash.
+   * @return a String[] with indeces: {directory, BG-image, audio file, title, artist, source}
+   */
+  public final String[] toMetadata(final String songDir) {
+
+    return new String[] { songDir + this.folder, this.background, this.audioFile, this.title, this.artist,
+        this.source };
+  }
+
+  /**
+   * Creates a copy of this entry with a different ID.
+   *
+   * @param newId the new ID.
+   * @return the copied LibraryEntry.
+   */
+  final LibraryEntry withId(final int newId) {
+
+    return new LibraryEntry(newId, this.folder, this.osuFile, this.audioFile, this.background, this.title,
+        this.artist, this.source, this.tags, this.audioHash, this.folderModified, this.osuModified);
+  }
+
+  /**
+   * Creates a copy of this entry with its audio hash filled in.
+   *
+   * @param hash the audio hash.
+   * @return the copied LibraryEntry.
+   */
+  final LibraryEntry withAudioHash(final String hash) {
+
+    return new LibraryEntry(this.id, this.folder, this.osuFile, this.audioFile, this.background, this.title,
+        this.artist, this.source, this.tags, hash, this.folderModified, this.osuModified);
+  }
+
+  public final int getId() {
+
+    return this.id;
+  }
+
+  public final String getFolder() {
+
+    return this.folder;
+  }
+
+  public final String getOsuFile() {
+
+    return this.osuFile;
+  }
+
+  public final String getAudioFile() {
+
+    return this.audioFile;
+  }
+
+  public final String getBackground() {
+
+    return this.background;
+  }
+
+  public final String getTitle() {
+
+    return this.title;
+  }
+
+  public final String getArtist() {
+
+    return this.artist;
+  }
+
+  public final String getSource() {
+
+    return this.source;
+  }
+
+  public final String getTags() {
+
+    return this.tags;
+  }
+
+  public final String getAudioHash() {
+
+    return this.audioHash;
+  }
+
+  public final long getFolderModified() {
+
+    return this.folderModified;
+  }
+
+  public final long getOsuModified() {
+
+    return this.osuModified;
+  }
+
+  @Override
+  public String toString() {
+
+    return this.artist + " - " + this.title + " [" + this.folder + "]";
+  }
+}
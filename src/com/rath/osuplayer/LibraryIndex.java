@@ -0,0 +1,679 @@
+
+package com.rath.osuplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index of every beatmap set in the Songs directory. The index is loaded once at startup and refreshed by
+ * comparing folder modification times, so picking a song never has to list or parse anything on disk.
+ *
+ * Each set's audio is hashed (see AudioFingerprint), and sets that ship the very same audio are grouped into one track,
+ * so picking songs and everything kept per song sees each track once.
+ *
+ * The dominant color of each set's background (see PaletteExtractor) is kept here too, the first time the set is
+ * played, so it is never worked out twice.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class LibraryIndex {
+
+  /** Path to the Songs directory. */
+  public static final String SONGS_DIR = "Songs/";
+
+  /** Library index filename. */
+  public static final String INDEX_FILENAME = "osuplayer-library.idx";
+
+  /** Magic number at the start of the index file ("OSUI"). */
+  private static final int INDEX_MAGIC = 0x4F535549;
+
+  /** Index file format version. Bump this whenever the entry layout changes. */
+  private static final int INDEX_VERSION = 4;
+
+  /** How often palettes worked out since the last save are saved, in milliseconds. */
+  private static final long PALETTE_SAVE_INTERVAL_MS = 60000L;
+
+  /** Charset used for all strings in the index. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The index file on disk. */
+  private final File indexFile;
+
+  /** The Songs directory being indexed. */
+  private final File songDir;
+
+  /** All indexed beatmap sets. Replaced wholesale on refresh so readers never need to lock. */
+  private volatile LibraryEntry[] entries = new LibraryEntry[0];
+
+  /** The next stable ID to hand out. Only changed with this locked, and always before the entries using it. */
+  private volatile int nextId = 0;
+
+  /** Held while writing the index file. Never held while scanning or hashing, so saving never waits on them. */
+  private final Object saveLock = new Object();
+
+  /** Guards the search index, so it is only ever built once per version of the entries. */
+  private final Object searchLock = new Object();
+
+  /** Search index over the entries, or null if it hasn't been built yet. */
+  private SongSearchIndex searchIndex = null;
+
+  /** The entries the search index was built from. */
+  private LibraryEntry[] searchIndexed = null;
+
+  /** Guards the track groups, so they are only ever built once per version of the entries. */
+  private final Object tracksLock = new Object();
+
+  /** One entry per unique audio hash (the lowest ID), or null if they haven't been grouped yet. */
+  private LibraryEntry[] tracks = null;
+
+  /** The track each entry ID belongs to. */
+  private Map<Integer, LibraryEntry> trackById = null;
+
+  /** The entries the tracks were grouped from. */
+  private LibraryEntry[] tracksGrouped = null;
+
+  /** Guards the palettes, so song loads never wait on a refresh. */
+  private final Object paletteLock = new Object();
+
+  /** Dominant background color of each entry ID, as ARGB (see PaletteExtractor); missing if not worked out yet. */
+  private final Map<Integer, Integer> palettes = new HashMap<Integer, Integer>();
+
+  /** Whether palettes were added since the index was last saved. */
+  private boolean palettesChanged = false;
+
+  /**
+   * Default constructor.
+   *
+   * @param indexFile the index file on disk.
+   * @param songDir the Songs directory to index.
+   */
+  public LibraryIndex(final File indexFile, final File songDir) {
+    this.indexFile = indexFile;
+    this.songDir = songDir;
+  }
+
+  /**
+   * Opens the default library index. If there is no usable index yet, the Songs directory is scanned right away;
+   * otherwise the saved index is used as-is and refreshed in the background.
+   *
+   * @return the loaded LibraryIndex.
+   */
+  public static final LibraryIndex open() {
+
+    final LibraryIndex index = new LibraryIndex(new File(INDEX_FILENAME), new File(SONGS_DIR));
+    index.load();
+    if (index.size() == 0) {
+      index.refresh();
+      index.save();
+      index.fingerprintInBackground();
+    } else {
+      index.refreshInBackground();
+    }
+    return index;
+  }
+
+  /**
+   * Loads the index file into memory. A missing, outdated, or corrupt index is treated as empty.
+   */
+  public final synchronized void load() {
+
+    if (!this.indexFile.exists()) {
+      return;
+    }
+
+    RandomAccessFile raf = null;
+    try {
+      // Read the whole file in one go (not mapped, since Windows won't let us replace a mapped file on save)
+      raf = new RandomAccessFile(this.indexFile, "r");
+      final ByteBuffer buf = ByteBuffer.allocate((int) raf.length());
+      while (buf.hasRemaining() && raf.getChannel().read(buf) >= 0) {
+        // Keep reading
+      }
+      buf.flip();
+      if (buf.remaining() < 12 || buf.getInt() != INDEX_MAGIC || buf.getInt() != INDEX_VERSION) {
+        System.err.println("Library index is outdated. Rebuilding.");
+        return;
+      }
+
+      final int idCounter = buf.getInt();
+      final int count = buf.getInt();
+      final LibraryEntry[] loaded = new LibraryEntry[count];
+      byte[] strBuf = new byte[256];
+      for (int i = 0; i < count; i++) {
+        final int id = buf.getInt();
+        final long folderModified = buf.getLong();
+        final long osuModified = buf.getLong();
+        final String[] strs = new String[9];
+        for (int j = 0; j < strs.length; j++) {
+          final int len = buf.getShort();
+          if (len < 0) {
+            continue;
+          }
+          if (len > strBuf.length) {
+            strBuf = new byte[len];
+          }
+          buf.get(strBuf, 0, len);
+          strs[j] = new String(strBuf, 0, len, UTF8);
+        }
+        loaded[i] = new LibraryEntry(id, strs[0], strs[1], strs[2], strs[3], strs[4], strs[5], strs[6],
+            strs[7], strs[8], folderModified, osuModified);
+      }
+
+      final int paletteCount = buf.getInt();
+      final Map<Integer, Integer> loadedPalettes = new HashMap<Integer, Integer>(paletteCount * 2);
+      for (int i = 0; i < paletteCount; i++) {
+        final int id = buf.getInt();
+        loadedPalettes.put(id, buf.getInt());
+      }
+
+      this.nextId = idCounter;
+      this.entries = loaded;
+      synchronized (this.paletteLock) {
+        this.palettes.clear();
+        this.palettes.putAll(loadedPalettes);
+        this.palettesChanged = false;
+      }
+
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (RuntimeException e) {
+      System.err.println("Library index is corrupt. Rebuilding.");
+    } finally {
+      closeQuietly(raf);
+    }
+  }
+
+  /**
+   * Writes the index to disk. The file is written to a temporary file first and then renamed over the old one. Only
+   * the file is locked, not the index, so this never waits on a refresh or on hashing.
+   */
+  public final void save() {
+
+    synchronized (this.saveLock) {
+      write();
+    }
+  }
+
+  /**
+   * Writes the current entries and palettes to the index file (with saveLock held).
+   */
+  private final void write() {
+
+    final LibraryEntry[] snapshot = this.entries;
+    final int idCounter = this.nextId;
+    final File tmpFile = new File(this.indexFile.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+      out.writeInt(INDEX_MAGIC);
+      out.writeInt(INDEX_VERSION);
+      out.writeInt(idCounter);
+      out.writeInt(snapshot.length);
+      for (final LibraryEntry e : snapshot) {
+        out.writeInt(e.getId());
+        out.writeLong(e.getFolderModified());
+        out.writeLong(e.getOsuModified());
+        writeString(out, e.getFolder());
+        writeString(out, e.getOsuFile());
+        writeString(out, e.getAudioFile());
+        writeString(out, e.getBackground());
+        writeString(out, e.getTitle());
+        writeString(out, e.getArtist());
+        writeString(out, e.getSource());
+        writeString(out, e.getTags());
+        writeString(out, e.getAudioHash());
+      }
+
+      final Map<Integer, Integer> paletteSnapshot;
+      synchronized (this.paletteLock) {
+        paletteSnapshot = new HashMap<Integer, Integer>(this.palettes);
+        this.palettesChanged = false;
+      }
+      out.writeInt(paletteSnapshot.size());
+      for (final Map.Entry<Integer, Integer> p : paletteSnapshot.entrySet()) {
+        out.writeInt(p.getKey());
+        out.writeInt(p.getValue());
+      }
+      out.close();
+      out = null;
+
+      if (!tmpFile.renameTo(this.indexFile)) {
+        this.indexFile.delete();
+        if (!tmpFile.renameTo(this.indexFile)) {
+          System.err.println("Could not write library index!");
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  /**
+   * Brings the index up to date with the Songs directory, reporting progress to the console.
+   *
+   * @return true if anything in the index changed.
+   */
+  public final boolean refresh() {
+
+    return refresh(LibraryScanner.CONSOLE_PROGRESS);
+  }
+
+  /**
+   * Brings the index up to date with the Songs directory. Folders whose modification time has not changed are kept
+   * as-is; new or changed folders are parsed in parallel, and folders that no longer exist are dropped.
+   *
+   * @param listener where scan progress is reported (may be null).
+   * @return true if anything in the index changed.
+   */
+  public final synchronized boolean refresh(final LibraryScanner.ProgressListener listener) {
+
+    final File[] folders = this.songDir.listFiles();
+    if (folders == null) {
+      System.err.println("Songs directory not found!");
+      return false;
+    }
+
+    final LibraryEntry[] old = this.entries;
+    final Map<String, LibraryEntry> known = new HashMap<String, LibraryEntry>(old.length * 2);
+    for (final LibraryEntry e : old) {
+      known.put(e.getFolder(), e);
+    }
+
+    final LibraryEntry[] previous = new LibraryEntry[folders.length];
+    for (int i = 0; i < folders.length; i++) {
+      previous[i] = known.get(folders[i].getName());
+    }
+
+    final LibraryEntry[] scanned = new LibraryScanner(listener).scan(folders, previous);
+
+    // Hand out IDs to new folders in a fixed order
+    final List<LibraryEntry> updated = new ArrayList<LibraryEntry>(folders.length);
+    final Set<Integer> unchanged = new HashSet<Integer>(folders.length * 2);
+    boolean changed = false;
+    for (int i = 0; i < scanned.length; i++) {
+      LibraryEntry e = scanned[i];
+      if (e != previous[i]) {
+        changed = true;
+      } else if (e != null) {
+        unchanged.add(e.getId());
+      }
+      if (e == null) {
+        continue;
+      }
+      if (e.getId() < 0) {
+        e = e.withId(this.nextId++);
+      }
+      updated.add(e);
+    }
+
+    if (updated.size() != old.length) {
+      changed = true;
+    }
+
+    if (changed) {
+      this.entries = updated.toArray(new LibraryEntry[updated.size()]);
+
+      // A changed folder may have a new background
+      synchronized (this.paletteLock) {
+        this.palettes.keySet().retainAll(unchanged);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Hashes the audio of every entry that doesn't have an audio hash yet. Hashing streams every new song's audio once,
+   * in parallel; entries that were already hashed are skipped. The index isn't locked while hashing (it can take
+   * minutes), only while the hashes are merged into the current entries afterwards.
+   *
+   * @return true if anything in the index changed.
+   */
+  public final boolean fingerprint() {
+
+    final LibraryEntry[] hashed = this.entries;
+    final String[] hashes = new LibraryScanner(LibraryScanner.CONSOLE_HASH_PROGRESS).fingerprint(this.songDir, hashed);
+
+    // A refresh keeps unchanged entries as the same objects, so hashes are matched to entries by identity
+    final Map<LibraryEntry, String> found = new IdentityHashMap<LibraryEntry, String>();
+    for (int i = 0; i < hashed.length; i++) {
+      if (hashes[i] != null && !hashes[i].equals(hashed[i].getAudioHash())) {
+        found.put(hashed[i], hashes[i]);
+      }
+    }
+    if (found.isEmpty()) {
+      return false;
+    }
+
+    final LibraryEntry[] updated;
+    synchronized (this) {
+
+      // Merge into whatever the entries are now, in case a refresh or load replaced them while hashing
+      final LibraryEntry[] current = this.entries;
+      updated = new LibraryEntry[current.length];
+      boolean changed = false;
+      for (int i = 0; i < current.length; i++) {
+        final String hash = found.get(current[i]);
+        updated[i] = (hash == null) ? current[i] : current[i].withAudioHash(hash);
+        changed |= (hash != null);
+      }
+      if (!changed) {
+        return false;
+      }
+      this.entries = updated;
+    }
+    System.out.println(String.format("Found %d unique tracks in %d beatmap sets.", tracks().length, updated.length));
+    return true;
+  }
+
+  /**
+   * Refreshes, hashes, and saves the index on a background thread.
+   */
+  public final void refreshInBackground() {
+
+    final Thread t = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+
+        boolean changed = refresh();
+        changed |= fingerprint();
+        if (changed) {
+          save();
+          updateSearchIndex();
+        }
+      }
+    }, "library-refresh");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+
+  /**
+   * Hashes and saves the index on a background thread.
+   */
+  public final void fingerprintInBackground() {
+
+    final Thread t = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (fingerprint()) {
+          save();
+          updateSearchIndex();
+        }
+      }
+    }, "library-hash");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+
+  /**
+   * Gets the search index over every indexed beatmap set, building it first if the index has changed since.
+   *
+   * @return the search index.
+   */
+  public final SongSearchIndex getSearchIndex() {
+
+    final LibraryEntry[] snapshot = this.entries;
+    synchronized (this.searchLock) {
+      if (this.searchIndexed != snapshot) {
+        final long start = System.nanoTime();
+        this.searchIndex = SongSearchIndex.build(Arrays.asList(snapshot));
+        this.searchIndexed = snapshot;
+        System.out.println(String.format("Indexed %d songs for search in %.0fms.", snapshot.length,
+            (System.nanoTime() - start) / 1.0E6D));
+      }
+      return this.searchIndex;
+    }
+  }
+
+  /**
+   * Rebuilds the search index for the current entries if one has been built before, so the next search after a
+   * refresh or hashing (which replace the entries) doesn't have to rebuild it first. Called on the thread that changed
+   * the entries.
+   */
+  private final void updateSearchIndex() {
+
+    final boolean built;
+    synchronized (this.searchLock) {
+      built = (this.searchIndex != null);
+    }
+    if (built) {
+      getSearchIndex();
+    }
+  }
+
+  /**
+   * Gets one entry per unique track: beatmap sets with the same audio hash count once, as the one with the lowest ID.
+   * Sets that haven't been hashed yet are tracks of their own. Like snapshot(), the same array comes back until the
+   * index changes, and callers must not modify it.
+   *
+   * @return the current tracks.
+   */
+  final LibraryEntry[] tracks() {
+
+    groupTracks();
+    synchronized (this.tracksLock) {
+      return this.tracks;
+    }
+  }
+
+  /**
+   * Gets the track a beatmap set belongs to.
+   *
+   * @param entry the beatmap set.
+   * @return the entry standing for its track (see tracks()), or the entry itself if it isn't in the index.
+   */
+  public final LibraryEntry trackOf(final LibraryEntry entry) {
+
+    if (entry == null) {
+      return null;
+    }
+    groupTracks();
+    synchronized (this.tracksLock) {
+      final LibraryEntry track = this.trackById.get(entry.getId());
+      return (track == null) ? entry : track;
+    }
+  }
+
+  /**
+   * Groups the entries by audio hash, if the index has changed since they were last grouped.
+   */
+  private final void groupTracks() {
+
+    final LibraryEntry[] snapshot = this.entries;
+    synchronized (this.tracksLock) {
+      if (this.tracksGrouped == snapshot) {
+        return;
+      }
+
+      final Map<String, LibraryEntry> byHash = new HashMap<String, LibraryEntry>(snapshot.length * 2);
+      for (final LibraryEntry e : snapshot) {
+        if (e.getAudioHash() == null) {
+          continue;
+        }
+        final LibraryEntry first = byHash.get(e.getAudioHash());
+        if (first == null || e.getId() < first.getId()) {
+          byHash.put(e.getAudioHash(), e);
+        }
+      }
+
+      final List<LibraryEntry> grouped = new ArrayList<LibraryEntry>(snapshot.length);
+      final Map<Integer, LibraryEntry> byId = new HashMap<Integer, LibraryEntry>(snapshot.length * 2);
+      for (final LibraryEntry e : snapshot) {
+        final LibraryEntry track = (e.getAudioHash() == null) ? e : byHash.get(e.getAudioHash());
+        byId.put(e.getId(), track);
+        if (track == e) {
+          grouped.add(e);
+        }
+      }
+
+      this.tracks = grouped.toArray(new LibraryEntry[grouped.size()]);
+      this.trackById = byId;
+      this.tracksGrouped = snapshot;
+    }
+  }
+
+  /**
+   * Gets the dominant color of a beatmap set's background, if it has been worked out.
+   *
+   * @param entry the beatmap set.
+   * @return the color as ARGB, or 0 if it isn't known yet.
+   */
+  public final int getPalette(final LibraryEntry entry) {
+
+    if (entry == null) {
+      return 0;
+    }
+    synchronized (this.paletteLock) {
+      final Integer argb = this.palettes.get(entry.getId());
+      return (argb == null) ? 0 : argb;
+    }
+  }
+
+  /**
+   * Keeps the dominant color of a beatmap set's background, to be saved with the index.
+   *
+   * @param entry the beatmap set.
+   * @param argb the color, as ARGB (see PaletteExtractor.dominant()).
+   */
+  public final void putPalette(final LibraryEntry entry, final int argb) {
+
+    if (entry == null || entry.getId() < 0) {
+      return;
+    }
+    synchronized (this.paletteLock) {
+      final Integer old = this.palettes.put(entry.getId(), argb);
+      if (old == null || old != argb) {
+        this.palettesChanged = true;
+      }
+    }
+  }
+
+  /**
+   * Saves the index if palettes were added since it was last saved. Safe to call on the EDT, since saving never waits
+   * on a refresh or on hashing.
+   */
+  public final void savePalettes() {
+
+    final boolean changed;
+    synchronized (this.paletteLock) {
+      changed = this.palettesChanged;
+    }
+    if (changed) {
+      save();
+    }
+  }
+
+  /**
+   * Saves new palettes every so often on a background thread, so a crash doesn't lose every one worked out since
+   * startup.
+   */
+  public final void savePalettesPeriodically() {
+
+    final Thread t = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+
+        try {
+          while (true) {
+            Thread.sleep(PALETTE_SAVE_INTERVAL_MS);
+            savePalettes();
+          }
+        } catch (InterruptedException e) {
+          // Stop saving
+        }
+      }
+    }, "library-palettes");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+
+  /**
+   * Gets every indexed beatmap set, as the array itself. The array is never changed (a refresh replaces it), so a new
+   * array means the index changed. Callers must not modify it.
+   *
+   * @return the current entries.
+   */
+  final LibraryEntry[] snapshot() {
+
+    return this.entries;
+  }
+
+  /**
+   * Gets every indexed beatmap set.
+   *
+   * @return an unmodifiable snapshot of the index.
+   */
+  public final List<LibraryEntry> getEntries() {
+
+    return Collections.unmodifiableList(Arrays.asList(this.entries));
+  }
+
+  /**
+   * Gets the number of indexed beatmap sets.
+   *
+   * @return the size of the index.
+   */
+  public final int size() {
+
+    return this.entries.length;
+  }
+
+  /**
+   * Writes a length-prefixed UTF-8 string (length -1 for null).
+   *
+   * @param out the stream to write to.
+   * @param s the String to write.
+   * @throws IOException if the write fails.
+   */
+  private static final void writeString(final DataOutputStream out, final String s) throws IOException {
+
+    if (s == null) {
+      out.writeShort(-1);
+      return;
+    }
+    final byte[] bytes = s.getBytes(UTF8);
+    out.writeShort(Math.min(bytes.length, Short.MAX_VALUE));
+    out.write(bytes, 0, Math.min(bytes.length, Short.MAX_VALUE));
+  }
+
+  /**
+   * Closes something, ignoring any errors.
+   *
+   * @param c the Closeable to close (may be null).
+   */
+  static final void closeQuietly(final Closeable c) {
+
+    if (c == null) {
+      return;
+    }
+    try {
+      c.close();
+    } catch (IOException e) {
+      // Nothing useful to do here
+    }
+  }
+}
@@ -0,0 +1,324 @@
+
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans beatmap folders and hashes their audio in parallel on a ForkJoinPool. Each folder's result goes into its own
+ * slot of the output array, so the workers never have to share anything but a progress counter.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class LibraryScanner {
+
+  /** Folders scanned by one task before it stops splitting. */
+  private static final int SPLIT_THRESHOLD = 32;
+
+  /** Songs hashed by one task before it stops splitting (hashing a song takes far longer than scanning a folder). */
+  private static final int HASH_SPLIT_THRESHOLD = 2;
+
+  /** How often progress is reported, in milliseconds. */
+  private static final long REPORT_INTERVAL_MS = 500L;
+
+  /**
+   * Receives progress updates while a scan runs.
+   */
+  public interface ProgressListener {
+
+    /**
+     * Called periodically during a scan, and once more when it finishes.
+     *
+     * @param done folders scanned so far.
+     * @param total folders to scan.
+     * @param foldersPerSec scan throughput so far.
+     */
+    void scanProgress(int done, int total, double foldersPerSec);
+  }
+
+  /** A listener that prints progress to sysout. */
+  public static final ProgressListener CONSOLE_PROGRESS = new ProgressListener() {
+
+    @Override
+    public void scanProgress(final int done, final int total, final double foldersPerSec) {
+
+      System.out.println(String.format("Scanning library: %d/%d folders (%.0f folders/sec)", done, total,
+          foldersPerSec));
+    }
+  };
+
+  /** A listener that prints audio hashing progress to sysout. */
+  public static final ProgressListener CONSOLE_HASH_PROGRESS = new ProgressListener() {
+
+    @Override
+    public void scanProgress(final int done, final int total, final double songsPerSec) {
+
+      System.out.println(String.format("Hashing audio: %d/%d songs (%.0f songs/sec)", done, total, songsPerSec));
+    }
+  };
+
+  /** Number of worker threads. */
+  private final int parallelism;
+
+  /** Where progress is reported (may be null). */
+  private final ProgressListener listener;
+
+  /**
+   * Default constructor. Uses twice as many workers as there are cores, since most of the time is spent waiting on
+   * the disk.
+   *
+   * @param listener where progress is reported (may be null).
+   */
+  public LibraryScanner(final ProgressListener listener) {
+    this(Runtime.getRuntime().availableProcessors() * 2, listener);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param parallelism number of worker threads.
+   * @param listener where progress is reported (may be null).
+   */
+  public LibraryScanner(final int parallelism, final ProgressListener listener) {
+    this.parallelism = Math.max(1, parallelism);
+    this.listener = listener;
+  }
+
+  /**
+   * Scans a set of beatmap folders. A folder whose modification time matches its previous entry keeps that entry;
+   * everything else is parsed again. New entries are given an ID of -1.
+   *
+   * @param folders the beatmap folders to scan.
+   * @param previous the previous entry for each folder (same order as folders, null elements for new folders).
+   * @return the entry for each folder (same order as folders), or null where a folder has no playable beatmap.
+   */
+  public final LibraryEntry[] scan(final File[] folders, final LibraryEntry[] previous) {
+
+    final LibraryEntry[] results = new LibraryEntry[folders.length];
+    run(folders.length, SPLIT_THRESHOLD, new Work() {
+
+      @Override
+      public void process(final int i) {
+
+        try {
+          results[i] = scanFolder(folders[i], previous[i]);
+        } catch (RuntimeException e) {
+          System.err.println("Could not scan \"" + folders[i] + "\": " + e);
+        }
+      }
+    });
+    return results;
+  }
+
+  /**
+   * Hashes the audio of every entry that doesn't have an audio hash yet (see AudioFingerprint).
+   *
+   * @param songDir the Songs directory.
+   * @param entries the entries.
+   * @return the audio hash of each entry (same order as entries), or null where the audio couldn't be read.
+   */
+  public final String[] fingerprint(final File songDir, final LibraryEntry[] entries) {
+
+    final String[] hashes = new String[entries.length];
+    final int[] missing = new int[entries.length];
+    int numMissing = 0;
+    for (int i = 0; i < entries.length; i++) {
+      hashes[i] = entries[i].getAudioHash();
+      if (hashes[i] == null) {
+        missing[numMissing++] = i;
+      }
+    }
+    if (numMissing == 0) {
+      return hashes;
+    }
+
+    run(numMissing, HASH_SPLIT_THRESHOLD, new Work() {
+
+      @Override
+      public void process(final int j) {
+
+        final int i = missing[j];
+        final LibraryEntry e = entries[i];
+        final File audioFile = new File(new File(songDir, e.getFolder()), e.getAudioFile());
+        try {
+          hashes[i] = AudioFingerprint.compute(audioFile);
+        } catch (IOException ex) {
+          System.err.println("Could not hash \"" + audioFile + "\": " + ex.getMessage());
+        }
+      }
+    });
+    return hashes;
+  }
+
+  /**
+   * Runs some work for every index in a range on the pool, reporting progress until it's done.
+   *
+   * @param total number of indices.
+   * @param threshold indices handled by one task before it stops splitting.
+   * @param work what to do with each index.
+   */
+  private final void run(final int total, final int threshold, final Work work) {
+
+    final AtomicInteger done = new AtomicInteger();
+    final long startTime = System.nanoTime();
+
+    final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+    try {
+      final ForkJoinTask<Void> task = pool.submit(new RangeTask(work, threshold, done, 0, total));
+
+      // Report progress until the work is done
+      while (true) {
+        try {
+          task.get(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException e) {
+          report(done.get(), total, startTime);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    report(done.get(), total, startTime);
+  }
+
+  /**
+   * Sends a progress update to the listener.
+   *
+   * @param done folders scanned so far.
+   * @param total folders to scan.
+   * @param startTime when the scan started, from System.nanoTime().
+   */
+  private final void report(final int done, final int total, final long startTime) {
+
+    if (this.listener == null) {
+      return;
+    }
+
+    final double secs = (System.nanoTime() - startTime) / 1.0E9D;
+    this.listener.scanProgress(done, total, (secs > 0.0D) ? done / secs : 0.0D);
+  }
+
+  /**
+   * Builds the index entry for a single folder.
+   *
+   * @param folder the beatmap folder.
+   * @param prev the previous entry for this folder, or null if it is new.
+   * @return the LibraryEntry, or null if the folder has no playable beatmap.
+   */
+  static final LibraryEntry scanFolder(final File folder, final LibraryEntry prev) {
+
+    // Unchanged folder, keep what we had (lastModified() is 0 if it vanished)
+    final long mtime = folder.lastModified();
+    if (prev != null && mtime == prev.getFolderModified()) {
+      return prev;
+    }
+
+    if (prev == null && !folder.isDirectory()) {
+      return null;
+    }
+
+    // The folder changed but its .osu file didn't, so the old metadata is still good
+    if (prev != null) {
+      final long osuMtime = new File(folder, prev.getOsuFile()).lastModified();
+      if (osuMtime != 0L && osuMtime == prev.getOsuModified()) {
+        return new LibraryEntry(prev.getId(), prev.getFolder(), prev.getOsuFile(), prev.getAudioFile(),
+            prev.getBackground(), prev.getTitle(), prev.getArtist(), prev.getSource(), prev.getTags(), null, mtime,
+            osuMtime);
+      }
+    }
+
+    final File osuFile = MapParser.findOsuFile(folder);
+    if (osuFile == null) {
+      return null;
+    }
+
+    final BeatmapHeader header;
+    try {
+      header = OsuHeaderParser.parseFile(osuFile);
+    } catch (IOException e) {
+      System.err.println("Could not read \"" + osuFile + "\": " + e.getMessage());
+      return null;
+    }
+    if (header.getAudioFile() == null) {
+      return null;
+    }
+
+    final int id = (prev != null) ? prev.getId() : -1;
+    return new LibraryEntry(id, folder.getName(), osuFile.getName(), header.getAudioFile(), header.getBackground(),
+        header.getTitle(), header.getArtist(), header.getSource(), header.getTags(), null, mtime,
+        osuFile.lastModified());
+  }
+
+  /**
+   * Something done for each index of a range.
+   */
+  private interface Work {
+
+    /**
+     * Does the work for one index. Runs on a pool thread; must not throw.
+     *
+     * @param i the index.
+     */
+    void process(int i);
+  }
+
+  /**
+   * Works through a range of indices, splitting in half until the range is small enough.
+   */
+  private static final class RangeTask extends RecursiveAction {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    /** What to do with each index. */
+    private final Work work;
+
+    /** Indices handled by one task before it stops splitting. */
+    private final int threshold;
+
+    /** Shared progress counter. */
+    private final AtomicInteger done;
+
+    /** First index of this range (inclusive). */
+    private final int lo;
+
+    /** Last index of this range (exclusive). */
+    private final int hi;
+
+    RangeTask(final Work work, final int threshold, final AtomicInteger done, final int lo, final int hi) {
+      this.work = work;
+      this.threshold = threshold;
+      this.done = done;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+
+      if (this.hi - this.lo <= this.threshold) {
+        for (int i = this.lo; i < this.hi; i++) {
+          this.work.process(i);
+        }
+        this.done.addAndGet(this.hi - this.lo);
+        return;
+      }
+
+      final int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(new RangeTask(this.work, this.threshold, this.done, this.lo, mid),
+          new RangeTask(this.work, this.threshold, this.done, mid, this.hi));
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * On-screen debug overlay of the player's metrics (toggled with F3). The text is only redrawn a couple of times a
+ * second, into a cached image; every other frame just draws that image, so leaving the overlay up barely changes the
+ * frame times it shows. Only touched by whichever thread draws the player.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class MetricsOverlay {
+
+  /** How often the numbers are refreshed, in nanoseconds. */
+  private static final long REFRESH_NANOS = 500000000L;
+
+  /** Distance from the top left corner of the screen. */
+  private static final int MARGIN = 16;
+
+  /** Space between the text and the edge of its box. */
+  private static final int PADDING = 8;
+
+  /** Overlay font. */
+  private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 13);
+
+  /** Box color. */
+  private static final Color BOX_COLOR = new Color(0, 0, 0, 160);
+
+  /** Where the numbers come from. */
+  private final PlayerMetrics metrics;
+
+  /** The rendered overlay, or null before the first refresh. */
+  private BufferedImage image = null;
+
+  /** When the overlay was last rendered, from System.nanoTime(). */
+  private long lastRefresh = 0L;
+
+  /**
+   * Constructor.
+   *
+   * @param metrics where the numbers come from.
+   */
+  public MetricsOverlay(final PlayerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Draws the overlay in the top left corner, refreshing its numbers if they're old.
+   *
+   * @param g2 Graphics2D object.
+   */
+  public final void draw(final Graphics2D g2) {
+
+    final long now = System.nanoTime();
+    if (this.image == null || now - this.lastRefresh >= REFRESH_NANOS) {
+      this.image = render(this.metrics.getSummary());
+      this.lastRefresh = now;
+    }
+    g2.drawImage(this.image, MARGIN, MARGIN, null);
+  }
+
+  /**
+   * Renders lines of text onto a translucent box.
+   *
+   * @param lines the text.
+   * @return the rendered overlay.
+   */
+  private static final BufferedImage render(final String[] lines) {
+
+    // Measure on a scratch image, since the box has to fit the widest line
+    final BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D sg = scratch.createGraphics();
+    final FontMetrics fm = sg.getFontMetrics(FONT);
+    int textWidth = 0;
+    for (final String line : lines) {
+      textWidth = Math.max(textWidth, fm.stringWidth(line));
+    }
+    sg.dispose();
+
+    final int lineHeight = fm.getHeight();
+    final BufferedImage img = new BufferedImage(textWidth + (PADDING << 1), lineHeight * lines.length + (PADDING << 1),
+        BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D g2 = img.createGraphics();
+    g2.setColor(BOX_COLOR);
+    g2.fillRect(0, 0, img.getWidth(), img.getHeight());
+    g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g2.setFont(FONT);
+    g2.setColor(Color.WHITE);
+    int y = PADDING + fm.getAscent();
+    for (final String line : lines) {
+      g2.drawString(line, PADDING, y);
+      y += lineHeight;
+    }
+    g2.dispose();
+    return img;
+  }
+}
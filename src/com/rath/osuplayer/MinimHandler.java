@@ -4,10 +4,14 @@ package com.rath.osuplayer;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 public class MinimHandler {
   
+  /** Where the next MP3 opened on each thread should start, from its first audio byte (see Mp3Seeker). */
+  private final ThreadLocal<Long> startOffset = new ThreadLocal<Long>();
+
   public MinimHandler() {}
   
   public String sketchPath(String fileName) {
@@ -15,14 +19,55 @@ public class MinimHandler {
     return f.getAbsolutePath();
   }
   
+  /**
+   * Opens an audio file for Minim. MP3s are opened past their tags (Minim doesn't like them) without making a copy,
+   * and start at the frame set by startNextAt(), if any.
+   * 
+   * @param fileName the audio file's path
+   * @return an InputStream of the audio, or null if it can't be opened.
+   */
   public InputStream createInput(String fileName) {
-    FileInputStream result = null;
     try {
-      result = new FileInputStream(fileName);
+      if (fileName.toLowerCase().endsWith(".mp3")) {
+        final TagSkippingInputStream in = new TagSkippingInputStream(new File(fileName));
+        final Long start = this.startOffset.get();
+        if (start != null) {
+          this.startOffset.remove();
+          boolean opened = false;
+          try {
+            in.skip(start);
+            final InputStream seeked = Mp3SeekIndex.detachFromReservoir(in);
+            opened = true;
+            return seeked;
+          } finally {
+            if (!opened) {
+              LibraryIndex.closeQuietly(in);
+            }
+          }
+        }
+        return in;
+      }
+      return new FileInputStream(fileName);
     } catch (FileNotFoundException e) {
       e.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
     }
     
-    return result;
+    return null;
+  }
+
+  /**
+   * Makes the next MP3 this thread opens start at a frame instead of at the beginning.
+   *
+   * @param offset where the frame starts, from the first audio byte (see Mp3SeekIndex), or -1 to start at the
+   *        beginning again.
+   */
+  final void startNextAt(final long offset) {
+    if (offset < 0L) {
+      this.startOffset.remove();
+    } else {
+      this.startOffset.set(offset);
+    }
   }
 }
@@ -0,0 +1,404 @@
+package com.rath.osuplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+
+/**
+ * Where every MPEG audio frame of an .mp3 file starts, so playback can jump straight to the frame holding any point in
+ * the song instead of decoding everything before it. Built by walking the frame headers (nothing is decoded), which
+ * reads a few bytes per frame and takes milliseconds even for long VBR songs. Offsets are counted from the first audio
+ * byte, as read through TagSkippingInputStream.
+ *
+ * File layout (big-endian): magic, version, sample rate, samples per frame, frame count, then each frame's offset.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class Mp3SeekIndex {
+
+  /** Identifies a seek index file ("MP3I"). */
+  static final int MAGIC = 0x4D503349;
+
+  /** Version of the file format. */
+  static final int VERSION = 1;
+
+  /** Bits of a frame header that never change within a stream: sync, MPEG version, layer, and sample rate. */
+  private static final int STREAM_MASK = 0xFFFE0C00;
+
+  /** Frame header, optional CRC, and the start of the side info. */
+  private static final int FRAME_START_SIZE = 8;
+
+  /** Bytes read from the file at a time while walking it. */
+  private static final int WINDOW_SIZE = 64 * 1024;
+
+  /** Bitrates in kbps, by MPEG-1 or not, then layer (I, II, III), then bitrate index. */
+  private static final int[][][] BITRATES = {
+      { { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+          { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+          { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 } },
+      { { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+          { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+          { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 } } };
+
+  /** MPEG-1 sample rates, by sample rate index (halved for MPEG-2, quartered for MPEG-2.5). */
+  private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+  /** Sample rate of the song. */
+  private final int sampleRate;
+
+  /** Samples per channel in each frame. */
+  private final int samplesPerFrame;
+
+  /** Offset of each frame, from the first audio byte. */
+  private final int[] offsets;
+
+  /**
+   * Constructor.
+   *
+   * @param sampleRate sample rate of the song.
+   * @param samplesPerFrame samples per channel in each frame.
+   * @param offsets offset of each frame.
+   */
+  private Mp3SeekIndex(final int sampleRate, final int samplesPerFrame, final int[] offsets) {
+    this.sampleRate = sampleRate;
+    this.samplesPerFrame = samplesPerFrame;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Walks an .mp3 file's frame headers. Junk between frames (or a header that only looks like one) is skipped by
+   * searching for the next header that matches the stream, the way the decoder resyncs.
+   *
+   * @param file the .mp3 file.
+   * @return the index, or null if no frames were found.
+   * @throws IOException if the file can't be read.
+   */
+  public static final Mp3SeekIndex build(final File file) throws IOException {
+
+    final TagSkippingInputStream audio = new TagSkippingInputStream(file);
+    final long audioStart = audio.getAudioStart();
+    final long length = audio.getAudioLength();
+    audio.close();
+    if (length > Integer.MAX_VALUE) {
+      return null;
+    }
+
+    final HeaderReader reader = new HeaderReader(file, audioStart, length);
+    try {
+      int[] offsets = new int[(int) (length / 400L) + 16];
+      int frames = 0;
+      int stream = 0;
+      long pos = 0L;
+      while (pos + 4 <= length) {
+        final int header = reader.headerAt(pos);
+        final int size = frameSize(header);
+        boolean ok = size > 0 && pos + size <= length;
+        if (ok && stream == 0) {
+
+          // Only lock onto a stream once the next header agrees with this one
+          if (pos + size + 4 <= length) {
+            final int next = reader.headerAt(pos + size);
+            ok = (next & STREAM_MASK) == (header & STREAM_MASK) && frameSize(next) > 0;
+          }
+          if (ok) {
+            stream = header & STREAM_MASK;
+          }
+        } else if (ok) {
+          ok = (header & STREAM_MASK) == stream;
+        }
+        if (!ok) {
+          pos++;
+          continue;
+        }
+
+        if (frames == offsets.length) {
+          final int[] grown = new int[frames + (frames >> 1) + 16];
+          System.arraycopy(offsets, 0, grown, 0, frames);
+          offsets = grown;
+        }
+        offsets[frames++] = (int) pos;
+        pos += size;
+      }
+
+      if (frames == 0) {
+        return null;
+      }
+      final int[] exact = new int[frames];
+      System.arraycopy(offsets, 0, exact, 0, frames);
+      return new Mp3SeekIndex(sampleRate(stream), samplesPerFrame(stream), exact);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads an index written by write().
+   *
+   * @param file the index file.
+   * @return the index.
+   * @throws IOException if the file can't be read or isn't a seek index.
+   */
+  static final Mp3SeekIndex read(final File file) throws IOException {
+
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a seek index file");
+      }
+      final int sampleRate = in.readInt();
+      final int samplesPerFrame = in.readInt();
+      final int frames = in.readInt();
+      if (sampleRate <= 0 || samplesPerFrame <= 0 || frames <= 0 || frames > file.length() / 4) {
+        throw new IOException("Corrupt seek index file");
+      }
+      final int[] offsets = new int[frames];
+      for (int i = 0; i < frames; i++) {
+        offsets[i] = in.readInt();
+      }
+      return new Mp3SeekIndex(sampleRate, samplesPerFrame, offsets);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the index. The file is written to a temporary file first and then renamed into place.
+   *
+   * @param file the index file.
+   * @throws IOException if it can't be written.
+   */
+  final void write(final File file) throws IOException {
+
+    final File tmpFile = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(this.sampleRate);
+      out.writeInt(this.samplesPerFrame);
+      out.writeInt(this.offsets.length);
+      for (final int offset : this.offsets) {
+        out.writeInt(offset);
+      }
+      out.close();
+      out = null;
+      if (!tmpFile.renameTo(file)) {
+        throw new IOException("Could not rename \"" + tmpFile + "\"");
+      }
+    } finally {
+      LibraryIndex.closeQuietly(out);
+      tmpFile.delete();
+    }
+  }
+
+  /**
+   * Gets the frame holding a point in the song.
+   *
+   * @param millis the point, in milliseconds.
+   * @return the frame number.
+   */
+  public final int frameAt(final int millis) {
+
+    final long frame = (long) Math.max(0, millis) * this.sampleRate / (1000L * this.samplesPerFrame);
+    return (int) Math.min(frame, this.offsets.length - 1);
+  }
+
+  /**
+   * Gets where a frame starts in the file.
+   *
+   * @param frame the frame number.
+   * @return its offset from the first audio byte.
+   */
+  public final long offsetOf(final int frame) {
+
+    return this.offsets[frame];
+  }
+
+  /**
+   * Gets the first sample (per channel) a frame decodes to.
+   *
+   * @param frame the frame number.
+   * @return the sample number.
+   */
+  public final long sampleOf(final int frame) {
+
+    return (long) frame * this.samplesPerFrame;
+  }
+
+  public final int getFrameCount() {
+
+    return this.offsets.length;
+  }
+
+  public final int getSampleRate() {
+
+    return this.sampleRate;
+  }
+
+  /**
+   * Gets the length of the song, from its frame count.
+   *
+   * @return the length, in milliseconds.
+   */
+  public final int getMillisecondLength() {
+
+    return (int) (sampleOf(this.offsets.length) * 1000L / this.sampleRate);
+  }
+
+  /**
+   * Makes a stream that starts partway through a song decodable. A Layer III frame can keep part of its data in the
+   * frames before it (the bit reservoir), and the MP3 decoder gives up on the whole stream if the first frame it sees
+   * does; so the first frame is told its data starts in itself. It decodes to noise, which is why seeks start a couple
+   * of frames early and throw those samples away.
+   *
+   * @param in the stream, at the start of a frame.
+   * @return the stream to decode.
+   * @throws IOException if the stream can't be read.
+   */
+  static final InputStream detachFromReservoir(final InputStream in) throws IOException {
+
+    final byte[] head = new byte[FRAME_START_SIZE];
+    int len = 0;
+    while (len < head.length) {
+      final int n = in.read(head, len, head.length - len);
+      if (n < 0) {
+        break;
+      }
+      len += n;
+    }
+
+    if (len == head.length) {
+      final int header = ((head[0] & 0xFF) << 24) | ((head[1] & 0xFF) << 16) | ((head[2] & 0xFF) << 8)
+          | (head[3] & 0xFF);
+      if (frameSize(header) > 0 && ((header >>> 17) & 3) == 1) {
+
+        // Main data begin: 9 bits for MPEG-1, 8 bits otherwise, after the CRC if there is one
+        final int sideInfo = ((header & 0x10000) == 0) ? 6 : 4;
+        head[sideInfo] = 0;
+        if (((header >>> 19) & 3) == 3) {
+          head[sideInfo + 1] &= 0x7F;
+        }
+      }
+    }
+    return new SequenceInputStream(new ByteArrayInputStream(head, 0, len), in);
+  }
+
+  /**
+   * Gets the size of a frame from its header.
+   *
+   * @param header the 4 header bytes, big-endian.
+   * @return the frame size in bytes, or 0 if this isn't a (supported) frame header.
+   */
+  static final int frameSize(final int header) {
+
+    final int version = (header >>> 19) & 3;
+    final int layer = (header >>> 17) & 3;
+    final int bitrateIndex = (header >>> 12) & 0xF;
+    final int rateIndex = (header >>> 10) & 3;
+    if ((header & 0xFFE00000) != 0xFFE00000 || version == 1 || layer == 0 || bitrateIndex == 0
+        || bitrateIndex == 0xF || rateIndex == 3) {
+      return 0;
+    }
+
+    final int bitrate = BITRATES[(version == 3) ? 0 : 1][3 - layer][bitrateIndex] * 1000;
+    final int rate = sampleRate(header);
+    final int padding = (header >>> 9) & 1;
+    if (layer == 3) {
+      return (12 * bitrate / rate + padding) * 4;
+    }
+    return samplesPerFrame(header) / 8 * bitrate / rate + padding;
+  }
+
+  /**
+   * Gets the sample rate from a frame header.
+   *
+   * @param header a valid frame header.
+   * @return the sample rate.
+   */
+  private static final int sampleRate(final int header) {
+
+    final int version = (header >>> 19) & 3;
+    final int shift = (version == 3) ? 0 : (version == 2) ? 1 : 2;
+    return SAMPLE_RATES[(header >>> 10) & 3] >> shift;
+  }
+
+  /**
+   * Gets the samples per channel in a frame from its header.
+   *
+   * @param header a valid frame header.
+   * @return the samples per frame.
+   */
+  private static final int samplesPerFrame(final int header) {
+
+    final int layer = (header >>> 17) & 3;
+    if (layer == 3) {
+      return 384;
+    }
+    return (layer == 1 && ((header >>> 19) & 3) != 3) ? 576 : 1152;
+  }
+
+  /**
+   * Reads 4-byte headers from the audio of a file, through a window that only moves forward.
+   */
+  private static final class HeaderReader {
+
+    /** The file. */
+    private final RandomAccessFile raf;
+
+    /** Offset of the first audio byte in the file. */
+    private final long audioStart;
+
+    /** Number of audio bytes. */
+    private final long length;
+
+    /** The window. */
+    private final byte[] window = new byte[WINDOW_SIZE];
+
+    /** Audio offset of the window's first byte. */
+    private long windowStart = 0L;
+
+    /** Bytes in the window. */
+    private int windowLength = 0;
+
+    HeaderReader(final File file, final long audioStart, final long length) throws IOException {
+      this.raf = new RandomAccessFile(file, "r");
+      this.audioStart = audioStart;
+      this.length = length;
+    }
+
+    /**
+     * Reads 4 bytes as a big-endian int.
+     *
+     * @param pos audio offset of the first byte (at least 4 bytes before the end).
+     * @return the bytes.
+     * @throws IOException if the file can't be read.
+     */
+    final int headerAt(final long pos) throws IOException {
+
+      if (pos < this.windowStart || pos + 4 > this.windowStart + this.windowLength) {
+        this.windowStart = pos;
+        this.windowLength = (int) Math.min(WINDOW_SIZE, this.length - pos);
+        this.raf.seek(this.audioStart + pos);
+        this.raf.readFully(this.window, 0, this.windowLength);
+      }
+      final int i = (int) (pos - this.windowStart);
+      return ((this.window[i] & 0xFF) << 24) | ((this.window[i + 1] & 0xFF) << 16) | ((this.window[i + 2] & 0xFF) << 8)
+          | (this.window[i + 3] & 0xFF);
+    }
+
+    final void close() {
+
+      LibraryIndex.closeQuietly(this.raf);
+    }
+  }
+}
@@ -0,0 +1,388 @@
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ddf.minim.AudioPlayer;
+
+/**
+ * Seeks in MP3s without decoding everything before the new position. Minim's cue() decodes and throws away every
+ * sample up to where it is going, and going backwards reopens the file and starts over, so seeking late in a long song
+ * stalls. Instead, the song's Mp3SeekIndex gives the frame to jump to; the stream is reopened through
+ * MinimHandler.createInput() starting at that frame, and Minim's position is set to match.
+ *
+ * Indexes are built in the background the first time a song plays, and cached on disk by the song's audio hash (and
+ * in memory for the last few songs). The disk cache is kept under its size limit by deleting the least recently used
+ * indexes. Minim has no API for any of this, so its stream is reached by reflection; if that
+ * ever fails (a different Minim), seek() says so and the caller falls back to cue().
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class Mp3Seeker {
+
+  /** Default directory of the cache. */
+  public static final String DEFAULT_DIR = "osuplayer-cache/seek";
+
+  /** Default size of the disk cache, in MB (override with -Dosuplayer.seekcache.disk.mb). */
+  private static final long DEFAULT_DISK_MB = 64L;
+
+  /** Indexes kept in memory. */
+  private static final int MEMORY_ENTRIES = 16;
+
+  /** Frames decoded before the target one, so the bit reservoir it draws on is filled. */
+  private static final int PREROLL_FRAMES = 2;
+
+  /** Fewest frames to jump in front of; the MP3 reader won't open a stream much shorter than this. */
+  private static final int TAIL_FRAMES = 8;
+
+  /** AudioPlayer.recording, the stream Minim plays from. */
+  private static final Field RECORDING;
+
+  /** JSBaseAudioRecordingStream.ais, the decoded stream. */
+  private static final Field DECODED;
+
+  /** JSBaseAudioRecordingStream.totalBytesRead, which Minim's position is worked out from. */
+  private static final Field BYTES_READ;
+
+  /** JSMPEGAudioRecordingStream.rewind(), which reopens the file and decoder. */
+  private static final Method REWIND;
+
+  /** Minim's MP3 stream class. */
+  private static final Class<?> MPEG_STREAM;
+
+  static {
+    Field recording = null;
+    Field decoded = null;
+    Field bytesRead = null;
+    Method rewind = null;
+    Class<?> mpegStream = null;
+    try {
+      final Class<?> base = Class.forName("ddf.minim.javasound.JSBaseAudioRecordingStream");
+      mpegStream = Class.forName("ddf.minim.javasound.JSMPEGAudioRecordingStream");
+      recording = AudioPlayer.class.getDeclaredField("recording");
+      decoded = base.getDeclaredField("ais");
+      bytesRead = base.getDeclaredField("totalBytesRead");
+      rewind = base.getDeclaredMethod("rewind");
+      recording.setAccessible(true);
+      decoded.setAccessible(true);
+      bytesRead.setAccessible(true);
+      rewind.setAccessible(true);
+    } catch (ReflectiveOperationException e) {
+      System.err.println("Fast MP3 seeking not available with this Minim: " + e);
+      recording = null;
+    } catch (SecurityException e) {
+      System.err.println("Fast MP3 seeking not allowed: " + e);
+      recording = null;
+    }
+    RECORDING = recording;
+    DECODED = decoded;
+    BYTES_READ = bytesRead;
+    REWIND = rewind;
+    MPEG_STREAM = mpegStream;
+  }
+
+  /** Opens audio for Minim. */
+  private final MinimHandler handler;
+
+  /** Directory of the disk cache, or null if it is off. */
+  private final File dir;
+
+  /** Maximum bytes held by the disk cache. */
+  private final long maxDiskBytes;
+
+  /** Bytes currently held by the disk cache. Only touched by the worker thread. */
+  private long diskBytes;
+
+  /** Single worker thread, so only one index is built at a time. */
+  private final ExecutorService worker;
+
+  /** The most recently used indexes, by audio hash (guarded by itself). */
+  private final Map<String, Mp3SeekIndex> memory = new LinkedHashMap<String, Mp3SeekIndex>(MEMORY_ENTRIES, 0.75F,
+      true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Mp3SeekIndex> eldest) {
+
+      return size() > MEMORY_ENTRIES;
+    }
+  };
+
+  /** Seeks that jumped straight to a frame (guarded by this). */
+  private long jumps = 0L;
+
+  /**
+   * Constructor. Uses the default disk cache size.
+   *
+   * @param handler the MinimHandler the player's Minim opens audio with.
+   * @param dir directory of the disk cache.
+   */
+  public Mp3Seeker(final MinimHandler handler, final File dir) {
+    this(handler, dir, Long.getLong("osuplayer.seekcache.disk.mb", DEFAULT_DISK_MB) * BackgroundCache.MB);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param handler the MinimHandler the player's Minim opens audio with.
+   * @param dir directory of the disk cache, or null to keep indexes in memory only.
+   * @param maxDiskBytes maximum bytes held on disk.
+   */
+  public Mp3Seeker(final MinimHandler handler, final File dir, final long maxDiskBytes) {
+    this.handler = handler;
+    this.maxDiskBytes = maxDiskBytes;
+
+    File cacheDir = dir;
+    if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      System.err.println("Could not create seek index cache directory \"" + cacheDir + "\".");
+      cacheDir = null;
+    }
+    this.dir = cacheDir;
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+
+        final Thread t = new Thread(r, "seek-index");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+    if (this.dir != null) {
+      this.worker.submit(new Runnable() {
+
+        @Override
+        public void run() {
+
+          trimDisk();
+        }
+      });
+    }
+  }
+
+  /**
+   * Gets a song's seek index in the background, from the cache or by building it.
+   *
+   * @param audioFile the song's audio file (only MP3s are indexed).
+   * @param audioHash the song's audio hash from the library index, or null to compute it.
+   * @return the index once it is ready (null if it couldn't be made). Cancel it if the song changes first.
+   */
+  public final Future<Mp3SeekIndex> request(final File audioFile, final String audioHash) {
+
+    return this.worker.submit(new Callable<Mp3SeekIndex>() {
+
+      @Override
+      public Mp3SeekIndex call() {
+
+        return load(audioFile, audioHash);
+      }
+    });
+  }
+
+  /**
+   * Moves a playing (or paused) MP3 to a new position by jumping to the frame holding it.
+   *
+   * @param player the player.
+   * @param index the seek index of the player's song.
+   * @param millis where to go, in milliseconds.
+   * @return true if it moved, false if the player can't jump (use cue() instead).
+   */
+  public final boolean seek(final AudioPlayer player, final Mp3SeekIndex index, final int millis) {
+
+    if (RECORDING == null) {
+      return false;
+    }
+
+    final int target = Math.max(0, Math.min(millis, player.length()));
+    final int frame = Math.min(index.frameAt(target) - PREROLL_FRAMES, index.getFrameCount() - TAIL_FRAMES);
+    if (frame < 0) {
+      return false;
+    }
+    final long bytes = index.sampleOf(frame) * player.getFormat().getFrameSize();
+    try {
+      final Object recording = RECORDING.get(player);
+      if (!MPEG_STREAM.isInstance(recording) || bytes > Integer.MAX_VALUE) {
+        return false;
+      }
+
+      // Minim reads from the decoded stream with it locked, and fetches the stream again once it has the lock
+      final Object decoded = DECODED.get(recording);
+      synchronized ((decoded != null) ? decoded : recording) {
+        this.handler.startNextAt(index.offsetOf(frame));
+        try {
+          REWIND.invoke(recording);
+        } catch (InvocationTargetException e) {
+
+          // Leave the player at the start of the song, where cue() can go from
+          System.err.println("Could not seek: " + e.getCause());
+          this.handler.startNextAt(-1L);
+          REWIND.invoke(recording);
+          BYTES_READ.setInt(recording, 0);
+          return false;
+        } finally {
+          this.handler.startNextAt(-1L);
+        }
+        BYTES_READ.setInt(recording, (int) bytes);
+      }
+    } catch (IllegalAccessException e) {
+      System.err.println("Could not seek: " + e);
+      return false;
+    } catch (InvocationTargetException e) {
+      System.err.println("Could not rewind: " + e.getCause());
+      return false;
+    }
+
+    // Decode the preroll and the rest of the way into the frame
+    player.cue(target);
+    synchronized (this) {
+      this.jumps++;
+    }
+    return true;
+  }
+
+  /**
+   * Gets the number of seeks that jumped straight to a frame.
+   *
+   * @return the count.
+   */
+  public final synchronized long getJumps() {
+
+    return this.jumps;
+  }
+
+  /**
+   * Stops building indexes.
+   */
+  public final void shutdown() {
+
+    this.worker.shutdownNow();
+  }
+
+  /**
+   * Gets a song's cached seek index, building it first if needed.
+   *
+   * @param audioFile the song's audio file.
+   * @param audioHash the song's audio hash, or null to compute it.
+   * @return the index, or null if it couldn't be made.
+   */
+  private final Mp3SeekIndex load(final File audioFile, final String audioHash) {
+
+    if (!audioFile.getName().toLowerCase().endsWith(".mp3")) {
+      return null;
+    }
+    try {
+      final String hash = (audioHash != null) ? audioHash : AudioFingerprint.compute(audioFile);
+      synchronized (this.memory) {
+        final Mp3SeekIndex cached = this.memory.get(hash);
+        if (cached != null) {
+          return cached;
+        }
+      }
+
+      final File file = (this.dir != null) ? new File(this.dir, hash + ".idx") : null;
+      Mp3SeekIndex index = null;
+      if (file != null && file.isFile()) {
+        try {
+          index = Mp3SeekIndex.read(file);
+          file.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+          System.err.println("Corrupt seek index \"" + file + "\", rebuilding.");
+        }
+      }
+      if (index == null) {
+        index = Mp3SeekIndex.build(audioFile);
+        if (index == null) {
+          System.err.println("No MPEG frames found in \"" + audioFile + "\".");
+          return null;
+        }
+        if (file != null) {
+          putDisk(file, index);
+        }
+      }
+
+      synchronized (this.memory) {
+        this.memory.put(hash, index);
+      }
+      return index;
+    } catch (IOException e) {
+      System.err.println("Could not make seek index for \"" + audioFile + "\": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Writes an index to the disk cache, then trims the cache if it went over its size limit. Failing to write only
+   * means the index is built again next time.
+   *
+   * @param file the index file.
+   * @param index the index.
+   */
+  private final void putDisk(final File file, final Mp3SeekIndex index) {
+
+    try {
+      index.write(file);
+    } catch (IOException e) {
+      System.err.println("Could not cache seek index \"" + file + "\": " + e.getMessage());
+      return;
+    }
+    this.diskBytes += file.length();
+    if (this.diskBytes > this.maxDiskBytes) {
+      trimDisk();
+    }
+  }
+
+  /**
+   * Deletes the least recently used indexes of the disk cache until it is under its size limit.
+   */
+  private final void trimDisk() {
+
+    final File[] files = this.dir.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    final long[] mtimes = new long[files.length];
+    long total = 0L;
+    for (int i = 0; i < files.length; i++) {
+      mtimes[i] = files[i].lastModified();
+      total += files[i].length();
+    }
+
+    // Oldest first
+    final Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(final Integer a, final Integer b) {
+
+        return (mtimes[a] < mtimes[b]) ? -1 : ((mtimes[a] == mtimes[b]) ? 0 : 1);
+      }
+    });
+
+    for (int i = 0; i < order.length && total > this.maxDiskBytes; i++) {
+      final File f = files[order[i]];
+      final long len = f.length();
+      if (f.delete()) {
+        total -= len;
+      }
+    }
+    this.diskBytes = total;
+  }
+}
@@ -10,10 +10,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.File;
-import java.io.IOException;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
@@ -77,19 +74,15 @@ public class OptionsPanel extends JPanel {
     setLayout(new FlowLayout());
 
     // Load images
-    try {
-      this.playImg = ImageIO.read(new File("res/img/play.png"));
-      this.pauseImg = ImageIO.read(new File("res/img/pause.png"));
-      this.newSongImg = ImageIO.read(new File("res/img/refresh.png"));
-      this.closeImg = ImageIO.read(new File("res/img/close.png"));
-      this.playImgHover = ImageIO.read(new File("res/img/play-hover.png"));
-      this.pauseImgHover = ImageIO.read(new File("res/img/pause-hover.png"));
-      this.newSongImgHover = ImageIO.read(new File("res/img/refresh-hover.png"));
-      this.closeImgHover = ImageIO.read(new File("res/img/close-hover.png"));
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-    }
+    final Assets assets = Assets.shared();
+    this.playImg = assets.getImage(Assets.PLAY);
+    this.pauseImg = assets.getImage(Assets.PAUSE);
+    this.newSongImg = assets.getImage(Assets.REFRESH);
+    this.closeImg = assets.getImage(Assets.CLOSE);
+    this.playImgHover = assets.getImage(Assets.PLAY_HOVER);
+    this.pauseImgHover = assets.getImage(Assets.PAUSE_HOVER);
+    this.newSongImgHover = assets.getImage(Assets.REFRESH_HOVER);
+    this.closeImgHover = assets.getImage(Assets.CLOSE_HOVER);
 
     // Control button setup
     // Pause button
@@ -0,0 +1,358 @@
+
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the header of a .osu file straight from bytes. Lines are matched without building Strings, only the values we
+ * keep are decoded, and reading stops as soon as [Metadata] and [Events] have both been read, so the (much longer)
+ * timing point and hit object sections are never touched.
+ *
+ * Instances keep a reusable read buffer and are not thread-safe; use {@link #parseFile(File)} from multiple threads.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class OsuHeaderParser {
+
+  /** Initial read buffer size. Most headers fit in this. */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Charset of .osu files. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Sections we care about. */
+  private static final int SECTION_NONE = 0;
+  private static final int SECTION_GENERAL = 1;
+  private static final int SECTION_METADATA = 2;
+  private static final int SECTION_EVENTS = 3;
+  private static final int SECTION_OTHER = 4;
+
+  /** Section headers. */
+  private static final byte[] GENERAL = ascii("[General]");
+  private static final byte[] METADATA = ascii("[Metadata]");
+  private static final byte[] EVENTS = ascii("[Events]");
+  private static final byte[] HIT_OBJECTS = ascii("[HitObjects]");
+
+  /** Keys. */
+  private static final byte[] AUDIO_FILENAME = ascii("AudioFilename");
+  private static final byte[] TITLE = ascii("Title");
+  private static final byte[] ARTIST = ascii("Artist");
+  private static final byte[] SOURCE = ascii("Source");
+  private static final byte[] TAGS = ascii("Tags");
+
+  /** One parser per thread for parseFile(). */
+  private static final ThreadLocal<OsuHeaderParser> PARSERS = new ThreadLocal<OsuHeaderParser>() {
+
+    @Override
+    protected OsuHeaderParser initialValue() {
+
+      return new OsuHeaderParser();
+    }
+  };
+
+  /** Read buffer. Grows if a single line doesn't fit. */
+  private byte[] buf = new byte[BUFFER_SIZE];
+
+  /** The section the current line is in. */
+  private int section;
+
+  /** Whether [Metadata] has been read to the end. */
+  private boolean metadataDone;
+
+  /** Whether [Events] has been read to the end. */
+  private boolean eventsDone;
+
+  // Values found so far
+  private String audioFile;
+  private String background;
+  private String title;
+  private String artist;
+  private String source;
+  private String tags;
+
+  /**
+   * Parses a .osu file using this thread's parser.
+   *
+   * @param osuFile the .osu file.
+   * @return the BeatmapHeader.
+   * @throws IOException if the file can't be read.
+   */
+  public static final BeatmapHeader parseFile(final File osuFile) throws IOException {
+
+    final FileInputStream in = new FileInputStream(osuFile);
+    try {
+      return PARSERS.get().parse(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Parses a .osu header from a stream. The stream is left open and is usually not read to the end.
+   *
+   * @param in the stream to read.
+   * @return the BeatmapHeader.
+   * @throws IOException if the stream can't be read.
+   */
+  public final BeatmapHeader parse(final InputStream in) throws IOException {
+
+    reset();
+
+    int len = 0;
+    int pos = 0;
+    boolean first = true;
+    boolean eof = false;
+    while (true) {
+
+      // Find the end of the current line
+      int eol = pos;
+      while (eol < len && this.buf[eol] != '\n') {
+        eol++;
+      }
+
+      if (eol == len && !eof) {
+
+        // Partial line; move it to the front and read more
+        if (pos > 0) {
+          System.arraycopy(this.buf, pos, this.buf, 0, len - pos);
+          len -= pos;
+          pos = 0;
+        } else if (len == this.buf.length) {
+          final byte[] bigger = new byte[this.buf.length << 1];
+          System.arraycopy(this.buf, 0, bigger, 0, len);
+          this.buf = bigger;
+        }
+        final int n = in.read(this.buf, len, this.buf.length - len);
+        if (n < 0) {
+          eof = true;
+        } else {
+          len += n;
+        }
+
+        // Skip the UTF-8 BOM
+        if (first && len >= 3) {
+          first = false;
+          if ((this.buf[0] & 0xFF) == 0xEF && (this.buf[1] & 0xFF) == 0xBB && (this.buf[2] & 0xFF) == 0xBF) {
+            pos = 3;
+          }
+        }
+        continue;
+      }
+
+      if (pos >= len) {
+        break;
+      }
+
+      if (!line(pos, eol)) {
+        break;
+      }
+      pos = eol + 1;
+    }
+
+    return new BeatmapHeader(this.audioFile, this.background, this.title, this.artist, this.source, this.tags);
+  }
+
+  /**
+   * Clears all state from the previous parse.
+   */
+  private final void reset() {
+
+    this.section = SECTION_NONE;
+    this.metadataDone = false;
+    this.eventsDone = false;
+    this.audioFile = null;
+    this.background = null;
+    this.title = null;
+    this.artist = null;
+    this.source = null;
+    this.tags = null;
+  }
+
+  /**
+   * Handles one line of the file.
+   *
+   * @param start index of the first byte of the line.
+   * @param end index just past the last byte of the line.
+   * @return false if parsing should stop.
+   */
+  private final boolean line(int start, int end) {
+
+    final byte[] b = this.buf;
+
+    // Trim whitespace (including the \r of CRLF)
+    while (start < end && b[start] <= ' ' && b[start] >= 0) {
+      start++;
+    }
+    while (end > start && b[end - 1] <= ' ' && b[end - 1] >= 0) {
+      end--;
+    }
+    if (start == end || (b[start] == '/' && end - start > 1 && b[start + 1] == '/')) {
+      return true;
+    }
+
+    // Section header
+    if (b[start] == '[') {
+      if (this.section == SECTION_METADATA) {
+        this.metadataDone = true;
+      } else if (this.section == SECTION_EVENTS) {
+        this.eventsDone = true;
+      }
+      if ((this.metadataDone && this.eventsDone) || equalsAt(b, start, end, HIT_OBJECTS)) {
+        return false;
+      }
+
+      if (equalsAt(b, start, end, GENERAL)) {
+        this.section = SECTION_GENERAL;
+      } else if (equalsAt(b, start, end, METADATA)) {
+        this.section = SECTION_METADATA;
+      } else if (equalsAt(b, start, end, EVENTS)) {
+        this.section = SECTION_EVENTS;
+      } else {
+        this.section = SECTION_OTHER;
+      }
+      return true;
+    }
+
+    switch (this.section) {
+      case SECTION_GENERAL:
+      case SECTION_METADATA:
+        keyValue(b, start, end);
+        break;
+      case SECTION_EVENTS:
+        if (this.background == null && b[start] == '0' && end - start > 1 && b[start + 1] == ',') {
+          this.background = backgroundFile(b, start, end);
+        }
+        break;
+      default:
+        break;
+    }
+    return true;
+  }
+
+  /**
+   * Handles a "Key: Value" line.
+   *
+   * @param b the line bytes.
+   * @param start index of the first byte of the line.
+   * @param end index just past the last byte of the line.
+   */
+  private final void keyValue(final byte[] b, final int start, final int end) {
+
+    int colon = start;
+    while (colon < end && b[colon] != ':') {
+      colon++;
+    }
+    if (colon == end) {
+      return;
+    }
+
+    int keyEnd = colon;
+    while (keyEnd > start && b[keyEnd - 1] == ' ') {
+      keyEnd--;
+    }
+
+    if (this.section == SECTION_GENERAL) {
+      if (this.audioFile == null && equalsAt(b, start, keyEnd, AUDIO_FILENAME)) {
+        this.audioFile = value(b, colon + 1, end);
+      }
+    } else if (this.title == null && equalsAt(b, start, keyEnd, TITLE)) {
+      this.title = value(b, colon + 1, end);
+    } else if (this.artist == null && equalsAt(b, start, keyEnd, ARTIST)) {
+      this.artist = value(b, colon + 1, end);
+    } else if (this.source == null && equalsAt(b, start, keyEnd, SOURCE)) {
+      this.source = value(b, colon + 1, end);
+    } else if (this.tags == null && equalsAt(b, start, keyEnd, TAGS)) {
+      this.tags = value(b, colon + 1, end);
+    }
+  }
+
+  /**
+   * Gets the filename from a background event line ("0,0,"file.jpg",0,0").
+   *
+   * @param b the line bytes.
+   * @param start index of the first byte of the line.
+   * @param end index just past the last byte of the line.
+   * @return the filename, or null if the line is malformed.
+   */
+  private static final String backgroundFile(final byte[] b, final int start, final int end) {
+
+    // Skip to the third field
+    int i = start;
+    for (int commas = 0; commas < 2; i++) {
+      if (i >= end) {
+        return null;
+      }
+      if (b[i] == ',') {
+        commas++;
+      }
+    }
+
+    if (i < end && b[i] == '"') {
+      final int nameStart = i + 1;
+      int nameEnd = nameStart;
+      while (nameEnd < end && b[nameEnd] != '"') {
+        nameEnd++;
+      }
+      return new String(b, nameStart, nameEnd - nameStart, UTF8);
+    }
+
+    int nameEnd = i;
+    while (nameEnd < end && b[nameEnd] != ',') {
+      nameEnd++;
+    }
+    return value(b, i, nameEnd);
+  }
+
+  /**
+   * Decodes a trimmed value.
+   *
+   * @param b the line bytes.
+   * @param start index of the first byte of the value.
+   * @param end index just past the last byte of the value.
+   * @return the value as a String.
+   */
+  private static final String value(final byte[] b, int start, final int end) {
+
+    while (start < end && b[start] == ' ') {
+      start++;
+    }
+    return new String(b, start, end - start, UTF8);
+  }
+
+  /**
+   * Checks if a byte range is exactly equal to some ASCII bytes.
+   *
+   * @param b the bytes to check.
+   * @param start start of the range.
+   * @param end end of the range (exclusive).
+   * @param expected the bytes to compare against.
+   * @return true if they match.
+   */
+  private static final boolean equalsAt(final byte[] b, final int start, final int end, final byte[] expected) {
+
+    if (end - start != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (b[start + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Converts an ASCII String to bytes.
+   *
+   * @param s the String.
+   * @return its bytes.
+   */
+  private static final byte[] ascii(final String s) {
+
+    return s.getBytes(Charset.forName("US-ASCII"));
+  }
+}
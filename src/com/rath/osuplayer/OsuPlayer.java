@@ -16,18 +16,27 @@ public class OsuPlayer {
    */
   public static void main(String[] args) {
     
+    // Start loading fonts and images while everything else starts up
+    StartupTrace.begin();
+    Assets.shared().preload();
+    
     // Get dimensions of the screen
     Dimension fsDim = Toolkit.getDefaultToolkit().getScreenSize();
     final int fsWidth = fsDim.width;
     final int fsHeight = fsDim.height;
+    StartupTrace.mark("screen size");
     
     javax.swing.SwingUtilities.invokeLater(new Runnable() {
       
       @Override
       public void run() {
+        StartupTrace.mark("event thread started");
         PlayerFrame frame = new PlayerFrame(fsWidth, fsHeight);
+        StartupTrace.mark("frame built");
         frame.setUndecorated(true);
         frame.setVisible(true);
+        StartupTrace.mark("frame shown");
+        frame.startRendering();
       }
     });
     
@@ -0,0 +1,168 @@
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Finds the dominant color of the bottom of a background (where the spectrum bars are drawn), and the complementary
+ * color the bars are drawn in. The bottom 30% of the image is shrunk to a small copy, whose pixels are read straight
+ * out of its int[] raster and clustered with k-means; the dominant color is the center of the biggest cluster.
+ *
+ * Clustering a thousand pixels takes a fraction of a millisecond, and the result is kept in the library index, so each
+ * background is only ever looked at once.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class PaletteExtractor {
+
+  /** Where the sampled region starts, as a fraction of the image's height. */
+  private static final double VERT_START = 0.7D;
+
+  /** Width of the shrunk copy. */
+  private static final int SAMPLE_W = 64;
+
+  /** Height of the shrunk copy. */
+  private static final int SAMPLE_H = 16;
+
+  /** Number of clusters. */
+  private static final int K = 5;
+
+  /** Most k-means iterations; it usually settles well before this. */
+  private static final int MAX_ITERATIONS = 12;
+
+  /** Alpha of the spectrum bars. */
+  private static final int BAR_ALPHA = 180;
+
+  private PaletteExtractor() {}
+
+  /**
+   * Gets the dominant color of the bottom of an image.
+   *
+   * @param img the image (any size, at least 1x1).
+   * @return the color as opaque ARGB (never 0, so 0 can mean "not computed").
+   */
+  public static final int dominant(final BufferedImage img) {
+
+    return 0xFF000000 | kMeans(sample(img));
+  }
+
+  /**
+   * Gets the spectrum bar color for a background's dominant color: its complement, slightly translucent.
+   *
+   * @param dominant the dominant color, as ARGB.
+   * @return the bar color.
+   */
+  public static final Color barColor(final int dominant) {
+
+    return new Color((~dominant & 0xFFFFFF) | (BAR_ALPHA << 24), true);
+  }
+
+  /**
+   * Shrinks the bottom of an image into a small INT_RGB copy and gets its pixels.
+   *
+   * @param img the image.
+   * @return the copy's pixels, as RGB.
+   */
+  private static final int[] sample(final BufferedImage img) {
+
+    final int w = img.getWidth();
+    final int h = img.getHeight();
+    final int top = Math.min(h - 1, (int) (h * VERT_START));
+    final int sw = Math.min(SAMPLE_W, w);
+    final int sh = Math.min(SAMPLE_H, h - top);
+
+    final BufferedImage small = new BufferedImage(sw, sh, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D g2 = small.createGraphics();
+    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g2.drawImage(img, 0, 0, sw, sh, 0, top, w, h, null);
+    g2.dispose();
+    return ((DataBufferInt) small.getRaster().getDataBuffer()).getData();
+  }
+
+  /**
+   * Clusters colors with k-means, seeded with colors spread evenly through the input so the result is repeatable.
+   *
+   * @param rgb the colors.
+   * @return the center of the biggest cluster, as RGB.
+   */
+  static final int kMeans(final int[] rgb) {
+
+    final int n = rgb.length;
+    final int k = Math.min(K, n);
+    final int[] cr = new int[k];
+    final int[] cg = new int[k];
+    final int[] cb = new int[k];
+    for (int c = 0; c < k; c++) {
+      final int p = rgb[(int) ((c + 0.5D) * n / k)];
+      cr[c] = (p >> 16) & 0xFF;
+      cg[c] = (p >> 8) & 0xFF;
+      cb[c] = p & 0xFF;
+    }
+
+    final int[] assigned = new int[n];
+    final int[] counts = new int[k];
+    final long[] sr = new long[k];
+    final long[] sg = new long[k];
+    final long[] sb = new long[k];
+    for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+
+      // Assign every color to its nearest center
+      boolean moved = (iter == 0);
+      for (int c = 0; c < k; c++) {
+        counts[c] = 0;
+        sr[c] = 0L;
+        sg[c] = 0L;
+        sb[c] = 0L;
+      }
+      for (int i = 0; i < n; i++) {
+        final int p = rgb[i];
+        final int r = (p >> 16) & 0xFF;
+        final int g = (p >> 8) & 0xFF;
+        final int b = p & 0xFF;
+        int best = 0;
+        int bestDist = Integer.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+          final int dr = r - cr[c];
+          final int dg = g - cg[c];
+          final int db = b - cb[c];
+          final int dist = dr * dr + dg * dg + db * db;
+          if (dist < bestDist) {
+            bestDist = dist;
+            best = c;
+          }
+        }
+        if (assigned[i] != best) {
+          assigned[i] = best;
+          moved = true;
+        }
+        counts[best]++;
+        sr[best] += r;
+        sg[best] += g;
+        sb[best] += b;
+      }
+
+      // Move each center to the mean of its colors (empty clusters stay put)
+      for (int c = 0; c < k; c++) {
+        if (counts[c] > 0) {
+          cr[c] = (int) (sr[c] / counts[c]);
+          cg[c] = (int) (sg[c] / counts[c]);
+          cb[c] = (int) (sb[c] / counts[c]);
+        }
+      }
+      if (!moved) {
+        break;
+      }
+    }
+
+    int biggest = 0;
+    for (int c = 1; c < k; c++) {
+      if (counts[c] > counts[biggest]) {
+        biggest = c;
+      }
+    }
+    return (cr[biggest] << 16) | (cg[biggest] << 8) | cb[biggest];
+  }
+}
@@ -0,0 +1,496 @@
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A durable, append-only log of play events (song started, finished, skipped, or seeked), by stable library index ID,
+ * with per-song counts kept in memory so the shuffle and stats can look them up cheaply.
+ *
+ * Recording an event only updates the counts and queues it up; a background thread appends queued events to the log
+ * in batches every couple of seconds and syncs them to disk. Once enough events have piled up, the log is compacted
+ * down to one total per song and counter.
+ *
+ * File layout (big-endian): magic, version, then fixed-size records of type (byte), song ID, time (ms since the
+ * epoch), and value (playback position in ms for events, or the count for totals).
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class PlayHistory {
+
+  /** Default log filename. */
+  public static final String DEFAULT_FILENAME = "osuplayer-history.log";
+
+  /** A song started playing. */
+  public static final byte STARTED = 1;
+
+  /** A song played to the end. */
+  public static final byte FINISHED = 2;
+
+  /** A song was skipped before it ended. */
+  public static final byte SKIPPED = 3;
+
+  /** A song was seeked (value is where to). */
+  public static final byte SEEKED = 4;
+
+  /** Offset from an event type to the type of its compacted total. */
+  private static final byte TOTAL = 16;
+
+  /** Number of event types. */
+  private static final int NUM_TYPES = 4;
+
+  /** Identifies a history log ("OSPH"). */
+  private static final int MAGIC = 0x4F535048;
+
+  /** Version of the file format. */
+  private static final int VERSION = 1;
+
+  /** Size of the file header, in bytes. */
+  private static final int HEADER_SIZE = 8;
+
+  /** Size of a record, in bytes. */
+  private static final int RECORD_SIZE = 17;
+
+  /** How often queued events are written, in milliseconds. */
+  private static final long FLUSH_INTERVAL_MS = 2000L;
+
+  /** Queued events that trigger a write right away. */
+  private static final int MAX_BATCH = 256;
+
+  /** Logged events that trigger a compaction. */
+  private static final int COMPACT_THRESHOLD = 20000;
+
+  /**
+   * A queued event.
+   */
+  private static final class Event {
+
+    final byte type;
+    final int id;
+    final long time;
+    final int value;
+
+    Event(final byte type, final int id, final long time, final int value) {
+      this.type = type;
+      this.id = id;
+      this.time = time;
+      this.value = value;
+    }
+  }
+
+  /** The log file. */
+  private final File file;
+
+  /** Counts of each event type per song ID, plus the last time each song started (guarded by this). */
+  private final Map<Integer, long[]> counts = new HashMap<Integer, long[]>();
+
+  /** Events waiting to be written (guarded by this). */
+  private List<Event> pending = new ArrayList<Event>();
+
+  /** Whether the log has been closed (guarded by this). */
+  private boolean closed = false;
+
+  /** Records in the log file since the last compaction (writer thread only). */
+  private int logged = 0;
+
+  /** The log, open for appending (writer thread only, null if it couldn't be opened). */
+  private FileChannel channel = null;
+
+  /** Writes queued events. */
+  private final Thread writer;
+
+  /**
+   * Constructor. Reads the log so the counts are up to date, and starts the writer thread.
+   *
+   * @param file the log file.
+   */
+  public PlayHistory(final File file) {
+    this.file = file;
+    load();
+    this.writer = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+
+        writeLoop();
+      }
+    }, "play-history");
+    this.writer.setDaemon(true);
+    this.writer.setPriority(Thread.MIN_PRIORITY);
+    this.writer.start();
+  }
+
+  /**
+   * Records an event. Never blocks on the disk.
+   *
+   * @param type STARTED, FINISHED, SKIPPED, or SEEKED.
+   * @param entry the song.
+   * @param positionMillis the playback position.
+   */
+  public final synchronized void record(final byte type, final LibraryEntry entry, final int positionMillis) {
+
+    if (this.closed || entry == null) {
+      return;
+    }
+    final Event e = new Event(type, entry.getId(), System.currentTimeMillis(), positionMillis);
+    apply(e.type, e.id, e.time, 1L);
+    this.pending.add(e);
+    if (this.pending.size() >= MAX_BATCH) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Gets how many times a song has started playing.
+   *
+   * @param id the song's ID.
+   * @return the count.
+   */
+  public final long getPlays(final int id) {
+
+    return get(id, STARTED);
+  }
+
+  /**
+   * Gets how many times a song has played to the end.
+   *
+   * @param id the song's ID.
+   * @return the count.
+   */
+  public final long getFinishes(final int id) {
+
+    return get(id, FINISHED);
+  }
+
+  /**
+   * Gets how many times a song has been skipped.
+   *
+   * @param id the song's ID.
+   * @return the count.
+   */
+  public final long getSkips(final int id) {
+
+    return get(id, SKIPPED);
+  }
+
+  /**
+   * Gets when a song last started playing.
+   *
+   * @param id the song's ID.
+   * @return the time in milliseconds since the epoch, or 0 if it never has.
+   */
+  public final synchronized long getLastPlayed(final int id) {
+
+    final long[] c = this.counts.get(id);
+    return (c == null) ? 0L : c[0];
+  }
+
+  /**
+   * Gets a weigher for the shuffle that picks songs less the more often they get skipped.
+   *
+   * @return the weigher.
+   */
+  public final ShuffleEngine.Weigher skipWeigher() {
+
+    return new ShuffleEngine.Weigher() {
+
+      @Override
+      public double weight(final LibraryEntry entry) {
+
+        return 1.0D / (1.0D + getSkips(entry.getId()));
+      }
+    };
+  }
+
+  /**
+   * Writes everything still queued and stops the writer thread.
+   */
+  public final void close() {
+
+    synchronized (this) {
+      this.closed = true;
+      notifyAll();
+    }
+    try {
+      this.writer.join(FLUSH_INTERVAL_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets one count for a song.
+   *
+   * @param id the song's ID.
+   * @param type the event type.
+   * @return the count.
+   */
+  private final synchronized long get(final int id, final byte type) {
+
+    final long[] c = this.counts.get(id);
+    return (c == null) ? 0L : c[type];
+  }
+
+  /**
+   * Adds to a song's counts (caller holds the lock, or is still constructing).
+   *
+   * @param type the event type.
+   * @param id the song's ID.
+   * @param time when it happened.
+   * @param n how many events.
+   */
+  private final void apply(final byte type, final int id, final long time, final long n) {
+
+    long[] c = this.counts.get(id);
+    if (c == null) {
+      c = new long[NUM_TYPES + 1];
+      this.counts.put(id, c);
+    }
+    c[type] += n;
+    if (type == STARTED && time > c[0]) {
+      c[0] = time;
+    }
+  }
+
+  /**
+   * Writes queued events every FLUSH_INTERVAL_MS (or sooner if a lot pile up) until closed.
+   */
+  private final void writeLoop() {
+
+    if (this.logged > COMPACT_THRESHOLD) {
+      compact();
+    }
+    openChannel();
+
+    boolean done = false;
+    while (!done) {
+      final List<Event> batch;
+      synchronized (this) {
+        if (!this.closed && this.pending.size() < MAX_BATCH) {
+          try {
+            wait(FLUSH_INTERVAL_MS);
+          } catch (InterruptedException e) {
+            this.closed = true;
+          }
+        }
+        done = this.closed;
+        batch = this.pending;
+        this.pending = new ArrayList<Event>();
+      }
+
+      if (!batch.isEmpty()) {
+        write(batch);
+      }
+      if (this.logged > COMPACT_THRESHOLD) {
+        compact();
+        openChannel();
+      }
+    }
+    LibraryIndex.closeQuietly(this.channel);
+  }
+
+  /**
+   * Opens the log for appending, writing the header if it's new.
+   */
+  private final void openChannel() {
+
+    LibraryIndex.closeQuietly(this.channel);
+    this.channel = null;
+    try {
+      final boolean isNew = !this.file.isFile() || this.file.length() < HEADER_SIZE;
+      this.channel = new FileOutputStream(this.file, !isNew).getChannel();
+      if (isNew) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        this.channel.write(header);
+      }
+    } catch (IOException e) {
+      System.err.println("Could not open play history: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Appends events to the log and syncs it to disk.
+   *
+   * @param batch the events.
+   */
+  private final void write(final List<Event> batch) {
+
+    if (this.channel == null) {
+      return;
+    }
+    final ByteBuffer buf = ByteBuffer.allocate(batch.size() * RECORD_SIZE);
+    for (final Event e : batch) {
+      putRecord(buf, e.type, e.id, e.time, e.value);
+    }
+    buf.flip();
+    try {
+      while (buf.hasRemaining()) {
+        this.channel.write(buf);
+      }
+      this.channel.force(false);
+      this.logged += batch.size();
+    } catch (IOException e) {
+      System.err.println("Could not write play history: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Rewrites the log as one total per song and event type.
+   */
+  private final void compact() {
+
+    // Everything queued is already in the counts, so it goes in with them rather than being written again
+    final ByteBuffer buf;
+    synchronized (this) {
+      this.pending = new ArrayList<Event>();
+      int records = 0;
+      for (final long[] c : this.counts.values()) {
+        for (int type = 1; type <= NUM_TYPES; type++) {
+          if (c[type] > 0L) {
+            records++;
+          }
+        }
+      }
+      buf = ByteBuffer.allocate(HEADER_SIZE + records * RECORD_SIZE);
+      buf.putInt(MAGIC).putInt(VERSION);
+      for (final Map.Entry<Integer, long[]> e : this.counts.entrySet()) {
+        final long[] c = e.getValue();
+        for (int type = 1; type <= NUM_TYPES; type++) {
+          if (c[type] > 0L) {
+            putRecord(buf, (byte) (TOTAL + type), e.getKey(), c[0], (int) Math.min(c[type], Integer.MAX_VALUE));
+          }
+        }
+      }
+    }
+    buf.flip();
+
+    LibraryIndex.closeQuietly(this.channel);
+    this.channel = null;
+    final File tmpFile = new File(this.file.getPath() + ".tmp");
+    FileChannel out = null;
+    try {
+      out = new FileOutputStream(tmpFile).getChannel();
+      while (buf.hasRemaining()) {
+        out.write(buf);
+      }
+      out.force(false);
+      out.close();
+      out = null;
+
+      if (!tmpFile.renameTo(this.file)) {
+        this.file.delete();
+        if (!tmpFile.renameTo(this.file)) {
+          System.err.println("Could not compact play history!");
+          return;
+        }
+      }
+      this.logged = 0;
+    } catch (IOException e) {
+      System.err.println("Could not compact play history: " + e.getMessage());
+    } finally {
+      LibraryIndex.closeQuietly(out);
+      tmpFile.delete();
+    }
+  }
+
+  /**
+   * Reads the log into the counts. A record cut short by a crash is cut off, so new records line up again. A log that
+   * isn't ours (or is from another version) is moved aside to a ".bad" file, and a new one is started.
+   */
+  private final void load() {
+
+    if (!this.file.isFile()) {
+      return;
+    }
+
+    boolean unreadable = false;
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(this.file, "rw");
+      final ByteBuffer buf = ByteBuffer.allocate((int) raf.length());
+      while (buf.hasRemaining() && raf.getChannel().read(buf) >= 0) {
+        // Keep reading
+      }
+      buf.flip();
+      if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+        unreadable = true;
+        return;
+      }
+
+      while (buf.remaining() >= RECORD_SIZE) {
+        final int start = buf.position();
+        final byte type = buf.get();
+        final int id = buf.getInt();
+        final long time = buf.getLong();
+        final int value = buf.getInt();
+        if (type >= STARTED && type <= NUM_TYPES) {
+          apply(type, id, time, 1L);
+        } else if (type > TOTAL && type <= TOTAL + NUM_TYPES && value >= 0) {
+          apply((byte) (type - TOTAL), id, time, value);
+        } else {
+          buf.position(start);
+          break;
+        }
+        this.logged++;
+      }
+      if (buf.hasRemaining()) {
+        System.err.println("Play history has a damaged tail, dropping " + buf.remaining() + " bytes.");
+        raf.setLength(buf.position());
+      }
+    } catch (IOException e) {
+      System.err.println("Could not read play history: " + e.getMessage());
+    } finally {
+      LibraryIndex.closeQuietly(raf);
+      if (unreadable) {
+        moveAside();
+      }
+    }
+  }
+
+  /**
+   * Renames an unreadable log to a ".bad" file (replacing any older one), so it isn't lost and a new log can start.
+   */
+  private final void moveAside() {
+
+    final File badFile = new File(this.file.getPath() + ".bad");
+    if (!this.file.renameTo(badFile)) {
+      badFile.delete();
+      if (!this.file.renameTo(badFile)) {
+        System.err.println("Play history is unreadable and could not be moved aside!");
+        return;
+      }
+    }
+    System.err.println("Play history is unreadable, moved it to " + badFile.getName() + " and starting over.");
+  }
+
+  /**
+   * Puts one record in a buffer.
+   */
+  private static final void putRecord(final ByteBuffer buf, final byte type, final int id, final long time,
+      final int value) {
+
+    buf.put(type).putInt(id).putLong(time).putInt(value);
+  }
+
+  @Override
+  public synchronized String toString() {
+
+    final long[] totals = new long[NUM_TYPES + 1];
+    for (final long[] c : this.counts.values()) {
+      for (int type = 1; type <= NUM_TYPES; type++) {
+        totals[type] += c[type];
+      }
+    }
+    return String.format("Play history: %d songs, %d plays, %d finished, %d skipped, %d seeks", this.counts.size(),
+        totals[STARTED], totals[FINISHED], totals[SKIPPED], totals[SEEKED]);
+  }
+}
@@ -48,6 +48,13 @@ public class PlayerFrame extends JFrame {
     repaint();
   }
   
+  /**
+   * Starts drawing the player. Call once the frame is visible.
+   */
+  public void startRendering() {
+    this.songPanel.startRendering();
+  }
+  
   /**
    * Closes and releases everything.
    */
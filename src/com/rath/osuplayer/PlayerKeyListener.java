@@ -47,17 +47,17 @@ public class PlayerKeyListener implements KeyListener {
     // Left arrow = back
     if (evt.getKeyCode() == KeyEvent.VK_LEFT) {
       if (evt.isShiftDown()) {
-        this.player.cue(this.player.position() - 5000);
+        this.songPanel.seek(-5000);
       } else {
-        this.player.cue(this.player.position() - 1000);
+        this.songPanel.seek(-1000);
       }
 
       // Right arrow = forward
     } else if (evt.getKeyCode() == KeyEvent.VK_RIGHT) {
       if (evt.isShiftDown()) {
-        this.player.cue(this.player.position() + 5000);
+        this.songPanel.seek(5000);
       } else {
-        this.player.cue(this.player.position() + 1000);
+        this.songPanel.seek(1000);
       }
 
       // ESC = Close
@@ -69,6 +69,10 @@ public class PlayerKeyListener implements KeyListener {
       this.songPanel.newSong();
     } else if (evt.getKeyCode() == KeyEvent.VK_SPACE) {
       this.songPanel.togglePause();
+
+      // F3 = metrics overlay
+    } else if (evt.getKeyCode() == KeyEvent.VK_F3) {
+      this.songPanel.toggleOverlay();
     }
   }
 
@@ -0,0 +1,304 @@
+package com.rath.osuplayer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The player's runtime metrics in one place: frame times, song switch latency by stage, decode times, cache hit rates,
+ * heap use, and audio underruns. Nothing is recorded here; the numbers are read on demand from the statistics the
+ * player already keeps (FrameStats, SongLoader, the caches, and UnderrunMeter), so registering this costs the render
+ * path nothing. Published over JMX, and drawn by the debug overlay (F3).
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class PlayerMetrics implements PlayerMetricsMBean {
+
+  /** Name the MBean is registered under. */
+  public static final String OBJECT_NAME = "com.rath.osuplayer:type=PlayerMetrics";
+
+  /** Microseconds in a millisecond. */
+  private static final double MICROS_PER_MS = 1000.0D;
+
+  /** Loads songs (and times each stage). */
+  private final SongLoader loader;
+
+  /** Scaled song backgrounds. */
+  private final BackgroundCache bgCache;
+
+  /** Precomputed spectrograms (null if off). */
+  private final SpectrogramCache spectrograms;
+
+  /** Times the playing song's audio buffers. */
+  private final UnderrunMeter underruns;
+
+  /** Time from asking for a song to it playing. */
+  private final LatencyStats switchStats = new LatencyStats("Song switch");
+
+  /** Heap usage. */
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+  /** Frame times of whatever is drawing the player right now. */
+  private volatile FrameStats frames = new FrameStats();
+
+  /** The name this was registered under, or null if it isn't. */
+  private ObjectName registered = null;
+
+  /**
+   * Constructor.
+   *
+   * @param loader loads songs.
+   * @param bgCache scaled song backgrounds.
+   * @param spectrograms precomputed spectrograms (may be null).
+   * @param underruns times the playing song's audio buffers.
+   */
+  public PlayerMetrics(final SongLoader loader, final BackgroundCache bgCache, final SpectrogramCache spectrograms,
+      final UnderrunMeter underruns) {
+    this.loader = loader;
+    this.bgCache = bgCache;
+    this.spectrograms = spectrograms;
+    this.underruns = underruns;
+  }
+
+  /**
+   * Publishes the metrics over JMX. Failing to is not fatal.
+   */
+  public final synchronized void register() {
+
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      this.registered = name;
+    } catch (JMException e) {
+      System.err.println("Could not register metrics MBean: " + e);
+    }
+  }
+
+  /**
+   * Takes the metrics off JMX.
+   */
+  public final synchronized void unregister() {
+
+    if (this.registered == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registered);
+    } catch (JMException e) {
+      System.err.println("Could not unregister metrics MBean: " + e);
+    }
+    this.registered = null;
+  }
+
+  /**
+   * Sets where frame times come from (the render thread's statistics once active rendering starts).
+   *
+   * @param stats the frame statistics.
+   */
+  public final void setFrameStats(final FrameStats stats) {
+
+    this.frames = stats;
+  }
+
+  public final FrameStats getFrameStats() {
+
+    return this.frames;
+  }
+
+  /**
+   * Records a finished song switch.
+   *
+   * @param nanos time from asking for the song to it playing.
+   */
+  public final void recordSwitch(final long nanos) {
+
+    this.switchStats.record(nanos);
+  }
+
+  @Override
+  public long getFramesPresented() {
+
+    return this.frames.getFrames();
+  }
+
+  @Override
+  public long getFramesDropped() {
+
+    return this.frames.getDropped();
+  }
+
+  @Override
+  public double getFrameMeanMillis() {
+
+    return this.frames.getMeanMillis();
+  }
+
+  @Override
+  public int getFrameP50Millis() {
+
+    return this.frames.getPercentileMillis(0.5D);
+  }
+
+  @Override
+  public int getFrameP95Millis() {
+
+    return this.frames.getPercentileMillis(0.95D);
+  }
+
+  @Override
+  public int getFrameP99Millis() {
+
+    return this.frames.getPercentileMillis(0.99D);
+  }
+
+  @Override
+  public double getFrameMaxMillis() {
+
+    return this.frames.getMaxMillis();
+  }
+
+  @Override
+  public long[] getFrameHistogram() {
+
+    return this.frames.getHistogram();
+  }
+
+  @Override
+  public long getSongSwitches() {
+
+    return this.switchStats.getCount();
+  }
+
+  @Override
+  public double getSwitchMeanMillis() {
+
+    return this.switchStats.getMeanMicros() / MICROS_PER_MS;
+  }
+
+  @Override
+  public double getSwitchP95Millis() {
+
+    return p95Millis(this.switchStats);
+  }
+
+  @Override
+  public double getSelectMeanMillis() {
+
+    return this.loader.getSelectStats().getMeanMicros() / MICROS_PER_MS;
+  }
+
+  @Override
+  public double getSelectP95Millis() {
+
+    return p95Millis(this.loader.getSelectStats());
+  }
+
+  @Override
+  public double getAudioDecodeMeanMillis() {
+
+    return this.loader.getAudioStats().getMeanMicros() / MICROS_PER_MS;
+  }
+
+  @Override
+  public double getAudioDecodeP95Millis() {
+
+    return p95Millis(this.loader.getAudioStats());
+  }
+
+  @Override
+  public double getImageDecodeMeanMillis() {
+
+    return this.loader.getImageStats().getMeanMicros() / MICROS_PER_MS;
+  }
+
+  @Override
+  public double getImageDecodeP95Millis() {
+
+    return p95Millis(this.loader.getImageStats());
+  }
+
+  @Override
+  public long getLoadsCancelled() {
+
+    return this.loader.getCancelled();
+  }
+
+  @Override
+  public double getBackgroundCacheHitRate() {
+
+    return this.bgCache.getHitRate();
+  }
+
+  @Override
+  public double getSpectrogramCacheHitRate() {
+
+    return (this.spectrograms != null) ? this.spectrograms.getHitRate() : -1.0D;
+  }
+
+  @Override
+  public long getHeapUsedBytes() {
+
+    return this.memory.getHeapMemoryUsage().getUsed();
+  }
+
+  @Override
+  public long getHeapMaxBytes() {
+
+    return this.memory.getHeapMemoryUsage().getMax();
+  }
+
+  @Override
+  public int getAudioUnderruns() {
+
+    return this.underruns.getUnderruns();
+  }
+
+  @Override
+  public String[] getSummary() {
+
+    final FrameStats f = this.frames;
+    final MemoryUsage heap = this.memory.getHeapMemoryUsage();
+    return new String[] {
+        String.format("Frames   %d drawn, %d dropped, p50 %dms, p95 %dms, p99 %dms, max %.1fms", f.getFrames(),
+            f.getDropped(), f.getPercentileMillis(0.5D), f.getPercentileMillis(0.95D), f.getPercentileMillis(0.99D),
+            f.getMaxMillis()),
+        String.format("Switch   %d, mean %.1fms, p95 %.1fms (%d cancelled)", getSongSwitches(), getSwitchMeanMillis(),
+            getSwitchP95Millis(), getLoadsCancelled()),
+        String.format("  select mean %.1fms, p95 %.1fms", getSelectMeanMillis(), getSelectP95Millis()),
+        String.format("  audio  mean %.1fms, p95 %.1fms", getAudioDecodeMeanMillis(), getAudioDecodeP95Millis()),
+        String.format("  image  mean %.1fms, p95 %.1fms", getImageDecodeMeanMillis(), getImageDecodeP95Millis()),
+        String.format("Caches   backgrounds %.0f%%, spectrograms %s", getBackgroundCacheHitRate() * 100.0D,
+            (this.spectrograms != null) ? String.format("%.0f%%", getSpectrogramCacheHitRate() * 100.0D) : "off"),
+        String.format("Heap     %.0fMB of %.0fMB", heap.getUsed() / 1048576.0D, heap.getMax() / 1048576.0D),
+        String.format("Audio    %d underruns", getAudioUnderruns()) };
+  }
+
+  /**
+   * Gets a 95th percentile.
+   *
+   * @param stats the latencies.
+   * @return the 95th percentile, in milliseconds.
+   */
+  private static final double p95Millis(final LatencyStats stats) {
+
+    return stats.getPercentileMicros(0.95D) / MICROS_PER_MS;
+  }
+
+  @Override
+  public String toString() {
+
+    final StringBuilder sb = new StringBuilder("Metrics:\n");
+    for (final String line : getSummary()) {
+      sb.append("  ").append(line).append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,82 @@
+package com.rath.osuplayer;
+
+/**
+ * The player's runtime metrics, as seen over JMX (e.g. in jconsole under com.rath.osuplayer). Times are in
+ * milliseconds.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public interface PlayerMetricsMBean {
+
+  /** Frames drawn. */
+  long getFramesPresented();
+
+  /** Frames that missed their deadline. */
+  long getFramesDropped();
+
+  /** Mean time between frames. */
+  double getFrameMeanMillis();
+
+  /** Median time between frames. */
+  int getFrameP50Millis();
+
+  /** 95th percentile time between frames. */
+  int getFrameP95Millis();
+
+  /** 99th percentile time between frames. */
+  int getFrameP99Millis();
+
+  /** Longest time between frames. */
+  double getFrameMaxMillis();
+
+  /** Frame counts, where index i holds frames that took i to i+1 milliseconds. */
+  long[] getFrameHistogram();
+
+  /** Song switches (N, search, or the end of a song) that completed. */
+  long getSongSwitches();
+
+  /** Mean time from asking for a song to it playing. */
+  double getSwitchMeanMillis();
+
+  /** 95th percentile time from asking for a song to it playing. */
+  double getSwitchP95Millis();
+
+  /** Mean time spent picking a song, per switch. */
+  double getSelectMeanMillis();
+
+  /** 95th percentile time spent picking a song, per switch. */
+  double getSelectP95Millis();
+
+  /** Mean time spent opening audio, per switch. */
+  double getAudioDecodeMeanMillis();
+
+  /** 95th percentile time spent opening audio, per switch. */
+  double getAudioDecodeP95Millis();
+
+  /** Mean time spent decoding and scaling backgrounds, per switch. */
+  double getImageDecodeMeanMillis();
+
+  /** 95th percentile time spent decoding and scaling backgrounds, per switch. */
+  double getImageDecodeP95Millis();
+
+  /** Song loads dropped because a newer one was asked for first. */
+  long getLoadsCancelled();
+
+  /** Background cache hit rate, from 0 to 1. */
+  double getBackgroundCacheHitRate();
+
+  /** Spectrogram cache hit rate, from 0 to 1 (-1 when spectrograms are off). */
+  double getSpectrogramCacheHitRate();
+
+  /** Heap in use, in bytes. */
+  long getHeapUsedBytes();
+
+  /** Most heap the JVM will use, in bytes. */
+  long getHeapMaxBytes();
+
+  /** Audio buffers that arrived late. */
+  int getAudioUnderruns();
+
+  /** Every metric, one line each, as shown by the overlay. */
+  String[] getSummary();
+}
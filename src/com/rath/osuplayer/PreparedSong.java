@@ -0,0 +1,209 @@
+
+package com.rath.osuplayer;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import ddf.minim.AudioPlayer;
+import ddf.minim.Minim;
+
+/**
+ * A song that is fully loaded and ready to be swapped in: its audio is open, and its background is decoded, scaled,
+ * and given a bar color (from the library's palettes, worked out and kept there the first time). Loading is split
+ * into stages (openAudio(), loadBackground(), then assemble()) so a load that is no longer wanted can be stopped
+ * between them.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class PreparedSong {
+
+  /** Audio buffer size for every player. */
+  static final int AUDIO_BUFFER_SIZE = 2048;
+
+  /** The Minim object the audio was opened with. */
+  private final Minim minim;
+
+  /** The library entry the song was loaded from. */
+  private final LibraryEntry entry;
+
+  /** Song metadata (see SongPanel.metadata). */
+  private final String[] metadata;
+
+  /** The opened (but not playing) audio. */
+  private final AudioPlayer audioPlayer;
+
+  /** The background, scaled to the screen. */
+  private final BufferedImage background;
+
+  /** The spectrum bar color for this background. */
+  private final Color barColor;
+
+  /**
+   * Default constructor.
+   *
+   * @param minim the Minim object the audio was opened with.
+   * @param entry the library entry.
+   * @param metadata song metadata.
+   * @param audioPlayer the opened audio.
+   * @param background the scaled background.
+   * @param barColor the spectrum bar color.
+   */
+  private PreparedSong(final Minim minim, final LibraryEntry entry, final String[] metadata,
+      final AudioPlayer audioPlayer, final BufferedImage background, final Color barColor) {
+    this.minim = minim;
+    this.entry = entry;
+    this.metadata = metadata;
+    this.audioPlayer = audioPlayer;
+    this.background = background;
+    this.barColor = barColor;
+  }
+
+  /**
+   * Loads everything a song needs before it can be shown. This does disk I/O and image decoding, so it should not be
+   * called on the EDT if it can be helped.
+   *
+   * @param minim the Minim object to open the audio with.
+   * @param bgCache where backgrounds are cached.
+   * @param library where background palettes are kept.
+   * @param entry the song.
+   * @param w the screen width.
+   * @param h the screen height.
+   * @return the PreparedSong, or null if its audio couldn't be opened.
+   */
+  public static final PreparedSong prepare(final Minim minim, final BackgroundCache bgCache,
+      final LibraryIndex library, final LibraryEntry entry, final int w, final int h) {
+
+    final String[] meta = entry.toMetadata();
+    final AudioPlayer player = openAudio(minim, meta);
+    if (player == null) {
+      return null;
+    }
+    return assemble(minim, library, entry, meta, player, loadBackground(bgCache, meta, w, h));
+  }
+
+  /**
+   * Opens a song's audio.
+   *
+   * @param minim the Minim object to open the audio with.
+   * @param meta the song's metadata.
+   * @return the opened (but not playing) player, or null if the audio couldn't be opened.
+   */
+  static final AudioPlayer openAudio(final Minim minim, final String[] meta) {
+
+    synchronized (minim) {
+      return minim.loadFile(meta[0] + "/" + meta[2], AUDIO_BUFFER_SIZE);
+    }
+  }
+
+  /**
+   * Gets a song's background, scaled to the screen.
+   *
+   * @param bgCache where backgrounds are cached.
+   * @param meta the song's metadata.
+   * @param w the screen width.
+   * @param h the screen height.
+   * @return the background (plain black if it couldn't be read).
+   */
+  static final BufferedImage loadBackground(final BackgroundCache bgCache, final String[] meta, final int w,
+      final int h) {
+
+    final String filePath = meta[0] + "/";
+    BufferedImage bg = (meta[1] != null) ? bgCache.get(new File(filePath + meta[1]), w, h) : null;
+    if (bg == null) {
+      System.err.println("IOE@" + filePath + meta[1]);
+      bg = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+    }
+    return bg;
+  }
+
+  /**
+   * Puts a song together from its loaded parts.
+   *
+   * @param minim the Minim object the audio was opened with.
+   * @param library where background palettes are kept.
+   * @param entry the song.
+   * @param meta the song's metadata.
+   * @param player the opened audio.
+   * @param bg the scaled background.
+   * @return the PreparedSong.
+   */
+  static final PreparedSong assemble(final Minim minim, final LibraryIndex library, final LibraryEntry entry,
+      final String[] meta, final AudioPlayer player, final BufferedImage bg) {
+
+    return new PreparedSong(minim, entry, meta, player, bg, barColor(library, entry, bg));
+  }
+
+  /**
+   * Gets the spectrum bar color for a song's background. The background's dominant color is looked up in the library,
+   * and only worked out (and kept) if it isn't there yet.
+   *
+   * @param library where background palettes are kept.
+   * @param entry the song.
+   * @param bg the scaled background.
+   * @return the bar color.
+   */
+  static final Color barColor(final LibraryIndex library, final LibraryEntry entry, final BufferedImage bg) {
+
+    int dominant = library.getPalette(entry);
+    if (dominant == 0) {
+      dominant = PaletteExtractor.dominant(bg);
+
+      // Don't remember the stand-in for a background that couldn't be read; it may be readable next time
+      if (bg.getType() != BufferedImage.TYPE_BYTE_BINARY) {
+        library.putPalette(entry, dominant);
+      }
+    }
+    return PaletteExtractor.barColor(dominant);
+  }
+
+  /**
+   * Releases the audio of a song that will never be played.
+   */
+  public final void discard() {
+
+    closePlayer(this.minim, this.audioPlayer);
+  }
+
+  /**
+   * Closes an AudioPlayer. Minim keeps its players in an unsynchronized list, so opening and closing them from
+   * different threads has to go through the Minim object's lock.
+   *
+   * @param minim the Minim object the audio was opened with.
+   * @param player the player to close (may be null).
+   */
+  public static final void closePlayer(final Minim minim, final AudioPlayer player) {
+
+    if (player == null) {
+      return;
+    }
+    synchronized (minim) {
+      player.close();
+    }
+  }
+
+  public final LibraryEntry getEntry() {
+
+    return this.entry;
+  }
+
+  public final String[] getMetadata() {
+
+    return this.metadata;
+  }
+
+  public final AudioPlayer getAudioPlayer() {
+
+    return this.audioPlayer;
+  }
+
+  public final BufferedImage getBackground() {
+
+    return this.background;
+  }
+
+  public final Color getBarColor() {
+
+    return this.barColor;
+  }
+}
@@ -0,0 +1,234 @@
+package com.rath.osuplayer;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs library searches for the search field on a background thread, so typing never blocks the EDT. Keystrokes are
+ * debounced, and a newer query cancels whatever older one is still waiting or running. Each query reports back twice:
+ * first a quick page of whatever matches turn up first, then the full ranking.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SearchScheduler {
+
+  /** How long to wait for another keystroke before searching, in milliseconds. */
+  public static final long DEBOUNCE_MS = 40L;
+
+  /**
+   * Receives search results, on the EDT. Results for a stale query are never delivered.
+   */
+  public interface Listener {
+
+    /**
+     * Called with results for the latest query.
+     *
+     * @param query the query.
+     * @param results matching entries, best first.
+     * @param complete false for the quick first page, true once the ranking is final.
+     */
+    void searchResults(String query, List<LibraryEntry> results, boolean complete);
+  }
+
+  /** The library being searched. */
+  private final LibraryIndex library;
+
+  /** Where results go. */
+  private final Listener listener;
+
+  /** Most results per query. */
+  private final int limit;
+
+  /** Single worker thread, so only one query runs at a time. */
+  private final ScheduledExecutorService worker;
+
+  /** The latest query's number; results for any other number are stale. Only touched on the EDT. */
+  private long generation = 0L;
+
+  /** The latest query, waiting or running. */
+  private Future<?> pending = null;
+
+  /** Time from keystroke to the first results. */
+  private final LatencyStats firstPageStats = new LatencyStats("Search first page");
+
+  /** Time from keystroke to the final results. */
+  private final LatencyStats completeStats = new LatencyStats("Search complete");
+
+  /** Time spent actually searching, per query. */
+  private final LatencyStats queryStats = new LatencyStats("Search query");
+
+  /** Queries dropped because a newer one came in first. */
+  private long cancelled = 0L;
+
+  /**
+   * Constructor.
+   *
+   * @param library the library to search.
+   * @param limit most results per query.
+   * @param listener where results go.
+   */
+  public SearchScheduler(final LibraryIndex library, final int limit, final Listener listener) {
+    this.library = library;
+    this.limit = limit;
+    this.listener = listener;
+    this.worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+
+        final Thread t = new Thread(r, "search");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Builds the library's search index on the worker thread ahead of the first query, so typing doesn't wait for it.
+   */
+  public final void prepare() {
+
+    this.worker.submit(new Runnable() {
+
+      @Override
+      public void run() {
+
+        library.getSearchIndex();
+      }
+    });
+  }
+
+  /**
+   * Searches for a query once typing pauses, cancelling the previous query. Must be called on the EDT.
+   *
+   * @param query what is in the search field.
+   */
+  public final void submit(final String query) {
+
+    final long submitted = System.nanoTime();
+    final long gen = ++this.generation;
+    if (this.pending != null && !this.pending.isDone()) {
+      this.pending.cancel(true);
+      synchronized (this) {
+        this.cancelled++;
+      }
+    }
+
+    this.pending = this.worker.schedule(new Runnable() {
+
+      @Override
+      public void run() {
+
+        search(gen, query, submitted);
+      }
+    }, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs a query on the worker thread.
+   *
+   * @param gen the query's number.
+   * @param query the query.
+   * @param submitted when the query was submitted, from System.nanoTime().
+   */
+  private final void search(final long gen, final String query, final long submitted) {
+
+    final SongSearchIndex index = this.library.getSearchIndex();
+    final long start = System.nanoTime();
+
+    // Quick first page; if it didn't fill up, there is nothing left to rank
+    final List<LibraryEntry> firstPage = index.search(query, this.limit, this.limit);
+    if (firstPage == null) {
+      return;
+    }
+    final boolean done = firstPage.size() < this.limit;
+    if (done) {
+      this.queryStats.record(System.nanoTime() - start);
+    }
+    deliver(gen, query, firstPage, true, done, submitted);
+    if (done) {
+      return;
+    }
+
+    final List<LibraryEntry> results = index.search(query, this.limit);
+    if (results == null) {
+      return;
+    }
+    this.queryStats.record(System.nanoTime() - start);
+    deliver(gen, query, results, false, true, submitted);
+  }
+
+  /**
+   * Hands results to the listener on the EDT, unless a newer query has come in since.
+   *
+   * @param gen the query's number.
+   * @param query the query.
+   * @param results the results.
+   * @param first whether these are the query's first results.
+   * @param complete whether the ranking is final.
+   * @param submitted when the query was submitted, from System.nanoTime().
+   */
+  private final void deliver(final long gen, final String query, final List<LibraryEntry> results,
+      final boolean first, final boolean complete, final long submitted) {
+
+    SwingUtilities.invokeLater(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (gen != generation) {
+          return;
+        }
+        final long latency = System.nanoTime() - submitted;
+        if (first) {
+          firstPageStats.record(latency);
+        }
+        if (complete) {
+          completeStats.record(latency);
+        }
+        listener.searchResults(query, results, complete);
+      }
+    });
+  }
+
+  /**
+   * Stops searching.
+   */
+  public final void shutdown() {
+
+    this.worker.shutdownNow();
+  }
+
+  public final LatencyStats getFirstPageStats() {
+
+    return this.firstPageStats;
+  }
+
+  public final LatencyStats getCompleteStats() {
+
+    return this.completeStats;
+  }
+
+  public final LatencyStats getQueryStats() {
+
+    return this.queryStats;
+  }
+
+  public final synchronized long getCancelled() {
+
+    return this.cancelled;
+  }
+
+  @Override
+  public String toString() {
+
+    return this.firstPageStats + "\n" + this.completeStats + "\n" + this.queryStats + "\nSearches cancelled: "
+        + getCancelled();
+  }
+}
@@ -0,0 +1,610 @@
+package com.rath.osuplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Picks the next song to play from the library index. Every pick is constant time and never touches the disk; the
+ * only linear work is re-syncing when the library itself changes.
+ *
+ * Songs are tracked by their stable index IDs, so different songs that share a title are never mixed up. The shuffle
+ * state (the bag and the recently played songs) is saved between runs.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class ShuffleEngine {
+
+  /** Default shuffle state filename. */
+  public static final String DEFAULT_FILENAME = "osuplayer-shuffle.dat";
+
+  /** Identifies a shuffle state file ("OSHF"). */
+  private static final int MAGIC = 0x4F534846;
+
+  /** Version of the file format. */
+  private static final int VERSION = 1;
+
+  /** Most random picks to throw away for being recent before taking one anyway. */
+  private static final int MAX_REJECTS = 64;
+
+  /**
+   * How the next song is picked.
+   */
+  public enum Mode {
+
+    /** Plays a shuffled order of the whole library, then reshuffles. The order survives restarts. */
+    BAG,
+
+    /** Picks at random by weight, skipping recently played songs. */
+    WEIGHTED,
+
+    /** Picks uniformly from the songs that haven't played yet this round, until every song has. */
+    NO_REPEAT;
+
+    /**
+     * Reads a mode from its name.
+     *
+     * @param name the name ("bag", "weighted", or "norepeat"), may be null.
+     * @return the mode, or BAG if the name is unknown.
+     */
+    public static Mode parse(final String name) {
+
+      if (name != null) {
+        final String n = name.replace("_", "").replace("-", "").toUpperCase(Locale.ROOT);
+        for (final Mode m : values()) {
+          if (m.name().replace("_", "").equals(n)) {
+            return m;
+          }
+        }
+        System.err.println("Unknown shuffle mode \"" + name + "\", using " + BAG + ".");
+      }
+      return BAG;
+    }
+  }
+
+  /**
+   * Gives each song a weight for WEIGHTED mode.
+   */
+  public interface Weigher {
+
+    /**
+     * Gets a song's weight.
+     *
+     * @param entry the song.
+     * @return how likely it is to be picked, relative to the others (0 or more).
+     */
+    double weight(LibraryEntry entry);
+  }
+
+  /** Gives every song the same weight. */
+  public static final Weigher UNIFORM = new Weigher() {
+
+    @Override
+    public double weight(final LibraryEntry entry) {
+
+      return 1.0D;
+    }
+  };
+
+  /** How songs are picked. */
+  private final Mode mode;
+
+  /** How many recently played songs WEIGHTED mode skips. */
+  private final int recentCount;
+
+  /** Where the state is saved (null to not save it). */
+  private final File stateFile;
+
+  /** The random number generator. */
+  private final Random rand;
+
+  /** Song weights for WEIGHTED mode. */
+  private Weigher weigher = UNIFORM;
+
+  /** The entries the state below was built for. */
+  private LibraryEntry[] entries = new LibraryEntry[0];
+
+  /** Position in entries of each ID. */
+  private Map<Integer, Integer> posById = new HashMap<Integer, Integer>();
+
+  /**
+   * Bag order, as positions in entries. Everything before cursor has played this round. In BAG mode the rest is
+   * already shuffled; in NO_REPEAT mode it's drawn from at random.
+   */
+  private int[] order = new int[0];
+
+  /** Position in order of the next song. */
+  private int cursor = 0;
+
+  /** Recently played songs, as positions in entries, oldest first from recentHead. */
+  private int[] recent;
+
+  /** Number of songs in recent. */
+  private int recentSize = 0;
+
+  /** Index of the oldest song in recent. */
+  private int recentHead = 0;
+
+  /** Whether each song (by position in entries) is in recent. */
+  private boolean[] isRecent = new boolean[0];
+
+  /** Alias table probabilities for WEIGHTED mode (null until needed). */
+  private double[] aliasProb = null;
+
+  /** Alias table aliases for WEIGHTED mode. */
+  private int[] alias = null;
+
+  /** IDs loaded from the state file, applied on the first sync (null once applied). */
+  private int[] savedOrder = null;
+
+  /** Cursor loaded from the state file. */
+  private int savedCursor = 0;
+
+  /** Recent IDs loaded from the state file, oldest first. */
+  private int[] savedRecent = null;
+
+  /**
+   * Constructor.
+   *
+   * @param mode how songs are picked.
+   * @param recentCount how many recently played songs to keep track of.
+   * @param stateFile where the state is saved between runs (may be null).
+   * @param rand the random number generator.
+   */
+  public ShuffleEngine(final Mode mode, final int recentCount, final File stateFile, final Random rand) {
+    this.mode = mode;
+    this.recentCount = recentCount;
+    this.stateFile = stateFile;
+    this.rand = rand;
+    this.recent = new int[Math.max(1, recentCount)];
+    if (stateFile != null) {
+      load();
+    }
+  }
+
+  /**
+   * Creates a shuffle engine in the mode set by -Dosuplayer.shuffle (bag, weighted, or norepeat; bag by default).
+   *
+   * @param recentCount how many recently played songs to keep track of.
+   * @param rand the random number generator.
+   * @return the ShuffleEngine.
+   */
+  public static final ShuffleEngine create(final int recentCount, final Random rand) {
+
+    return new ShuffleEngine(Mode.parse(System.getProperty("osuplayer.shuffle")), recentCount,
+        new File(DEFAULT_FILENAME), rand);
+  }
+
+  /**
+   * Sets the song weights for WEIGHTED mode.
+   *
+   * @param w the weigher.
+   */
+  public final synchronized void setWeigher(final Weigher w) {
+
+    this.weigher = w;
+    this.aliasProb = null;
+  }
+
+  /**
+   * Rebuilds the song weights before the next WEIGHTED pick, e.g. after the weigher's numbers changed.
+   */
+  public final synchronized void reweigh() {
+
+    this.aliasProb = null;
+  }
+
+  /**
+   * Picks the next song and counts it as played.
+   *
+   * @param library the library's current entries (from LibraryIndex.tracks()).
+   * @return the song, or null if the library is empty.
+   */
+  public final synchronized LibraryEntry next(final LibraryEntry[] library) {
+
+    sync(library);
+    final int n = this.entries.length;
+    if (n == 0) {
+      return null;
+    }
+
+    final int pos;
+    switch (this.mode) {
+      case WEIGHTED:
+        pos = pickWeighted();
+        break;
+      case NO_REPEAT:
+        pos = pickUnplayed();
+        break;
+      default:
+        pos = pickFromBag();
+        break;
+    }
+    markPlayed(pos);
+    return this.entries[pos];
+  }
+
+  /**
+   * Counts a song as played that wasn't picked by this engine (e.g. one chosen from search).
+   *
+   * @param library the library's current entries (from LibraryIndex.tracks()).
+   * @param entry the song.
+   */
+  public final synchronized void played(final LibraryEntry[] library, final LibraryEntry entry) {
+
+    sync(library);
+    final Integer pos = this.posById.get(entry.getId());
+    if (pos != null) {
+      markPlayed(pos);
+    }
+  }
+
+  public final Mode getMode() {
+
+    return this.mode;
+  }
+
+  /**
+   * Takes the next song in the bag, reshuffling once every song has played.
+   *
+   * @return the song's position.
+   */
+  private final int pickFromBag() {
+
+    if (this.cursor >= this.order.length) {
+      shuffle(this.order, 0);
+      this.cursor = 0;
+
+      // Songs from the end of the last round don't come right back at the start of this one
+      final int n = this.order.length;
+      final int window = Math.min(this.recentSize, n - this.recentSize);
+      for (int i = 0; i < window; i++) {
+        while (this.isRecent[this.order[i]]) {
+          swap(this.order, i, window + this.rand.nextInt(n - window));
+        }
+      }
+    }
+    return this.order[this.cursor++];
+  }
+
+  /**
+   * Draws a song at random from the ones that haven't played yet this round (one step of Fisher-Yates).
+   *
+   * @return the song's position.
+   */
+  private final int pickUnplayed() {
+
+    if (this.cursor >= this.order.length) {
+      this.cursor = 0;
+    }
+
+    // At the start of a round the end of the last one is back in play; skip those while there are others
+    final int left = this.order.length - this.cursor;
+    int r = this.cursor + this.rand.nextInt(left);
+    for (int i = 0; i < MAX_REJECTS && left > this.recentSize && this.isRecent[this.order[r]]; i++) {
+      r = this.cursor + this.rand.nextInt(left);
+    }
+    swap(this.order, this.cursor, r);
+    return this.order[this.cursor++];
+  }
+
+  /**
+   * Picks a song by weight (Walker's alias method), skipping recently played ones.
+   *
+   * @return the song's position.
+   */
+  private final int pickWeighted() {
+
+    if (this.aliasProb == null) {
+      buildAliasTable();
+    }
+
+    int pos = 0;
+    for (int i = 0; i < MAX_REJECTS; i++) {
+      final int col = this.rand.nextInt(this.aliasProb.length);
+      pos = (this.rand.nextDouble() < this.aliasProb[col]) ? col : this.alias[col];
+      if (!this.isRecent[pos]) {
+        break;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Builds the alias table from the song weights (Vose's method).
+   */
+  private final void buildAliasTable() {
+
+    final int n = this.entries.length;
+    final double[] scaled = new double[n];
+    double total = 0.0D;
+    for (int i = 0; i < n; i++) {
+      final double w = this.weigher.weight(this.entries[i]);
+      scaled[i] = (w > 0.0D) ? w : 0.0D;
+      total += scaled[i];
+    }
+    if (!(total > 0.0D)) {
+      Arrays.fill(scaled, 1.0D);
+      total = n;
+    }
+
+    // Split into columns below and above the average, then pair them up
+    final int[] small = new int[n];
+    final int[] large = new int[n];
+    int smallSize = 0;
+    int largeSize = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] *= n / total;
+      if (scaled[i] < 1.0D) {
+        small[smallSize++] = i;
+      } else {
+        large[largeSize++] = i;
+      }
+    }
+
+    this.aliasProb = new double[n];
+    this.alias = new int[n];
+    while (smallSize > 0 && largeSize > 0) {
+      final int s = small[--smallSize];
+      final int l = large[--largeSize];
+      this.aliasProb[s] = scaled[s];
+      this.alias[s] = l;
+      scaled[l] -= 1.0D - scaled[s];
+      if (scaled[l] < 1.0D) {
+        small[smallSize++] = l;
+      } else {
+        large[largeSize++] = l;
+      }
+    }
+    while (largeSize > 0) {
+      this.aliasProb[large[--largeSize]] = 1.0D;
+    }
+    while (smallSize > 0) {
+      this.aliasProb[small[--smallSize]] = 1.0D;
+    }
+  }
+
+  /**
+   * Adds a song to the recently played ring, dropping the oldest if it's full.
+   *
+   * @param pos the song's position.
+   */
+  private final void markPlayed(final int pos) {
+
+    // Never skip the whole library
+    final int capacity = Math.min(this.recentCount, this.entries.length - 1);
+    if (capacity <= 0 || this.isRecent[pos]) {
+      return;
+    }
+    while (this.recentSize >= capacity) {
+      this.isRecent[this.recent[this.recentHead]] = false;
+      this.recentHead = (this.recentHead + 1) % this.recent.length;
+      this.recentSize--;
+    }
+    this.recent[(this.recentHead + this.recentSize) % this.recent.length] = pos;
+    this.recentSize++;
+    this.isRecent[pos] = true;
+  }
+
+  /**
+   * Moves the state over to a new version of the library, keeping the bag's order and the recent songs that are
+   * still in it. New songs are shuffled into the part of the bag that hasn't played yet.
+   *
+   * @param library the library's current entries.
+   */
+  private final void sync(final LibraryEntry[] library) {
+
+    if (library == this.entries) {
+      return;
+    }
+
+    // Current state as IDs
+    final int[] oldOrder;
+    final int oldCursor;
+    final int[] oldRecent;
+    if (this.savedOrder != null) {
+      oldOrder = this.savedOrder;
+      oldCursor = this.savedCursor;
+      oldRecent = this.savedRecent;
+      this.savedOrder = null;
+      this.savedRecent = null;
+    } else {
+      oldOrder = toIds(this.order, this.order.length);
+      oldCursor = this.cursor;
+      oldRecent = new int[this.recentSize];
+      for (int i = 0; i < this.recentSize; i++) {
+        oldRecent[i] = this.entries[this.recent[(this.recentHead + i) % this.recent.length]].getId();
+      }
+    }
+
+    final int n = library.length;
+    final Map<Integer, Integer> posById = new HashMap<Integer, Integer>(n * 2);
+    for (int i = 0; i < n; i++) {
+      posById.put(library[i].getId(), i);
+    }
+
+    // Rebuild the bag: played songs first, then the rest in the same order, then new songs
+    final int[] newOrder = new int[n];
+    final boolean[] placed = new boolean[n];
+    int count = 0;
+    int newCursor = 0;
+    for (int i = 0; i < oldOrder.length; i++) {
+      final Integer pos = posById.get(oldOrder[i]);
+      if (pos != null && !placed[pos]) {
+        placed[pos] = true;
+        newOrder[count++] = pos;
+        if (i < oldCursor) {
+          newCursor = count;
+        }
+      }
+    }
+    final int firstNew = count;
+    for (int pos = 0; pos < n; pos++) {
+      if (!placed[pos]) {
+        newOrder[count++] = pos;
+      }
+    }
+
+    // Shuffle each new song into the unplayed part
+    for (int i = firstNew; i < n; i++) {
+      swap(newOrder, i, newCursor + this.rand.nextInt(i - newCursor + 1));
+    }
+
+    this.entries = library;
+    this.posById = posById;
+    this.order = newOrder;
+    this.cursor = newCursor;
+    this.isRecent = new boolean[n];
+    this.recentSize = 0;
+    this.recentHead = 0;
+    this.aliasProb = null;
+    for (final int id : oldRecent) {
+      final Integer pos = posById.get(id);
+      if (pos != null) {
+        markPlayed(pos);
+      }
+    }
+
+    // A bag that was never shuffled (first run) starts out shuffled
+    if (this.mode == Mode.BAG && oldOrder.length == 0) {
+      shuffle(this.order, 0);
+    }
+  }
+
+  /**
+   * Shuffles part of an array in place (Fisher-Yates).
+   *
+   * @param a the array.
+   * @param from first index to shuffle.
+   */
+  private final void shuffle(final int[] a, final int from) {
+
+    for (int i = a.length - 1; i > from; i--) {
+      swap(a, i, from + this.rand.nextInt(i - from + 1));
+    }
+  }
+
+  private static final void swap(final int[] a, final int i, final int j) {
+
+    final int tmp = a[i];
+    a[i] = a[j];
+    a[j] = tmp;
+  }
+
+  /**
+   * Converts positions in entries to IDs.
+   *
+   * @param positions the positions.
+   * @param len how many to convert.
+   * @return the IDs.
+   */
+  private final int[] toIds(final int[] positions, final int len) {
+
+    final int[] ids = new int[len];
+    for (int i = 0; i < len; i++) {
+      ids[i] = this.entries[positions[i]].getId();
+    }
+    return ids;
+  }
+
+  /**
+   * Saves the bag and the recently played songs.
+   */
+  public final synchronized void save() {
+
+    if (this.stateFile == null) {
+      return;
+    }
+
+    final int[] ids = (this.savedOrder != null) ? this.savedOrder : toIds(this.order, this.order.length);
+    final int cur = (this.savedOrder != null) ? this.savedCursor : this.cursor;
+    final int[] recentIds;
+    if (this.savedRecent != null) {
+      recentIds = this.savedRecent;
+    } else {
+      recentIds = new int[this.recentSize];
+      for (int i = 0; i < this.recentSize; i++) {
+        recentIds[i] = this.entries[this.recent[(this.recentHead + i) % this.recent.length]].getId();
+      }
+    }
+
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.stateFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(cur);
+      out.writeInt(ids.length);
+      for (final int id : ids) {
+        out.writeInt(id);
+      }
+      out.writeInt(recentIds.length);
+      for (final int id : recentIds) {
+        out.writeInt(id);
+      }
+    } catch (IOException e) {
+      System.err.println("Could not save shuffle state: " + e.getMessage());
+    } finally {
+      LibraryIndex.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Reads a count followed by that many IDs.
+   *
+   * @param in the stream.
+   * @return the IDs.
+   * @throws IOException if the stream can't be read or the count is impossible.
+   */
+  private final int[] readIds(final DataInputStream in) throws IOException {
+
+    final int count = in.readInt();
+    if (count < 0 || count > this.stateFile.length() / 4) {
+      throw new IOException("Corrupt shuffle state");
+    }
+    final int[] ids = new int[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = in.readInt();
+    }
+    return ids;
+  }
+
+  /**
+   * Loads the saved bag and recently played songs. They are matched up with the library on the first pick.
+   */
+  private final void load() {
+
+    if (!this.stateFile.isFile()) {
+      return;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.stateFile)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        System.err.println("Shuffle state is outdated, starting over.");
+        return;
+      }
+      final int cur = in.readInt();
+      final int[] ids = readIds(in);
+      final int[] recentIds = readIds(in);
+      this.savedCursor = cur;
+      this.savedOrder = ids;
+      this.savedRecent = recentIds;
+    } catch (IOException e) {
+      System.err.println("Could not read shuffle state, starting over.");
+    } finally {
+      LibraryIndex.closeQuietly(in);
+    }
+  }
+}
@@ -5,20 +5,20 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
-import java.awt.FontFormatException;
 import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.io.File;
-import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * This panel will handle searching and filtering beatmaps.
@@ -43,15 +43,18 @@ public class SongFilterPanel extends JPanel {
   /** Width of the magnifying glass icon. */
   private static final int MAG_WIDTH = 80;
 
-  /** The location and filename of the font. */
-  private static final String SEARCH_FONT_STRING = "res/fonts/JAPANSANS80.otf";
-
   /** Search font color. */
   private static final Color SEARCH_FONT_COLOR = new Color(220, 220, 220, 255);
 
   /** The size of the search font. */
   private static final float SEARCH_FONT_SIZE = 32F;
 
+  /** The size of the result font. */
+  private static final float RESULT_FONT_SIZE = 14F;
+
+  /** Width of the search result label. */
+  private static final int RESULT_WIDTH = 240;
+
   /** Reference to the parent panel. */
   private final SongPanel parent;
 
@@ -70,9 +73,18 @@ public class SongFilterPanel extends JPanel {
   /** The height of this panel. */
   private final int height;
 
+  /** Shows how many songs matched and the best match. */
+  private final JLabel resultLabel;
+
   /** Whether or not the search field has been changed. */
   private boolean searchFieldChanged = false;
 
+  /** Songs matching the search field, best first. */
+  private List<LibraryEntry> results = Collections.emptyList();
+
+  /** Runs searches off the EDT, or null until the panel is first shown. */
+  private SearchScheduler scheduler = null;
+
   /**
    * Default constructor.
    * 
@@ -83,17 +95,8 @@ public class SongFilterPanel extends JPanel {
 
     this.parent = sp;
 
-    try {
-      this.magImg = ImageIO.read(new File("res/img/mag.png"));
-      final File fontFile = new File(SEARCH_FONT_STRING);
-      this.searchFont = Font.createFont(Font.TRUETYPE_FONT, fontFile).deriveFont(SEARCH_FONT_SIZE);
-    }
-    catch (IOException e) {
-      System.err.println("Cannot read mag.png.");
-    }
-    catch (FontFormatException e) {
-      e.printStackTrace();
-    }
+    this.magImg = Assets.shared().getImage(Assets.MAG);
+    this.searchFont = Assets.shared().getFont(SEARCH_FONT_SIZE);
 
     // Calculation variables
     final Dimension pdim = this.parent.getPreferredSize();
@@ -119,7 +122,13 @@ public class SongFilterPanel extends JPanel {
     this.searchField.addKeyListener(new KeyListener() {
 
       @Override
-      public void keyPressed(KeyEvent arg0) {}
+      public void keyPressed(KeyEvent arg0) {
+
+        // Play the best match
+        if (arg0.getKeyCode() == KeyEvent.VK_ENTER && !results.isEmpty()) {
+          parent.playEntry(results.get(0));
+        }
+      }
 
       @Override
       public void keyReleased(KeyEvent arg0) {}
@@ -131,10 +140,27 @@ public class SongFilterPanel extends JPanel {
           searchFieldChanged = true;
           searchField.setText("");
         }
+      }
 
-        // TODO: Search library
+    });
+
+    // Search the library on every change to the text
+    this.searchField.getDocument().addDocumentListener(new DocumentListener() {
+
+      @Override
+      public void insertUpdate(DocumentEvent arg0) {
+
+        search();
       }
 
+      @Override
+      public void removeUpdate(DocumentEvent arg0) {
+
+        search();
+      }
+
+      @Override
+      public void changedUpdate(DocumentEvent arg0) {}
     });
 
     if (this.searchFont != null) {
@@ -144,9 +170,83 @@ public class SongFilterPanel extends JPanel {
     this.searchField.setForeground(SEARCH_FONT_COLOR);
     this.searchField.setText(DEFAULT_FIELD_TEXT);
     this.searchField.setOpaque(false);
-    this.searchField.setPreferredSize(new Dimension(((int) pdim.getWidth() >> 1) - MAG_WIDTH, FIELD_HEIGHT));
+    this.searchField.setPreferredSize(new Dimension(((int) pdim.getWidth() >> 1) - MAG_WIDTH - RESULT_WIDTH,
+        FIELD_HEIGHT));
     this.searchField.setBorder(BorderFactory.createEmptyBorder());
     add(this.searchField);
+
+    // Create result label
+    this.resultLabel = new JLabel();
+    if (this.searchFont != null) {
+      this.resultLabel.setFont(this.searchFont.deriveFont(RESULT_FONT_SIZE));
+    }
+    this.resultLabel.setForeground(SEARCH_FONT_COLOR);
+    this.resultLabel.setPreferredSize(new Dimension(RESULT_WIDTH, FIELD_HEIGHT));
+    add(this.resultLabel);
+  }
+
+  /**
+   * Starts the search thread and builds the search index the first time the panel is shown, so neither costs anything
+   * while the panel isn't on screen.
+   */
+  @Override
+  public void addNotify() {
+
+    super.addNotify();
+    if (this.scheduler == null) {
+      this.scheduler = new SearchScheduler(this.parent.getLibrary(), SongSearchIndex.DEFAULT_LIMIT,
+          new SearchScheduler.Listener() {
+
+            @Override
+            public void searchResults(final String query, final List<LibraryEntry> found, final boolean complete) {
+
+              showResults(query, found);
+            }
+          });
+      this.scheduler.prepare();
+    }
+  }
+
+  /**
+   * Searches the library in the background for the text in the search field.
+   */
+  private final void search() {
+
+    if (this.searchFieldChanged && this.scheduler != null) {
+      this.scheduler.submit(this.searchField.getText());
+    }
+  }
+
+  /**
+   * Shows how many songs matched a search, and the best match.
+   * 
+   * @param query the search.
+   * @param found the matching songs, best first.
+   */
+  private final void showResults(final String query, final List<LibraryEntry> found) {
+
+    this.results = found;
+    if (query.trim().length() == 0) {
+      this.resultLabel.setText("");
+    } else if (this.results.isEmpty()) {
+      this.resultLabel.setText("No matches");
+    } else {
+      final LibraryEntry best = this.results.get(0);
+      final String count = (this.results.size() < SongSearchIndex.DEFAULT_LIMIT) ? "" + this.results.size()
+          : this.results.size() + "+";
+      this.resultLabel.setText(count + ": " + best.getArtist() + " - " + best.getTitle());
+    }
+  }
+
+  /**
+   * Stops searching, and prints how long searches took.
+   */
+  public final void shutdown() {
+
+    if (this.scheduler != null) {
+      this.scheduler.shutdown();
+      System.out.println(this.scheduler);
+    }
   }
 
   /**
@@ -0,0 +1,421 @@
+package com.rath.osuplayer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+import ddf.minim.AudioPlayer;
+import ddf.minim.Minim;
+
+/**
+ * Loads the songs SongPanel switches to (N, the options button, search, or the end of a song) off the EDT, in stages:
+ * select a song, parse its metadata, open its audio, decode its background, then publish it to the EDT. Only the
+ * newest request is ever finished: a new request cancels the one before it, which stops at its next stage and releases
+ * whatever it had opened, so pressing N ten times in a row loads one song instead of ten. The prefetched song is only
+ * taken on the EDT once its request is known to be the newest, so a stale request leaves it for the next one.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SongLoader {
+
+  /** How many songs a request tries before giving up, when songs are picked and fail to load. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  /**
+   * Picks songs for requests that don't name one.
+   */
+  public interface Selector {
+
+    /**
+     * Picks the next song. Called on the loader thread.
+     *
+     * @return the song, or null if there is nothing to play.
+     */
+    LibraryEntry next();
+  }
+
+  /**
+   * Receives loaded songs, on the EDT. Songs for stale requests are never delivered.
+   */
+  public interface Listener {
+
+    /**
+     * Called when the latest request has loaded its song. The listener owns the song from then on.
+     *
+     * @param song the loaded song.
+     */
+    void songLoaded(PreparedSong song);
+
+    /**
+     * Called when the latest request couldn't load anything.
+     */
+    void songFailed();
+  }
+
+  /** The Minim object to open audio with. */
+  private final Minim minim;
+
+  /** Where backgrounds are cached. */
+  private final BackgroundCache bgCache;
+
+  /** Where background palettes are kept. */
+  private final LibraryIndex library;
+
+  /** The song queued up to play next. */
+  private final SongPrefetcher prefetcher;
+
+  /** Picks songs. */
+  private final Selector selector;
+
+  /** Where loaded songs go. */
+  private final Listener listener;
+
+  /** Screen width. */
+  private final int width;
+
+  /** Screen height. */
+  private final int height;
+
+  /** Single worker thread, so only one request runs at a time. */
+  private final ExecutorService worker;
+
+  /** The latest request's number; any other number is stale. Written on the EDT. */
+  private volatile long generation = 0L;
+
+  /** The latest request, waiting or running. Only touched on the EDT. */
+  private Future<?> pending = null;
+
+  /** Whether the running request is waiting on the prefetched song, and so mustn't be interrupted. */
+  private volatile boolean waitingOnPrefetch = false;
+
+  /** Time spent picking a song (or waiting for the prefetched one). */
+  private final LatencyStats selectStats = new LatencyStats("Load select");
+
+  /** Time spent opening audio. */
+  private final LatencyStats audioStats = new LatencyStats("Load audio");
+
+  /** Time spent decoding and scaling backgrounds. */
+  private final LatencyStats imageStats = new LatencyStats("Load image");
+
+  /** Time from a request to its song being handed to the EDT. */
+  private final LatencyStats totalStats = new LatencyStats("Load total");
+
+  /** Requests dropped because a newer one came in first. */
+  private long cancelled = 0L;
+
+  /**
+   * Constructor.
+   *
+   * @param minim the Minim object to open audio with.
+   * @param bgCache where backgrounds are cached.
+   * @param library where background palettes are kept.
+   * @param prefetcher the song queued up to play next.
+   * @param selector picks songs.
+   * @param w the screen width.
+   * @param h the screen height.
+   * @param listener where loaded songs go.
+   */
+  public SongLoader(final Minim minim, final BackgroundCache bgCache, final LibraryIndex library,
+      final SongPrefetcher prefetcher, final Selector selector, final int w, final int h, final Listener listener) {
+    this.minim = minim;
+    this.bgCache = bgCache;
+    this.library = library;
+    this.prefetcher = prefetcher;
+    this.selector = selector;
+    this.width = w;
+    this.height = h;
+    this.listener = listener;
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+
+        final Thread t = new Thread(r, "song-loader");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Loads the next song: the prefetched one if there is one, otherwise a newly picked one. Cancels the previous
+   * request. Must be called on the EDT.
+   */
+  public final void loadNext() {
+
+    submit(null);
+  }
+
+  /**
+   * Loads a specific song, cancelling the previous request. Must be called on the EDT.
+   *
+   * @param entry the song.
+   */
+  public final void load(final LibraryEntry entry) {
+
+    submit(entry);
+  }
+
+  /**
+   * Cancels any request in progress. Must be called on the EDT.
+   */
+  public final void cancel() {
+
+    this.generation++;
+    if (this.pending != null && !this.pending.isDone()) {
+      this.pending.cancel(!this.waitingOnPrefetch);
+      synchronized (this) {
+        this.cancelled++;
+      }
+    }
+    this.pending = null;
+  }
+
+  /**
+   * Starts a request, cancelling the previous one.
+   *
+   * @param entry the song, or null for the next one.
+   */
+  private final void submit(final LibraryEntry entry) {
+
+    final long submitted = System.nanoTime();
+    cancel();
+    final long gen = this.generation;
+    this.pending = this.worker.submit(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (entry == null && awaitPrefetched(gen)) {
+          publishPrefetched(gen, submitted);
+          return;
+        }
+        final PreparedSong song = load(gen, entry);
+        if (song != null) {
+          publish(gen, song, submitted);
+        } else if (!isStale(gen)) {
+          fail(gen);
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits on the worker thread for the prefetched song to finish loading. It is already loaded, so it skips every
+   * other stage, and it is left with the prefetcher until publishPrefetched() takes it.
+   *
+   * @param gen the request's number.
+   * @return true if the prefetched song is ready for this request, false if there is none or the request went stale.
+   */
+  private final boolean awaitPrefetched(final long gen) {
+
+    final long start = System.nanoTime();
+    this.waitingOnPrefetch = true;
+    final boolean ready;
+    try {
+      ready = this.prefetcher.awaitReady();
+    } finally {
+      this.waitingOnPrefetch = false;
+    }
+    if (ready) {
+      this.selectStats.record(System.nanoTime() - start);
+    }
+    return ready && !isStale(gen);
+  }
+
+  /**
+   * Runs a request's stages on the worker thread, for a song that wasn't prefetched.
+   *
+   * @param gen the request's number.
+   * @param requested the song, or null for the next one.
+   * @return the loaded song, or null if the request was cancelled or nothing could be loaded.
+   */
+  private final PreparedSong load(final long gen, final LibraryEntry requested) {
+
+    for (int attempt = 0; attempt < MAX_ATTEMPTS && !isStale(gen); attempt++) {
+      long start = System.nanoTime();
+      final LibraryEntry entry = (requested != null) ? requested : this.selector.next();
+      this.selectStats.record(System.nanoTime() - start);
+      if (entry == null || isStale(gen)) {
+        return null;
+      }
+
+      // Parse: the metadata comes from the library index, so all that's left is checking the audio is still there
+      final String[] meta = entry.toMetadata();
+      if (!new File(meta[0], meta[2]).isFile()) {
+        System.err.println("Missing audio for \"" + entry + "\", skipping it.");
+        if (requested != null) {
+          return null;
+        }
+        continue;
+      }
+
+      // Open audio
+      start = System.nanoTime();
+      final AudioPlayer player = PreparedSong.openAudio(this.minim, meta);
+      this.audioStats.record(System.nanoTime() - start);
+      if (player == null) {
+        System.err.println("Could not open audio for \"" + entry + "\".");
+        if (requested != null) {
+          return null;
+        }
+        continue;
+      }
+      if (isStale(gen)) {
+        PreparedSong.closePlayer(this.minim, player);
+        return null;
+      }
+
+      // Decode image
+      start = System.nanoTime();
+      final BufferedImage bg = PreparedSong.loadBackground(this.bgCache, meta, this.width, this.height);
+      final PreparedSong song = PreparedSong.assemble(this.minim, this.library, entry, meta, player, bg);
+      this.imageStats.record(System.nanoTime() - start);
+      return keepIfCurrent(gen, song);
+    }
+    return null;
+  }
+
+  /**
+   * Checks if a request has been replaced or cancelled.
+   *
+   * @param gen the request's number.
+   * @return true if it is no longer wanted.
+   */
+  private final boolean isStale(final long gen) {
+
+    return gen != this.generation || Thread.currentThread().isInterrupted();
+  }
+
+  /**
+   * Discards a loaded song if its request went stale while it was loading.
+   *
+   * @param gen the request's number.
+   * @param song the song.
+   * @return the song, or null if it was discarded.
+   */
+  private final PreparedSong keepIfCurrent(final long gen, final PreparedSong song) {
+
+    if (isStale(gen)) {
+      song.discard();
+      return null;
+    }
+    return song;
+  }
+
+  /**
+   * Hands a loaded song to the listener on the EDT, unless a newer request has come in since.
+   *
+   * @param gen the request's number.
+   * @param song the song.
+   * @param submitted when the request was made, from System.nanoTime().
+   */
+  private final void publish(final long gen, final PreparedSong song, final long submitted) {
+
+    SwingUtilities.invokeLater(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (gen != generation) {
+          song.discard();
+          return;
+        }
+        pending = null;
+        totalStats.record(System.nanoTime() - submitted);
+        listener.songLoaded(song);
+      }
+    });
+  }
+
+  /**
+   * Takes the prefetched song on the EDT and hands it to the listener, unless a newer request has come in since (which
+   * then gets the song instead). If something else took it first, a new request is made.
+   *
+   * @param gen the request's number.
+   * @param submitted when the request was made, from System.nanoTime().
+   */
+  private final void publishPrefetched(final long gen, final long submitted) {
+
+    SwingUtilities.invokeLater(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (gen != generation) {
+          return;
+        }
+        pending = null;
+        final PreparedSong song = prefetcher.takeIfReady();
+        if (song == null) {
+          loadNext();
+          return;
+        }
+        totalStats.record(System.nanoTime() - submitted);
+        listener.songLoaded(song);
+      }
+    });
+  }
+
+  /**
+   * Tells the listener on the EDT that a request failed, unless a newer request has come in since.
+   *
+   * @param gen the request's number.
+   */
+  private final void fail(final long gen) {
+
+    SwingUtilities.invokeLater(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (gen == generation) {
+          pending = null;
+          listener.songFailed();
+        }
+      }
+    });
+  }
+
+  /**
+   * Cancels any request in progress and stops the worker thread.
+   */
+  public final void shutdown() {
+
+    this.generation++;
+    this.worker.shutdownNow();
+  }
+
+  public final LatencyStats getSelectStats() {
+
+    return this.selectStats;
+  }
+
+  public final LatencyStats getAudioStats() {
+
+    return this.audioStats;
+  }
+
+  public final LatencyStats getImageStats() {
+
+    return this.imageStats;
+  }
+
+  public final synchronized long getCancelled() {
+
+    return this.cancelled;
+  }
+
+  @Override
+  public String toString() {
+
+    return this.selectStats + "\n" + this.audioStats + "\n" + this.imageStats + "\n" + this.totalStats
+        + "\nLoads cancelled: " + getCancelled();
+  }
+}
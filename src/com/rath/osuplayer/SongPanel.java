@@ -4,39 +4,28 @@ package com.rath.osuplayer;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontFormatException;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
-import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Queue;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 import javax.swing.Timer;
 
-import com.mpatric.mp3agic.InvalidDataException;
-import com.mpatric.mp3agic.Mp3File;
-import com.mpatric.mp3agic.NotSupportedException;
-import com.mpatric.mp3agic.UnsupportedTagException;
-
-import ddf.minim.AudioInput;
 import ddf.minim.AudioPlayer;
 import ddf.minim.Minim;
-import ddf.minim.analysis.FFT;
 
 /**
  * The main graphics panel. Song backgrounds and info will be rendered here.
@@ -46,9 +35,9 @@ import ddf.minim.analysis.FFT;
 public class SongPanel extends JPanel {
 
   /**
-   * Enables debug mode (println()'s. println()'s everywhere).
+   * Enables debug mode (println()'s. println()'s everywhere). Turned on with -Dosuplayer.debug=true.
    */
-  private static final boolean DEBUG_MODE = false;
+  private static final boolean DEBUG_MODE = Boolean.getBoolean("osuplayer.debug");
 
   /**
    * Serial version UID.
@@ -57,17 +46,14 @@ public class SongPanel extends JPanel {
 
   // --------------------------------------------------------------------------
   /** How many recently played songs to keep track of. */
-  private static final int QUEUE_THRESHOLD = 24;
-
-  /** How many times the system tries to pick a song that was not recently played before giving up. */
-  private static final int RECENT_RETRY_THRESHOLD = 20;
+  static final int QUEUE_THRESHOLD = 24;
 
-  /** Recently played songs filename. */
-  private static final String RECENT_LIST_FILENAME = "osuplayer-recent.dat";
+  /** How close to the end a song has to be to count as finished rather than skipped, in milliseconds. */
+  private static final int FINISH_TOLERANCE_MS = 1000;
 
   // --------------------------------------------------------------------------
   /** How many bands are in an octave. */
-  private static final int NUM_BANDS = 256; // Was 256
+  static final int NUM_BANDS = 256; // Was 256
 
   /** Bar vertical scaling. */
   private static final double BAND_SCALE = 2.8D;
@@ -78,18 +64,21 @@ public class SongPanel extends JPanel {
   /** Space between each bar. */
   private static final int FFT_BAR_SPACING = 12;
 
+  /** Height of each bar's peak marker. */
+  private static final int FFT_PEAK_HEIGHT = 3;
+
   /** Visualization frames per second. */
   private static final int TARGET_FRAMERATE = 75;
 
+  /** Time between frames the repaint timer aims for, in nanoseconds. */
+  private static final long PAINT_PERIOD_NANOS = 1000000000L / TARGET_FRAMERATE;
+
   // --------------------------------------------------------------------------
   /** Default song title font size. */
-  private static final float DEFAULT_TITLE_FONT_SIZE = 32.0F;
+  static final float DEFAULT_TITLE_FONT_SIZE = 32.0F;
 
   /** Default song metadata font size. */
-  private static final float DEFAULT_LABEL_FONT_SIZE = 22.0F;
-
-  /** Path to the default font. */
-  private static final String DEFAULT_FONT_STRING = "res/fonts/JAPANSANS80.OTF";
+  static final float DEFAULT_LABEL_FONT_SIZE = 22.0F;
 
   // --------------------------------------------------------------------------
   /** Horizontal position of the song timer. */
@@ -121,16 +110,7 @@ public class SongPanel extends JPanel {
   private static final int SONGINFO_BG_MINWIDTH = 640;
 
   /** The relative vertical position of the info background. */
-  private static final double SONGINFO_BG_Y = 0.01D;
-
-  /** Left song info border filepath. */
-  private static final String SONGINFO_BG_L = "res/img/info-border-left.png";
-
-  /** Right song info border filepath. */
-  private static final String SONGINFO_BG_R = "res/img/info-border-right.png";
-
-  /** Song info border filepath (scalable). */
-  private static final String SONGINFO_BG = "res/img/info-border-center.png";
+  static final double SONGINFO_BG_Y = 0.01D;
 
   /** Width of the song info borders. */
   private static final int SONGINFO_W = 61;
@@ -158,6 +138,15 @@ public class SongPanel extends JPanel {
   /** The song info background. */
   private BufferedImage infoBGC;
 
+  /** The whole song info panel, rendered once per song (null until the first frame of a song). */
+  private BufferedImage songInfoImage;
+
+  /** Horizontal position of the song info panel. */
+  private int songInfoX;
+
+  /** Vertical position of the song info panel. */
+  private int songInfoY;
+
   /** Reference to the filter panel. */
   private SongFilterPanel searchPanel;
 
@@ -185,9 +174,33 @@ public class SongPanel extends JPanel {
   /** Font for drawing the artist and source label font. */
   private Font labelFont;
 
-  /** Timer for repainting the window. */
+  /** Timer for repainting the window (and checking if the song ended). */
   private final Timer repaintTimer;
 
+  /** Render thread, or null when Swing does the painting. */
+  private volatile ActiveRenderer activeRenderer;
+
+  /** Held while drawing a frame or swapping songs, since active rendering draws off the EDT. */
+  private final Object renderLock = new Object();
+
+  /** Whether a frame has been drawn yet (guarded by renderLock). */
+  private boolean firstFrameDrawn = false;
+
+  /** Frame times while Swing does the painting. */
+  private final FrameStats paintStats = new FrameStats();
+
+  /** When the last frame was painted by Swing, from System.nanoTime() (guarded by renderLock). */
+  private long lastPaint = 0L;
+
+  /** Runtime metrics, published over JMX. */
+  private final PlayerMetrics metrics;
+
+  /** Debug overlay of the metrics (guarded by renderLock). */
+  private final MetricsOverlay overlay;
+
+  /** Whether the debug overlay is showing. */
+  private volatile boolean overlayVisible = false;
+
   /** Key listener for SongPanel. */
   private PlayerKeyListener playerKeyListener;
 
@@ -203,17 +216,66 @@ public class SongPanel extends JPanel {
   /** The Minim library object. */
   private final Minim minim;
 
-  /** Audio input data for Minim. */
-  private final AudioInput aInput;
 
-  /** Handle to the last played audio file (tags stripped). */
-  private File lastAudioFile;
+  /** Picks the next song. */
+  private final ShuffleEngine shuffle;
+
+  /** Index of every beatmap set in the Songs directory. */
+  private final LibraryIndex library;
+
+  /** Log of plays, skips, and seeks. */
+  private final PlayHistory history = new PlayHistory(new File(PlayHistory.DEFAULT_FILENAME));
+
+  /** The song playing now. */
+  private LibraryEntry currentEntry;
+
+  /** Loads songs to switch to off the EDT. */
+  private final SongLoader loader;
+
+  /** Whether a song is being loaded to replace the current one. */
+  private boolean loading = false;
+
+  /** When the song being loaded was asked for, from System.nanoTime(). */
+  private long switchRequested;
+
+  /** Random number generator for picking songs. */
+  private final Random rand = new Random();
+
+  /** Scaled song backgrounds. */
+  private final BackgroundCache bgCache = new BackgroundCache();
+
+  /** Loads the next song while the current one plays. */
+  private final SongPrefetcher prefetcher;
+
+  /** Starts the next song as the current one ends (null unless -Dosuplayer.gapless=true). */
+  private final TrackTransition transition;
+
+  /** Runs the FFT on whatever the current player is playing. */
+  private final SpectrumAnalyzer analyzer = new SpectrumAnalyzer();
+
+  /** Counts audio underruns of the playing song. */
+  private final UnderrunMeter underruns = new UnderrunMeter();
+
+  /** Precomputed spectrograms (null unless -Dosuplayer.spectrogram=true). */
+  private final SpectrogramCache spectrograms = SpectrogramCache.createIfEnabled();
+
+  /** The current song's spectrogram while it is being loaded or built. */
+  private Future<Spectrogram> spectrogramFuture;
+
+  /** Jumps straight to the right frame when seeking in MP3s. */
+  private final Mp3Seeker seeker;
 
-  /** A set of the most recently played songs. */
-  private Queue<String> recentlyPlayedSongs;
+  /** The current song's seek index while it is being loaded or built, or once it is ready. */
+  private Future<Mp3SeekIndex> seekIndexFuture;
 
-  /** Fast Fourier Transform object. */
-  private FFT fft;
+  /** The current song's spectrogram, or null to use the live analyzer. */
+  private Spectrogram spectrogram;
+
+  /** The newest band levels, copied out of the analyzer each frame. */
+  private final float[] bandLevels = new float[SpectrumAnalyzer.MAX_BANDS];
+
+  /** The newest band peaks, copied out of the analyzer each frame. */
+  private final float[] bandPeaks = new float[SpectrumAnalyzer.MAX_BANDS];
 
   /**
    * Default constructor.
@@ -226,34 +288,15 @@ public class SongPanel extends JPanel {
   public SongPanel(PlayerFrame par, int w, int h) {
     super();
 
-    // Get the recently played queue if it exists
-    this.recentlyPlayedSongs = new ArrayDeque<String>();
-
-    final File recentlyPlayedFile = new File(RECENT_LIST_FILENAME);
-    if (recentlyPlayedFile.exists()) {
-      Scanner fscan = null;
-      try {
-        fscan = new Scanner(recentlyPlayedFile);
-        while (fscan.hasNextLine()) {
-          this.recentlyPlayedSongs.add(fscan.nextLine());
-        }
-
-      } catch (FileNotFoundException e) {
-        e.printStackTrace();
-      } finally {
-        fscan.close();
-      }
-    }
-
     // Set class fields
     this.width = w;
     this.height = h;
     this.parent = par;
-    this.metadata = getNewMetadata();
-
-    // Add song to recently played queue
-    this.recentlyPlayedSongs.add(this.metadata[3]);
-    debugOut("Added \"" + this.metadata[3] + "\" to recently played.");
+    this.library = LibraryIndex.open();
+    this.library.savePalettesPeriodically();
+    StartupTrace.mark("library opened");
+    this.shuffle = ShuffleEngine.create(QUEUE_THRESHOLD, this.rand);
+    this.shuffle.setWeigher(this.history.skipWeigher());
 
     // Timer to update visualization
     this.repaintTimer = new Timer(0, new ActionListener() {
@@ -261,10 +304,12 @@ public class SongPanel extends JPanel {
       @Override
       public void actionPerformed(ActionEvent evt) {
 
-        parent.repaint();
+        if (activeRenderer == null) {
+          parent.repaint();
+        }
 
-        // If the song is done, fetch a new one.
-        if (!audioPlayer.isPlaying()) {
+        // If the song is done, fetch a new one (unless the next one is already loading or started).
+        if (!audioPlayer.isPlaying() && !loading && (transition == null || !transition.isPending())) {
           newSong();
         }
       }
@@ -272,59 +317,59 @@ public class SongPanel extends JPanel {
     });
     this.repaintTimer.setDelay(Math.round(1000 / TARGET_FRAMERATE));
 
-    // Set up minim
-    this.minim = new Minim(new MinimHandler());
-    String audioFileStr = this.metadata[0] + "/" + this.metadata[2];
-    debugOut("Chose audio file: \"" + audioFileStr + "\".");
-    audioFileStr = stripMP3Tags(audioFileStr);
-    debugOut("Loaded stripped audio file: \"" + audioFileStr + "\".");
-    this.audioPlayer = minim.loadFile(audioFileStr, 2048);
-    this.lastAudioFile = new File(audioFileStr);
-    this.aInput = minim.getLineIn(Minim.STEREO);
-
-    // Get audio runtime
-    this.songRuntime = this.audioPlayer.length() / 1000;
-    debugOut("Runtime: " + this.songRuntime);
+    // Set up minim and load the first song
+    final MinimHandler minimHandler = new MinimHandler();
+    this.minim = new Minim(minimHandler);
+    this.seeker = new Mp3Seeker(minimHandler, new File(Mp3Seeker.DEFAULT_DIR));
+    this.prefetcher = new SongPrefetcher(this.minim, this.bgCache, this.library, this.width, this.height);
+    this.transition = TrackTransition.createIfEnabled(this.minim, this.prefetcher, new TrackTransition.Handler() {
 
-    // Set up FFT calculations
-    try {
-      this.fft = new FFT(this.aInput.bufferSize(), this.aInput.sampleRate());
-    } catch (NullPointerException npe) {
-      System.err.println("Stereo Mix not enabled!");
-      return;
-    }
-    this.fft.logAverages(NUM_BANDS, 10);
+      @Override
+      public void transitioned(final PreparedSong next) {
 
-    // Set the background of this panel
-    try {
-      this.songBG = convertImage(ImageIO.read(new File(metadata[0] + "/" + metadata[1])).getScaledInstance(this.width,
-          this.height, Image.SCALE_SMOOTH));
+        songTransitioned(next);
+      }
+    });
+    this.loader = new SongLoader(this.minim, this.bgCache, this.library, this.prefetcher, new SongLoader.Selector() {
 
-      // Song info background
-      this.infoBGC = ImageIO.read(new File(SONGINFO_BG));
-      this.infoBGL = ImageIO.read(new File(SONGINFO_BG_L));
-      this.infoBGR = ImageIO.read(new File(SONGINFO_BG_R));
+      @Override
+      public LibraryEntry next() {
 
-      // Load and set up fonts
-      final File fontFile = new File(DEFAULT_FONT_STRING);
-      this.titleFont = Font.createFont(Font.TRUETYPE_FONT, fontFile).deriveFont(DEFAULT_TITLE_FONT_SIZE);
-      this.labelFont = Font.createFont(Font.TRUETYPE_FONT, fontFile).deriveFont(DEFAULT_LABEL_FONT_SIZE);
-      final GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-      ge.registerFont(Font.createFont(Font.TRUETYPE_FONT, fontFile));
+        return pickNextEntry();
+      }
+    }, this.width, this.height, new SongLoader.Listener() {
 
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (FontFormatException ffe) {
-      ffe.printStackTrace();
-    }
+      @Override
+      public void songLoaded(final PreparedSong song) {
 
-    // Get the complementary bar color for this image
-    this.barColor = getBarColor(this.songBG);
+        swapIn(song);
+      }
 
-    // Calculate title string width
-    this.songTitle = this.metadata[3];
+      @Override
+      public void songFailed() {
 
-    // Create and add the filter panel
+        loading = false;
+        System.err.println("Could not load a song to switch to.");
+      }
+    });
+    this.metrics = new PlayerMetrics(this.loader, this.bgCache, this.spectrograms, this.underruns);
+    this.metrics.setFrameStats(this.paintStats);
+    this.metrics.register();
+    this.overlay = new MetricsOverlay(this.metrics);
+    StartupTrace.mark("audio system started");
+    setSong(PreparedSong.prepare(this.minim, this.bgCache, this.library, pickNextEntry(), this.width, this.height));
+    StartupTrace.mark("first song loaded");
+
+    // Song info background and fonts (preloaded since startup)
+    final Assets assets = Assets.shared();
+    this.infoBGC = assets.getImage(Assets.INFO_BORDER_CENTER);
+    this.infoBGL = assets.getImage(Assets.INFO_BORDER_LEFT);
+    this.infoBGR = assets.getImage(Assets.INFO_BORDER_RIGHT);
+    this.titleFont = assets.getFont(DEFAULT_TITLE_FONT_SIZE);
+    this.labelFont = assets.getFont(DEFAULT_LABEL_FONT_SIZE);
+    StartupTrace.mark("fonts and images ready");
+
+    // Create the filter panel (not added to the frame yet, so its search thread and index aren't started)
     this.searchPanel = new SongFilterPanel(this);
     // par.add(this.searchPanel);
     this.searchPanel.setBounds(this.width >> 1, 0, this.width >> 1, FILTER_PANEL_HEIGHT);
@@ -337,105 +382,237 @@ public class SongPanel extends JPanel {
     requestFocus();
 
     // Start everything
-    this.repaintTimer.start();
+    startRepainting();
     this.audioPlayer.play();
+    this.history.record(PlayHistory.STARTED, this.library.trackOf(this.currentEntry), 0);
+    prefetchNext();
+    StartupTrace.mark("player started");
   }
 
   /**
-   * Parses another random beatmap and loads its metadata.
+   * Picks the next song from the library index.
    * 
-   * @return a String[] with indeces: {directory, BG-image, audio file, title, artist, source}
+   * @return the song, or null if the library is empty.
    */
-  public final String[] getNewMetadata() {
+  private final LibraryEntry pickNextEntry() {
 
     debugOut("Fetching new metadata.");
 
-    // Find song directory
-    final File songDir = new File("Songs/");
-    if (!songDir.exists() || !songDir.isDirectory()) {
-      System.err.println("Songs directory not found!");
+    final LibraryEntry entry = this.shuffle.next(this.library.tracks());
+    if (entry == null) {
+      System.err.println("No beatmaps found in the Songs directory!");
+      return null;
     }
 
-    // Get beatmap folder list
-    final String[] beatmapFolders = songDir.list(new FilenameFilter() {
+    debugOut("Chose \"" + entry.getFolder() + "\" as next song.");
 
-      @Override
-      public boolean accept(File curr, String name) {
+    return entry;
+  }
 
-        return new File(curr, name).isDirectory();
-      }
-    });
+  /**
+   * Picks the song after this one and starts loading it.
+   */
+  private final void prefetchNext() {
 
-    // Choose random beatmap directory
-    final Random rand = new Random();
-    final String currentMapDir = "Songs/" + beatmapFolders[rand.nextInt(beatmapFolders.length)];
+    this.prefetcher.prefetch(pickNextEntry());
+  }
 
-    debugOut("Chose \"" + currentMapDir + "\" as next song.");
+  /**
+   * Logs how the current song ended: finished if it played to (nearly) the end, skipped otherwise.
+   */
+  private final void recordSongEnd() {
 
-    // Parse any .osu file for the background and audio file.
-    return MapParser.parseBeatmap(currentMapDir);
+    final LibraryEntry track = this.library.trackOf(this.currentEntry);
+    final int position = this.audioPlayer.position();
+    final int length = this.audioPlayer.length();
+    if (length > 0 && position >= length - FINISH_TOLERANCE_MS) {
+      this.history.record(PlayHistory.FINISHED, track, position);
+    } else {
+      this.history.record(PlayHistory.SKIPPED, track, position);
+
+      // Skip counts feed the weighted shuffle
+      this.shuffle.reweigh();
+    }
   }
 
   /**
-   * Fetches a new song and updates the panel.
+   * Switches to a new song once it has loaded. The current song keeps playing until then, and asking again before it
+   * has loaded replaces the request.
    */
   public final void newSong() {
 
+    if (this.transition != null) {
+      this.transition.cancel();
+    }
+    this.loading = true;
+    this.switchRequested = System.nanoTime();
+    this.loader.loadNext();
+  }
+
+  /**
+   * Swaps in a song the loader has finished loading.
+   * 
+   * @param next the loaded song.
+   */
+  private final void swapIn(final PreparedSong next) {
+
+    this.loading = false;
+    if (this.transition != null) {
+      this.transition.cancel();
+    }
+    recordSongEnd();
+
     // Stop updating and playing
-    this.repaintTimer.stop();
-    this.audioPlayer.close();
+    stopRepainting();
+    PreparedSong.closePlayer(this.minim, this.audioPlayer);
+    setSong(next);
 
-    // Delete copied and stripped mp3
-    this.lastAudioFile.delete();
+    // Start playing again
+    this.audioPlayer.play();
+    startRepainting();
+    this.history.record(PlayHistory.STARTED, this.library.trackOf(this.currentEntry), 0);
+
+    this.playerKeyListener.setAudioPlayer(this.audioPlayer);
 
-    debugOut("Recently played songs queue:");
-    debugOut(this.recentlyPlayedSongs.toString());
+    final long switchNanos = System.nanoTime() - this.switchRequested;
+    this.metrics.recordSwitch(switchNanos);
+    System.out.println(String.format("Song switch took %.1fms.", switchNanos / 1.0E6D));
+    debugOut(this.bgCache.toString());
 
-    // Try to play new songs that haven't played in a while
-    int recentSongCount = 0;
-    while (recentSongCount <= RECENT_RETRY_THRESHOLD) {
-      this.metadata = getNewMetadata();
-      if (!this.recentlyPlayedSongs.contains(this.metadata[3])) {
-        break;
+    // Start loading the one after
+    prefetchNext();
+  }
+
+  /**
+   * Swaps in a song the transition has already started playing. The previous song is left to the transition to close.
+   * 
+   * @param next the song that is now playing.
+   */
+  private final void songTransitioned(final PreparedSong next) {
+
+    this.history.record(PlayHistory.FINISHED, this.library.trackOf(this.currentEntry), this.audioPlayer.length());
+    setSong(next);
+    this.playerKeyListener.setAudioPlayer(this.audioPlayer);
+    this.history.record(PlayHistory.STARTED, this.library.trackOf(this.currentEntry), 0);
+    debugOut("Transitioned to \"" + this.metadata[0] + "\".");
+
+    prefetchNext();
+  }
+
+  /**
+   * Swaps in a loaded song.
+   * 
+   * @param song the loaded song.
+   */
+  private final void setSong(final PreparedSong song) {
+
+    synchronized (this.renderLock) {
+      this.currentEntry = song.getEntry();
+      this.metadata = song.getMetadata();
+      this.audioPlayer = song.getAudioPlayer();
+      this.songBG = song.getBackground();
+      this.barColor = song.getBarColor();
+      this.songTitle = this.metadata[3];
+      this.songInfoImage = null;
+
+      // Use the live analyzer until the spectrogram is ready
+      this.spectrogram = null;
+      if (this.spectrograms != null) {
+        if (this.spectrogramFuture != null) {
+          this.spectrogramFuture.cancel(true);
+        }
+        this.spectrogramFuture = this.spectrograms.request(new File(this.metadata[0] + "/" + this.metadata[2]),
+            (this.currentEntry != null) ? this.currentEntry.getAudioHash() : null);
       }
-      debugOut("Chose recently played song. Retrying " + (RECENT_RETRY_THRESHOLD - recentSongCount) + " more times.");
-      recentSongCount++;
+    }
+    if (this.seekIndexFuture != null) {
+      this.seekIndexFuture.cancel(true);
+    }
+    this.seekIndexFuture = this.seeker.request(new File(this.metadata[0] + "/" + this.metadata[2]),
+        (this.currentEntry != null) ? this.currentEntry.getAudioHash() : null);
+    this.analyzer.setEnabled(true);
+    this.analyzer.attach(this.audioPlayer);
+    this.underruns.attach(this.audioPlayer);
+    if (this.transition != null) {
+      this.transition.setCurrent(this.audioPlayer);
     }
 
-    // Add song to recently played
-    this.songTitle = metadata[3];
-    this.recentlyPlayedSongs.add(this.songTitle);
-    if (this.recentlyPlayedSongs.size() > QUEUE_THRESHOLD) {
-      debugOut("Recently played queue reached size threshold. Removing oldest song.");
-      this.recentlyPlayedSongs.remove();
+    // Get audio runtime
+    this.songRuntime = this.audioPlayer.length() / 1000;
+    debugOut("Loaded \"" + this.metadata[0] + "/" + this.metadata[2] + "\", runtime: " + this.songRuntime);
+  }
+
+  /**
+   * Plays a specific beatmap set right away, instead of the queued up random one.
+   * 
+   * @param entry the beatmap set to play.
+   */
+  public final void playEntry(final LibraryEntry entry) {
+
+    debugOut("Chose \"" + entry.getFolder() + "\" from search.");
+    this.shuffle.played(this.library.tracks(), this.library.trackOf(entry));
+    if (this.transition != null) {
+      this.transition.cancel();
     }
+    this.loading = true;
+    this.switchRequested = System.nanoTime();
+    this.loader.load(entry);
+  }
 
-    // Load new audio file
-    final String filePath = metadata[0] + "/";
-    String audioFileStr = filePath + this.metadata[2];
-    audioFileStr = stripMP3Tags(audioFileStr);
-    debugOut("Loading audio \"" + audioFileStr + "\".");
-    this.audioPlayer = minim.loadFile(audioFileStr);
-    this.lastAudioFile = new File(audioFileStr);
+  /**
+   * Jumps forward or back in the current song.
+   * 
+   * @param deltaMillis how far to jump, in milliseconds (negative to go back).
+   */
+  public final void seek(final int deltaMillis) {
 
-    // Get and scale new background image
+    final int target = this.audioPlayer.position() + deltaMillis;
+    final Mp3SeekIndex index = getSeekIndex();
+    if (index == null || !this.seeker.seek(this.audioPlayer, index, target)) {
+      this.audioPlayer.cue(target);
+    }
+    this.history.record(PlayHistory.SEEKED, this.library.trackOf(this.currentEntry), this.audioPlayer.position());
+  }
+
+  /**
+   * Gets the current song's seek index, if it is ready.
+   * 
+   * @return the index, or null if there isn't one (yet).
+   */
+  private final Mp3SeekIndex getSeekIndex() {
+
+    final Future<Mp3SeekIndex> f = this.seekIndexFuture;
+    if (f == null || !f.isDone() || f.isCancelled()) {
+      return null;
+    }
     try {
-      this.songBG = convertImage(ImageIO.read(new File(filePath + metadata[1])).getScaledInstance(this.width,
-          this.height, Image.SCALE_SMOOTH));
-    } catch (IOException e) {
-      System.err.println("IOE@" + filePath + metadata[1]);
-      this.songBG = new BufferedImage(this.width, this.height, BufferedImage.TYPE_BYTE_BINARY);
-    } catch (NullPointerException npe) {
-      System.err.println("NPE@" + filePath + metadata[1]);
+      return f.get();
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    return null;
+  }
 
-    this.barColor = getBarColor(this.songBG);
+  /**
+   * Gets the play history.
+   * 
+   * @return the PlayHistory.
+   */
+  public final PlayHistory getHistory() {
 
-    // Start playing again
-    this.audioPlayer.play();
-    this.repaintTimer.start();
+    return this.history;
+  }
 
-    this.playerKeyListener.setAudioPlayer(this.audioPlayer);
+  /**
+   * Gets the library index.
+   * 
+   * @return the LibraryIndex.
+   */
+  public final LibraryIndex getLibrary() {
+
+    return this.library;
   }
 
   /**
@@ -443,12 +620,15 @@ public class SongPanel extends JPanel {
    */
   public final void togglePause() {
 
+    if (this.transition != null) {
+      this.transition.finishFade();
+    }
     if (this.audioPlayer.isPlaying()) {
-      this.repaintTimer.stop();
+      stopRepainting();
       this.audioPlayer.pause();
       this.parent.repaint();
     } else {
-      this.repaintTimer.start();
+      startRepainting();
       this.audioPlayer.play();
     }
 
@@ -464,17 +644,64 @@ public class SongPanel extends JPanel {
     return !this.audioPlayer.isPlaying();
   }
 
+  /**
+   * Shows or hides the debug overlay.
+   */
+  public final void toggleOverlay() {
+
+    this.overlayVisible = !this.overlayVisible;
+  }
+
+  /**
+   * Switches to drawing from a dedicated render thread if the system allows it (-Dosuplayer.activerender=true).
+   * Otherwise the Swing Timer keeps repainting on the EDT. Must be called on the EDT after the frame is visible.
+   */
+  public final void startRendering() {
+
+    if (!Boolean.getBoolean("osuplayer.activerender")) {
+      return;
+    }
+    this.activeRenderer = ActiveRenderer.start(this.parent, this, TARGET_FRAMERATE);
+    if (this.activeRenderer != null) {
+      this.metrics.setFrameStats(this.activeRenderer.getStats());
+    }
+  }
+
   /**
    * Calls the main JFrame's closeEverything() method
    */
   public final void closeEverything() {
 
-    this.audioPlayer.close();
-    this.minim.stop();
-    this.minim.dispose();
-    saveQueue(this.recentlyPlayedSongs);
-    this.lastAudioFile.delete();
-    this.repaintTimer.stop();
+    final ActiveRenderer renderer = this.activeRenderer;
+    if (renderer != null) {
+      renderer.stop();
+    }
+    System.out.println(this.metrics.getFrameStats());
+    this.metrics.unregister();
+    this.searchPanel.shutdown();
+    this.loader.shutdown();
+    System.out.println(this.loader);
+    if (this.transition != null) {
+      this.transition.shutdown();
+      System.out.println(this.transition);
+    }
+    System.out.println(this.underruns);
+    this.prefetcher.shutdown();
+    this.seeker.shutdown();
+    this.analyzer.shutdown();
+    if (this.spectrograms != null) {
+      this.spectrograms.shutdown();
+    }
+    synchronized (this.minim) {
+      this.audioPlayer.close();
+      this.minim.stop();
+      this.minim.dispose();
+    }
+    this.shuffle.save();
+    this.library.savePalettes();
+    this.history.close();
+    System.out.println(this.history);
+    stopRepainting();
     this.parent.closeEverything();
   }
 
@@ -514,16 +741,82 @@ public class SongPanel extends JPanel {
   @Override
   public void paintComponent(Graphics g) {
 
-    final Graphics2D g2 = (Graphics2D) g;
-    drawBackground(g2);
+    if (this.activeRenderer != null) {
+      return;
+    }
+    render((Graphics2D) g);
+  }
 
-    final int centerY = this.height >> 1;
-    drawSongInfo(g2, centerY);
+  /**
+   * Draws one frame of the player. Called from paintComponent() on the EDT, or from the render thread when active
+   * rendering is on.
+   * 
+   * @param g2 the Graphics2D object.
+   */
+  final void render(final Graphics2D g2) {
 
-    if (!this.audioPlayer.isPlaying())
-      return;
+    synchronized (this.renderLock) {
+      if (this.activeRenderer == null) {
+        recordPaint();
+      }
+      drawBackground(g2);
+
+      final int centerY = this.height >> 1;
+      drawSongInfo(g2, centerY);
+
+      if (!this.firstFrameDrawn) {
+        this.firstFrameDrawn = true;
+        StartupTrace.firstFrame();
+      }
+
+      if (this.audioPlayer.isPlaying()) {
+        drawFFT(g2, centerY);
+      }
+
+      if (this.overlayVisible) {
+        this.overlay.draw(g2);
+      }
+    }
+  }
+
+  /**
+   * Stops the repaint timer. The time until it starts again isn't a frame, so frame timing starts over.
+   */
+  private final void stopRepainting() {
+
+    this.repaintTimer.stop();
+    synchronized (this.renderLock) {
+      this.lastPaint = 0L;
+    }
+  }
+
+  /**
+   * Starts the repaint timer, timing frames from the first one it paints (a repaint while it was stopped doesn't
+   * count).
+   */
+  private final void startRepainting() {
 
-    drawFFT(g2, centerY);
+    synchronized (this.renderLock) {
+      this.lastPaint = 0L;
+    }
+    this.repaintTimer.start();
+  }
+
+  /**
+   * Records the time since the last frame Swing painted, counting any timer ticks that were missed in between.
+   */
+  private final void recordPaint() {
+
+    final long now = System.nanoTime();
+    if (this.lastPaint != 0L) {
+      final long interval = now - this.lastPaint;
+      this.paintStats.record(interval);
+      final long missed = (interval + (PAINT_PERIOD_NANOS >> 1)) / PAINT_PERIOD_NANOS - 1;
+      if (missed > 0L) {
+        this.paintStats.drop(missed);
+      }
+    }
+    this.lastPaint = now;
   }
 
   /**
@@ -546,54 +839,105 @@ public class SongPanel extends JPanel {
    */
   private final void drawSongInfo(final Graphics2D g2, final int centerY) {
 
-    // Calculate song title width
-    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-    g2.setFont(this.titleFont);
-    final int titleWidth = g2.getFontMetrics(this.titleFont).stringWidth(this.songTitle);
+    // Only rendered once per song
+    if (this.songInfoImage == null) {
+      this.songInfoImage = renderSongInfo();
+    }
+    g2.drawImage(this.songInfoImage, this.songInfoX, this.songInfoY, null);
 
-    // Ensure song info container is not smaller than the minimum
-    int bgWidth = (titleWidth > SONGINFO_BG_MINWIDTH) ? titleWidth : SONGINFO_BG_MINWIDTH;
+    //    drawProgressBar(g2);
+  }
 
-    // Left info container border
-    final int infoBGx = (this.width >> 1) - SONGINFO_W - (bgWidth >> 1);
-    final int infoBGy = (int) (SONGINFO_BG_Y * this.height);
-    g2.drawImage(this.infoBGL, infoBGx, infoBGy, null);
+  /**
+   * Renders the current song's info panel and works out where it goes on screen.
+   * 
+   * @return the rendered info panel.
+   */
+  private final BufferedImage renderSongInfo() {
+
+    final Font tFont = (this.titleFont != null) ? this.titleFont : getFont();
+    final Font lFont = (this.labelFont != null) ? this.labelFont : getFont();
+    final BufferedImage img = renderSongInfo(tFont, lFont, this.infoBGL, this.infoBGC, this.infoBGR,
+        String.valueOf(this.songTitle), this.metadata[4], this.metadata[5]);
+    this.songInfoX = (this.width - img.getWidth()) >> 1;
+    this.songInfoY = (int) (SONGINFO_BG_Y * this.height);
+    return img;
+  }
 
-    // Middle of info container
-    final BufferedImage scaledInfoBG = convertImage(
-        this.infoBGC.getScaledInstance(bgWidth, SONGINFO_H, Image.SCALE_FAST));
-    final int infoBGcx = infoBGx + SONGINFO_W;
-    g2.drawImage(scaledInfoBG, infoBGcx, infoBGy, null);
+  /**
+   * Renders a song info panel (borders, title, artist, and source) into a translucent image.
+   * 
+   * @param tFont the title font.
+   * @param lFont the artist and source font.
+   * @param left the left border.
+   * @param center the middle of the container, stretched to fit the title.
+   * @param right the right border.
+   * @param title the song title.
+   * @param artist the song artist.
+   * @param source the song source (null or empty to leave it out).
+   * @return the rendered info panel.
+   */
+  static final BufferedImage renderSongInfo(final Font tFont, final Font lFont, final Image left, final Image center,
+      final Image right, final String title, final String artist, final String source) {
+
+    // Lay out the text once
+    final FontRenderContext frc = new FontRenderContext(null, true, true);
+    final GlyphVector titleGlyphs = tFont.createGlyphVector(frc, title);
+    final GlyphVector artistGlyphs = lFont.createGlyphVector(frc, "Artist: " + artist);
+    GlyphVector sourceGlyphs = null;
+    if (source != null && source.length() > 0) {
+      sourceGlyphs = lFont.createGlyphVector(frc, "Source: " + source);
+    }
 
-    // Right border of info container
-    final int infoBGrx = infoBGcx + bgWidth;
-    g2.drawImage(this.infoBGR, infoBGrx, infoBGy, null);
+    // Ensure song info container is not smaller than the minimum
+    final int titleWidth = (int) Math.ceil(titleGlyphs.getLogicalBounds().getWidth());
+    final int bgWidth = (titleWidth > SONGINFO_BG_MINWIDTH) ? titleWidth : SONGINFO_BG_MINWIDTH;
 
-    // Song title font calculations
-    int stringPosx = infoBGcx;
-    int stringPosy = (int) (infoBGy + SONGINFO_TEXT_START);
+    final BufferedImage img = createTranslucent(bgWidth + (SONGINFO_W << 1), SONGINFO_H);
+    final Graphics2D g2 = img.createGraphics();
+
+    // Left border, stretched middle, and right border of the info container
+    g2.drawImage(left, 0, 0, null);
+    g2.drawImage(center, SONGINFO_W, 0, bgWidth, SONGINFO_H, null);
+    g2.drawImage(right, SONGINFO_W + bgWidth, 0, null);
 
     // Draw title
+    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
     g2.setColor(Color.WHITE);
-    g2.drawString(this.songTitle, stringPosx, stringPosy);
+    float stringPosx = SONGINFO_W;
+    float stringPosy = SONGINFO_TEXT_START;
+    g2.drawGlyphVector(titleGlyphs, stringPosx, stringPosy);
 
-    // Artist font calculations
-    g2.setFont(this.labelFont);
-    String artistString = "Artist: " + this.metadata[4];
+    // Draw artist name
     stringPosx += SONGINFO_INDENT_X;
     stringPosy += SONGINFO_SPACING_Y + 2;
+    g2.drawGlyphVector(artistGlyphs, stringPosx, stringPosy);
 
-    // Draw artist name
-    g2.drawString(artistString, stringPosx, stringPosy);
-
-    // Get and draw source name
-    if (this.metadata[5] != null && this.metadata[5].length() > 0) {
-      String sourceString = "Source: " + this.metadata[5];
+    // Draw source name
+    if (sourceGlyphs != null) {
       stringPosy += SONGINFO_SPACING_Y - 2;
-      g2.drawString(sourceString, stringPosx, stringPosy);
+      g2.drawGlyphVector(sourceGlyphs, stringPosx, stringPosy);
     }
 
-    //    drawProgressBar(g2);
+    g2.dispose();
+    return img;
+  }
+
+  /**
+   * Creates a translucent image in the screen's native format.
+   * 
+   * @param w the width.
+   * @param h the height.
+   * @return the new image.
+   */
+  private static final BufferedImage createTranslucent(final int w, final int h) {
+
+    if (!GraphicsEnvironment.isHeadless()) {
+      return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+          .createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+    }
+    return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
   }
 
   /**
@@ -632,16 +976,68 @@ public class SongPanel extends JPanel {
 
     g2.setColor(this.barColor);
 
-    // Get FFT data
-    this.fft.forward(this.aInput.mix);
+    // Look up the precomputed spectrum for this position, or get the newest one from the analysis thread
+    final Spectrogram sg = pollSpectrogram();
+    final int bandCount;
+    if (sg != null) {
+      bandCount = sg.read(this.audioPlayer.position(), this.bandLevels, this.bandPeaks);
+    } else {
+      bandCount = this.analyzer.read(this.bandLevels, this.bandPeaks);
+    }
+    drawBands(g2, this.bandLevels, this.bandPeaks, bandCount, this.height);
+  }
 
-    for (int i = 0; i < this.fft.avgSize() - 1; i++) {
+  /**
+   * Picks up the current song's spectrogram once it is ready, and stops the live analysis when it is.
+   * 
+   * @return the spectrogram, or null if there isn't one (yet).
+   */
+  private final Spectrogram pollSpectrogram() {
 
-      // Calculate and render the FFT values
-      final double py = this.fft.getAvg(i) * BAND_SCALE;
-      g2.fillRect(i * (FFT_BAR_WIDTH + FFT_BAR_SPACING), this.height - (int) py, FFT_BAR_WIDTH, (int) py);
+    if (this.spectrogram == null && this.spectrogramFuture != null && this.spectrogramFuture.isDone()) {
+      try {
+        this.spectrogram = this.spectrogramFuture.get();
+      } catch (ExecutionException e) {
+        e.getCause().printStackTrace();
+      } catch (CancellationException e) {
+        // Song changed
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.spectrogramFuture = null;
+      if (this.spectrogram != null) {
+        this.analyzer.setEnabled(false);
+      }
     }
+    return this.spectrogram;
+  }
+
+  /**
+   * Renders one bar per band along the bottom of the screen, with a marker at each band's peak.
+   * 
+   * @param g2 Graphics2D object.
+   * @param levels the band levels.
+   * @param peaks the band peaks (null to leave out the markers).
+   * @param bandCount how many bands there are.
+   * @param height the screen's height.
+   */
+  static final void drawBands(final Graphics2D g2, final float[] levels, final float[] peaks, final int bandCount,
+      final int height) {
 
+    for (int i = 0; i < bandCount - 1; i++) {
+
+      // Calculate and render the FFT values
+      final int x = i * (FFT_BAR_WIDTH + FFT_BAR_SPACING);
+      final int py = (int) (levels[i] * BAND_SCALE);
+      g2.fillRect(x, height - py, FFT_BAR_WIDTH, py);
+
+      if (peaks != null) {
+        final int peakY = (int) (peaks[i] * BAND_SCALE);
+        if (peakY > py + FFT_PEAK_HEIGHT) {
+          g2.fillRect(x, height - peakY, FFT_BAR_WIDTH, FFT_PEAK_HEIGHT);
+        }
+      }
+    }
   }
 
   /**
@@ -650,7 +1046,7 @@ public class SongPanel extends JPanel {
    * @param img the Image to convert to a BufferedImage.
    * @return the BufferedImage that was converted.
    */
-  private static final BufferedImage convertImage(final Image img) {
+  static final BufferedImage convertImage(final Image img) {
 
     final BufferedImage result = new BufferedImage(img.getWidth(null), img.getHeight(null),
         BufferedImage.TYPE_INT_ARGB);
@@ -658,44 +1054,6 @@ public class SongPanel extends JPanel {
     return result;
   }
 
-  /**
-   * Strips an .mp3 file of its tags (Minim doesn't like them).
-   * 
-   * @param s relative path to the .mp3 file as a String.
-   */
-  private static final String stripMP3Tags(final String s) {
-
-    final String newFileName = s.substring(0, s.length() - 4) + "0.mp3";
-
-    try {
-
-      // Strip tags if they exist
-      final Mp3File mf = new Mp3File(s);
-
-      // Strip tags if they exist
-      if (mf.hasId3v1Tag())
-        mf.removeId3v1Tag();
-      if (mf.hasId3v2Tag())
-        mf.removeId3v2Tag();
-      if (mf.hasCustomTag())
-        mf.removeCustomTag();
-
-      // Save temp file
-      mf.save(newFileName);
-
-    } catch (UnsupportedTagException e) {
-      System.err.println("Unsupported tag!\n" + e.getMessage());
-    } catch (InvalidDataException e) {
-      System.err.println("Mp3 file is corrupt!");
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (NotSupportedException e) {
-      e.printStackTrace();
-    }
-
-    return newFileName;
-  }
-
   /**
    * Gets a timestamp from a time in milliseconds.
    * 
@@ -711,73 +1069,14 @@ public class SongPanel extends JPanel {
   }
 
   /**
-   * Gets the complementary color of the average color of the bottom of the background image.
+   * Gets the complementary color of the dominant color of the bottom of the background image.
    * 
    * @param bg the BufferedImage to read.
-   * @return a Color object with the average complementary color.
-   */
-  private static final Color getBarColor(final BufferedImage bg) {
-
-    long redVal = 0L;
-    long greenVal = 0L;
-    long blueVal = 0L;
-
-    // Sample from 70% of the image's height (favor the bottom)
-    final double vertStart = 0.7D;
-
-    // Calculate number of samples
-    final int samplesX = 48;
-    final int samplesY = 16;
-    final int sampleLength = bg.getWidth() / samplesX;
-    final int sampleHeight = (int) (bg.getHeight() * (1.0D - vertStart)) / samplesY;
-
-    // Sample image and accumulate RGB values
-    for (int i = 0; i < bg.getWidth(); i += sampleLength) {
-      for (int j = (int) (bg.getHeight() * vertStart); j < bg.getHeight(); j += sampleHeight) {
-        final int pxrgb = bg.getRGB(i, j);
-        redVal += (pxrgb >> 16) & 0xFF;
-        greenVal += (pxrgb >> 8) & 0xFF;
-        blueVal += pxrgb & 0xFF;
-      }
-    }
-
-    // Average and cap color values
-    final int sampleSize = samplesX * samplesY;
-    int pr = (int) (redVal / sampleSize);
-    int pg = (int) (greenVal / sampleSize);
-    int pb = (int) (blueVal / sampleSize);
-    if (pr > 255)
-      pr = 255;
-    if (pg > 255)
-      pg = 255;
-    if (pb > 255)
-      pb = 255;
-
-    return new Color(255 - pr, 255 - pg, 255 - pb, 180);
-  }
-
-  /**
-   * Saves the current song queue to a file.
-   * 
-   * @param q the queue.
+   * @return a Color object with the complementary color.
    */
-  private static final void saveQueue(final Queue<String> q) {
-
-    final ArrayList<String> list = new ArrayList<String>(q);
-    PrintStream fout = null;
-
-    try {
-      fout = new PrintStream(RECENT_LIST_FILENAME);
-
-      for (final String s : list) {
-        fout.println(s);
-      }
+  static final Color getBarColor(final BufferedImage bg) {
 
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } finally {
-      fout.close();
-    }
+    return PaletteExtractor.barColor(PaletteExtractor.dominant(bg));
   }
 
   /**
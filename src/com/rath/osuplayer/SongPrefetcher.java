@@ -0,0 +1,250 @@
+
+package com.rath.osuplayer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import ddf.minim.Minim;
+
+/**
+ * Loads the next song on a worker thread while the current one plays, so switching songs only has to swap in objects
+ * that are already built.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SongPrefetcher {
+
+  /** The Minim object to open audio with. */
+  private final Minim minim;
+
+  /** Where backgrounds are cached. */
+  private final BackgroundCache bgCache;
+
+  /** Where background palettes are kept. */
+  private final LibraryIndex library;
+
+  /** Screen width. */
+  private final int width;
+
+  /** Screen height. */
+  private final int height;
+
+  /** Single worker thread, so at most one song is being loaded at a time. */
+  private final ExecutorService worker;
+
+  /** The song being (or already) loaded, or null if nothing is queued up. */
+  private Future<PreparedSong> pending;
+
+  /**
+   * Default constructor.
+   *
+   * @param minim the Minim object to open audio with.
+   * @param bgCache where backgrounds are cached.
+   * @param library where background palettes are kept.
+   * @param w the screen width.
+   * @param h the screen height.
+   */
+  public SongPrefetcher(final Minim minim, final BackgroundCache bgCache, final LibraryIndex library, final int w,
+      final int h) {
+    this.minim = minim;
+    this.bgCache = bgCache;
+    this.library = library;
+    this.width = w;
+    this.height = h;
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+
+        final Thread t = new Thread(r, "song-prefetch");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Starts loading a song in the background, replacing any song that was already queued up.
+   *
+   * @param entry the song (null to just clear the queue).
+   */
+  public final synchronized void prefetch(final LibraryEntry entry) {
+
+    discard();
+    if (entry == null) {
+      return;
+    }
+    this.pending = this.worker.submit(new Callable<PreparedSong>() {
+
+      @Override
+      public PreparedSong call() {
+
+        return PreparedSong.prepare(minim, bgCache, library, entry, width, height);
+      }
+    });
+  }
+
+  /**
+   * Takes the queued up song, waiting for it to finish loading if it hasn't yet. The wait doesn't hold the lock, so
+   * nobody else is held up by it; if the waiting thread is interrupted, the song is discarded.
+   *
+   * @return the PreparedSong, or null if nothing was queued up or it failed to load.
+   */
+  public final PreparedSong take() {
+
+    final Future<PreparedSong> f;
+    synchronized (this) {
+      f = this.pending;
+      this.pending = null;
+    }
+    if (f == null) {
+      return null;
+    }
+
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      discard(f);
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      System.err.println("Could not prefetch song: " + e.getCause());
+    }
+    return null;
+  }
+
+  /**
+   * Waits for the queued up song to finish loading, without taking it. The wait doesn't hold the lock.
+   *
+   * @return true if a song is ready to take, false if nothing was queued up or it failed to load.
+   */
+  public final boolean awaitReady() {
+
+    final Future<PreparedSong> f;
+    synchronized (this) {
+      f = this.pending;
+    }
+    if (f == null) {
+      return false;
+    }
+
+    try {
+      return f.get() != null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // take() reports it
+    }
+    return false;
+  }
+
+  /**
+   * Takes the queued up song if it has finished loading, without waiting.
+   *
+   * @return the PreparedSong, or null if nothing is ready (or it failed to load).
+   */
+  public final synchronized PreparedSong takeIfReady() {
+
+    if (this.pending == null || !this.pending.isDone()) {
+      return null;
+    }
+    return take();
+  }
+
+  /**
+   * Queues up a song that was taken but not played after all, so it isn't loaded (and picked) again. If another song
+   * has been queued up since, that one is kept and this one is discarded.
+   *
+   * @param song the song, loaded by this prefetcher.
+   */
+  public final synchronized void putBack(final PreparedSong song) {
+
+    if (this.pending != null) {
+      song.discard();
+      return;
+    }
+    final FutureTask<PreparedSong> loaded = new FutureTask<PreparedSong>(new Callable<PreparedSong>() {
+
+      @Override
+      public PreparedSong call() {
+
+        return song;
+      }
+    });
+    loaded.run();
+    this.pending = loaded;
+  }
+
+  /**
+   * Looks at the queued up song if it has finished loading, without taking it.
+   *
+   * @return the PreparedSong, or null if nothing is ready (or it failed to load).
+   */
+  public final synchronized PreparedSong peekIfReady() {
+
+    if (this.pending == null || !this.pending.isDone() || this.pending.isCancelled()) {
+      return null;
+    }
+    try {
+      return this.pending.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // take() reports it
+    }
+    return null;
+  }
+
+  /**
+   * Throws away the queued up song, releasing its audio once it has finished loading.
+   */
+  public final synchronized void discard() {
+
+    final Future<PreparedSong> f = this.pending;
+    this.pending = null;
+    if (f != null) {
+      discard(f);
+    }
+  }
+
+  /**
+   * Releases a song's audio once it has finished loading.
+   *
+   * @param f the song being loaded.
+   */
+  private final void discard(final Future<PreparedSong> f) {
+
+    // Runs after the load on the same thread, so the song is always released
+    this.worker.submit(new Runnable() {
+
+      @Override
+      public void run() {
+
+        try {
+          final PreparedSong song = f.get();
+          if (song != null) {
+            song.discard();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // Nothing was opened
+        }
+      }
+    });
+  }
+
+  /**
+   * Discards anything queued up and stops the worker thread.
+   */
+  public final synchronized void shutdown() {
+
+    discard();
+    this.worker.shutdown();
+  }
+}
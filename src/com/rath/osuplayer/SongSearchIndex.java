@@ -0,0 +1,709 @@
+
+package com.rath.osuplayer;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An n-gram inverted index over the title, artist, source, and tags of every library entry, for search-as-you-type.
+ *
+ * Text is NFKC-normalized and case folded, then split into words. Every word contributes its trigrams, plus its first
+ * one and two characters as word-prefix grams, so a query word of three or more characters matches anywhere inside a
+ * word and a shorter one matches the start of a word. Grams are packed into exact long keys and the posting lists are
+ * laid out back to back in one int[] (keys sorted, with an offset table), so there is no per-list object overhead.
+ * Each posting also carries which fields the gram appears in and which of those it starts a word in, so most matches
+ * are ranked without looking at the text at all; only words of four or more characters are checked against the text
+ * (their trigrams could be spread out), and only in the fields that could hold them.
+ *
+ * Candidates are ranked by which field each query word was found in (title over artist over source over tags), with a
+ * bonus for matching at the start of a word, and the best few are kept in a small heap. The index is immutable, so
+ * any number of threads can search it at once.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SongSearchIndex {
+
+  /** Default number of results. */
+  public static final int DEFAULT_LIMIT = 50;
+
+  /** Number of searchable fields per entry. */
+  private static final int NUM_FIELDS = 4;
+
+  /** Field indeces. */
+  private static final int TITLE = 0;
+  private static final int ARTIST = 1;
+  private static final int SOURCE = 2;
+  private static final int TAGS = 3;
+
+  /** Every field's bit set. */
+  private static final int ALL_FIELDS = (1 << NUM_FIELDS) - 1;
+
+  /** Score of a match in each field. */
+  private static final int[] FIELD_WEIGHTS = { 8, 6, 4, 1 };
+
+  /** Extra score when the whole query is the start of the title. */
+  private static final int TITLE_PREFIX_BONUS = 10;
+
+  /**
+   * Bits of flags in a posting: the fields the gram appears in, then (shifted up by NUM_FIELDS) the fields it starts a
+   * word in, then whether it starts the title.
+   */
+  private static final int MASK_BITS = 2 * NUM_FIELDS + 1;
+
+  /** All of a posting's flags. */
+  private static final int FLAGS = (1 << MASK_BITS) - 1;
+
+  /** Flag for a gram at the very start of the title. */
+  private static final int TITLE_START = 1 << (2 * NUM_FIELDS);
+
+  /** Bits of an entry's position. */
+  private static final int DOC_BITS = 31 - MASK_BITS;
+
+  /** Most entries the index can hold. */
+  private static final int MAX_DOCS = 1 << DOC_BITS;
+
+  /** Where the score goes in a packed rank. */
+  private static final int SCORE_SHIFT = 16 + DOC_BITS;
+
+  /** Longest title length used to break ties. */
+  private static final int MAX_TITLE_LEN = 0xFFFF;
+
+  /** Candidates ranked between checks for interruption, minus one. */
+  private static final int CHECK_INTERRUPT_MASK = 1023;
+
+  /** Gram kinds. */
+  private static final int PREFIX1 = 1;
+  private static final int PREFIX2 = 2;
+  private static final int TRIGRAM = 3;
+
+  /** The indexed entries, by position. */
+  private final LibraryEntry[] entries;
+
+  /** Folded text of each entry's fields. */
+  private final String[][] fields;
+
+  /** Length of each entry's folded title, kept apart so ranking doesn't have to touch the Strings. */
+  private final int[] titleLengths;
+
+  /** Sorted distinct gram keys. */
+  private final long[] keys;
+
+  /** Where each key's posting list starts in postings (one extra at the end). */
+  private final int[] offsets;
+
+  /** Every posting list, back to back; each holds (entry << MASK_BITS | flags), by ascending entry. */
+  private final int[] postings;
+
+  /**
+   * Constructor.
+   */
+  private SongSearchIndex(final LibraryEntry[] entries, final String[][] fields, final int[] titleLengths,
+      final long[] keys, final int[] offsets, final int[] postings) {
+    this.entries = entries;
+    this.fields = fields;
+    this.titleLengths = titleLengths;
+    this.keys = keys;
+    this.offsets = offsets;
+    this.postings = postings;
+  }
+
+  /**
+   * Builds an index.
+   *
+   * @param library the entries to index.
+   * @return the index.
+   */
+  public static final SongSearchIndex build(final List<LibraryEntry> library) {
+
+    final int docCount = Math.min(library.size(), MAX_DOCS);
+    final LibraryEntry[] entries = library.subList(0, docCount).toArray(new LibraryEntry[docCount]);
+    final String[][] fields = new String[docCount][];
+    final int[] titleLengths = new int[docCount];
+
+    // Collect each entry's distinct grams as (gram << MASK_BITS | flags), entry after entry
+    long[] all = new long[Math.max(16, docCount * 16)];
+    final int[] docEnds = new int[docCount];
+    int total = 0;
+    long[] docGrams = new long[256];
+    for (int doc = 0; doc < docCount; doc++) {
+      final LibraryEntry e = entries[doc];
+      final String[] f = new String[NUM_FIELDS];
+      f[TITLE] = fold(e.getTitle());
+      f[ARTIST] = fold(e.getArtist());
+      f[SOURCE] = fold(e.getSource());
+      f[TAGS] = fold(e.getTags());
+      fields[doc] = f;
+      titleLengths[doc] = Math.min(f[TITLE].length(), MAX_TITLE_LEN);
+
+      int n = 0;
+      for (int field = 0; field < NUM_FIELDS; field++) {
+        final int needed = n + 3 * f[field].length() + 2;
+        if (needed > docGrams.length) {
+          docGrams = Arrays.copyOf(docGrams, Math.max(needed, docGrams.length * 2));
+        }
+        n = addGrams(f[field], field, docGrams, n);
+      }
+      Arrays.sort(docGrams, 0, n);
+
+      if (total + n > all.length) {
+        all = Arrays.copyOf(all, Math.max(total + n, all.length * 2));
+      }
+      for (int i = 0; i < n; i++) {
+        if (i > 0 && (docGrams[i] >>> MASK_BITS) == (all[total - 1] >>> MASK_BITS)) {
+          all[total - 1] |= docGrams[i];
+        } else {
+          all[total++] = docGrams[i];
+        }
+      }
+      docEnds[doc] = total;
+    }
+
+    // Distinct keys, sorted
+    long[] keys = new long[total];
+    for (int i = 0; i < total; i++) {
+      keys[i] = all[i] >>> MASK_BITS;
+    }
+    Arrays.sort(keys);
+    int distinct = 0;
+    for (int i = 0; i < total; i++) {
+      if (i == 0 || keys[i] != keys[distinct - 1]) {
+        keys[distinct++] = keys[i];
+      }
+    }
+    keys = Arrays.copyOf(keys, distinct);
+
+    // Size each posting list, then fill them entry by entry so every list comes out in ascending order
+    final int[] lists = new int[total];
+    final int[] offsets = new int[distinct + 1];
+    for (int i = 0; i < total; i++) {
+      lists[i] = Arrays.binarySearch(keys, all[i] >>> MASK_BITS);
+      offsets[lists[i] + 1]++;
+    }
+    for (int k = 0; k < distinct; k++) {
+      offsets[k + 1] += offsets[k];
+    }
+    final int[] next = Arrays.copyOf(offsets, distinct);
+    final int[] postings = new int[total];
+    for (int doc = 0, i = 0; doc < docCount; doc++) {
+      for (; i < docEnds[doc]; i++) {
+        postings[next[lists[i]]++] = (doc << MASK_BITS) | (int) (all[i] & FLAGS);
+      }
+    }
+
+    return new SongSearchIndex(entries, fields, titleLengths, keys, offsets, postings);
+  }
+
+  /**
+   * Finds the entries matching a query. Every word of the query has to match somewhere in the entry.
+   *
+   * @param query what the user typed.
+   * @param limit most results to return.
+   * @return the best matches, best first, or null if the calling thread was interrupted.
+   */
+  public final List<LibraryEntry> search(final String query, final int limit) {
+
+    return search(query, limit, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Finds the entries matching a query, optionally stopping early. Every word of the query has to match somewhere in
+   * the entry.
+   *
+   * @param query what the user typed.
+   * @param limit most results to return.
+   * @param maxMatches stop looking after this many matches, and rank just those. With maxMatches equal to limit this
+   *        is a quick first page, and fewer results than that means there were no more to find.
+   * @return the best matches found, best first, or null if the calling thread was interrupted.
+   */
+  public final List<LibraryEntry> search(final String query, final int limit, final int maxMatches) {
+
+    final String[] words = splitWords(fold(query));
+    if (words.length == 0 || limit <= 0) {
+      return Collections.emptyList();
+    }
+
+    // Every posting list the query needs, with the word it belongs to, shortest first
+    int maxGrams = 0;
+    for (final String w : words) {
+      maxGrams += Math.max(1, w.length() - 2);
+    }
+    final long[] grams = new long[maxGrams];
+    final int[] gramWords = new int[maxGrams];
+    int gramCount = 0;
+    for (int w = 0; w < words.length; w++) {
+      final int from = gramCount;
+      gramCount = queryGrams(words[w], grams, gramCount);
+      Arrays.fill(gramWords, from, gramCount, w);
+    }
+    final int[] lists = new int[gramCount];
+    final boolean[] firstOfWord = new boolean[gramCount];
+    for (int i = 0; i < gramCount; i++) {
+      final int k = Arrays.binarySearch(this.keys, grams[i]);
+      if (k < 0) {
+        return Collections.emptyList();
+      }
+      lists[i] = k;
+      firstOfWord[i] = (i == 0 || gramWords[i] != gramWords[i - 1]);
+    }
+    sortByLength(lists, gramWords, firstOfWord);
+
+    // Intersect, narrowing down the fields each word could be in as we go
+    final int first = lists[0];
+    final int[] cand = new int[this.offsets[first + 1] - this.offsets[first]];
+    final int[][] masks = new int[words.length][cand.length];
+    for (final int[] m : masks) {
+      Arrays.fill(m, FLAGS);
+    }
+    int candSize = intersect(cand, masks, -1, lists[0], gramWords[0], firstOfWord[0]);
+    for (int i = 1; i < lists.length && candSize > 0; i++) {
+      candSize = intersect(cand, masks, candSize, lists[i], gramWords[i], firstOfWord[i]);
+    }
+    if (Thread.currentThread().isInterrupted()) {
+      return null;
+    }
+
+    // Check and rank the candidates, keeping the best in a min-heap of packed (score, shorter title, entry) keys. Once
+    // the heap is full, candidates that couldn't beat its worst even if they fully matched aren't checked at all.
+    final String folded = joinWords(words);
+    final boolean exact = (words.length == 1 && words[0].length() <= 3);
+    final long[] heap = new long[Math.min(limit, Math.max(candSize, 1))];
+    int heapSize = 0;
+    int matches = 0;
+    for (int i = 0; i < candSize && matches < maxMatches; i++) {
+      if ((i & CHECK_INTERRUPT_MASK) == CHECK_INTERRUPT_MASK && Thread.currentThread().isInterrupted()) {
+        return null;
+      }
+      final int doc = cand[i];
+      final long tieBreak = ((long) (MAX_TITLE_LEN - this.titleLengths[doc]) << DOC_BITS) | (MAX_DOCS - 1 - doc);
+      final int bound = score(doc, i, words, masks, folded, false);
+      if (heapSize == heap.length && (((long) bound << SCORE_SHIFT) | tieBreak) <= heap[0]) {
+        continue;
+      }
+      final int score = exact ? bound : score(doc, i, words, masks, folded, true);
+      if (score <= 0) {
+        continue;
+      }
+      matches++;
+      final long rank = ((long) score << SCORE_SHIFT) | tieBreak;
+      if (heapSize < heap.length) {
+        heap[heapSize++] = rank;
+        siftUp(heap, heapSize - 1);
+      } else if (rank > heap[0]) {
+        heap[0] = rank;
+        siftDown(heap, heapSize);
+      }
+    }
+
+    Arrays.sort(heap, 0, heapSize);
+    final List<LibraryEntry> results = new ArrayList<LibraryEntry>(heapSize);
+    for (int i = heapSize - 1; i >= 0; i--) {
+      results.add(this.entries[MAX_DOCS - 1 - (int) (heap[i] & (MAX_DOCS - 1))]);
+    }
+    return results;
+  }
+
+  /**
+   * Gets the number of indexed entries.
+   *
+   * @return the number of entries.
+   */
+  public final int size() {
+
+    return this.entries.length;
+  }
+
+  /**
+   * Gets the number of distinct grams in the index.
+   *
+   * @return the number of posting lists.
+   */
+  public final int getGramCount() {
+
+    return this.keys.length;
+  }
+
+  /**
+   * Gets the total length of all posting lists.
+   *
+   * @return the number of postings.
+   */
+  public final int getPostingCount() {
+
+    return this.postings.length;
+  }
+
+  /**
+   * Scores a candidate against the query words.
+   *
+   * @param doc the entry's position.
+   * @param cand the candidate's position in masks.
+   * @param words the folded query words.
+   * @param masks flags of each word, by candidate.
+   * @param folded the whole folded query.
+   * @param verify whether to check the text; if not, only the flags are used and the score is an upper bound.
+   * @return the score, or 0 if some word doesn't match.
+   */
+  private final int score(final int doc, final int cand, final String[] words, final int[][] masks,
+      final String folded, final boolean verify) {
+
+    int total = 0;
+    for (int w = 0; w < words.length; w++) {
+      final int occurs = masks[w][cand] & ALL_FIELDS;
+      final int starts = (masks[w][cand] >>> NUM_FIELDS) & occurs;
+      int best = 0;
+      for (int field = 0; field < NUM_FIELDS; field++) {
+        final int bit = 1 << field;
+        if ((occurs & bit) == 0) {
+          continue;
+        }
+
+        // Up to three characters the flags are exact; longer words' trigrams might not be next to each other
+        final int match;
+        if (words[w].length() <= 3 || !verify) {
+          match = ((starts & bit) != 0) ? 2 : 1;
+        } else {
+          match = findMatch(this.fields[doc][field], words[w]);
+        }
+        best = Math.max(best, FIELD_WEIGHTS[field] * match);
+      }
+      if (best == 0) {
+        return 0;
+      }
+      total += best;
+    }
+
+    // Starting the title is only a hint unless the query is a single short word
+    if ((masks[0][cand] & TITLE_START) != 0 && (!verify || this.fields[doc][TITLE].startsWith(folded))) {
+      total += TITLE_PREFIX_BONUS;
+    }
+    return total;
+  }
+
+  /**
+   * Looks for a word inside a field.
+   *
+   * @param text the folded field.
+   * @param w the folded query word.
+   * @return 2 for a match at the start of a word, 1 for a match inside a word, or 0 for no match.
+   */
+  private static final int findMatch(final String text, final String w) {
+
+    int idx = text.indexOf(w);
+    int found = 0;
+    while (idx >= 0) {
+      if (idx == 0 || text.charAt(idx - 1) == ' ') {
+        return 2;
+      }
+      found = 1;
+      idx = text.indexOf(w, idx + 1);
+    }
+    return found;
+  }
+
+  /**
+   * Adds the grams of every word in one of an entry's fields.
+   *
+   * @param text the folded field.
+   * @param field which field it is.
+   * @param out where to add the (key << MASK_BITS | flags) grams.
+   * @param n how many grams are already in out.
+   * @return the new number of grams in out.
+   */
+  private static final int addGrams(final String text, final int field, final long[] out, final int n) {
+
+    final long in = 1L << field;
+    final long startsIn = in | (in << NUM_FIELDS);
+    int count = n;
+    int start = 0;
+    final int len = text.length();
+    while (start < len) {
+      int end = text.indexOf(' ', start);
+      if (end < 0) {
+        end = len;
+      }
+      if (end > start) {
+        final long first = (start == 0 && field == TITLE) ? (startsIn | TITLE_START) : startsIn;
+        out[count++] = (gramKey(PREFIX1, text.charAt(start), 0, 0) << MASK_BITS) | first;
+        if (end - start >= 2) {
+          out[count++] = (gramKey(PREFIX2, text.charAt(start), text.charAt(start + 1), 0) << MASK_BITS) | first;
+        }
+        for (int i = start; i + 3 <= end; i++) {
+          out[count++] = (gramKey(TRIGRAM, text.charAt(i), text.charAt(i + 1), text.charAt(i + 2)) << MASK_BITS)
+              | ((i == start) ? first : in);
+        }
+      }
+      start = end + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Adds the grams needed to look up one query word.
+   *
+   * @param w the folded query word.
+   * @param out where to add the gram keys.
+   * @param n how many keys are already in out.
+   * @return the new number of keys in out.
+   */
+  private static final int queryGrams(final String w, final long[] out, final int n) {
+
+    int count = n;
+    if (w.length() == 1) {
+      out[count++] = gramKey(PREFIX1, w.charAt(0), 0, 0);
+    } else if (w.length() == 2) {
+      out[count++] = gramKey(PREFIX2, w.charAt(0), w.charAt(1), 0);
+    } else {
+      for (int i = 0; i + 3 <= w.length(); i++) {
+        out[count++] = gramKey(TRIGRAM, w.charAt(i), w.charAt(i + 1), w.charAt(i + 2));
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Packs a gram into its key. Keys are exact, so there are never any false matches from collisions.
+   *
+   * @param kind PREFIX1, PREFIX2, or TRIGRAM.
+   * @param c0 first character.
+   * @param c1 second character (0 if unused).
+   * @param c2 third character (0 if unused).
+   * @return the key.
+   */
+  private static final long gramKey(final int kind, final int c0, final int c1, final int c2) {
+
+    return ((long) kind << 48) | ((long) c0 << 32) | ((long) c1 << 16) | c2;
+  }
+
+  /**
+   * Intersects the candidates with a posting list in place, narrowing down the fields its word could be in. Candidates
+   * whose word has no field left are dropped.
+   *
+   * @param cand the candidate entries, ascending.
+   * @param masks flags of each word, by candidate.
+   * @param candSize number of candidates, or -1 to start the candidates from this list.
+   * @param list the posting list.
+   * @param word the query word the list's gram belongs to.
+   * @param firstOfWord whether the gram is the start of its word.
+   * @return the number of candidates left.
+   */
+  private final int intersect(final int[] cand, final int[][] masks, final int candSize, final int list,
+      final int word, final boolean firstOfWord) {
+
+    final int[] p = this.postings;
+    final int from = this.offsets[list];
+    final int to = this.offsets[list + 1];
+    final int[] wordMasks = masks[word];
+
+    if (candSize < 0) {
+      for (int j = from; j < to; j++) {
+        cand[j - from] = p[j] >>> MASK_BITS;
+        wordMasks[j - from] &= postingMask(p[j], firstOfWord);
+      }
+      return to - from;
+    }
+
+    // Much longer list: binary search it for each candidate instead of walking all of it
+    final boolean search = to - from > candSize * 8;
+    int kept = 0;
+    int j = from;
+    for (int i = 0; i < candSize && j < to; i++) {
+      final int doc = cand[i];
+      if (search) {
+        j = lowerBound(p, j, to, doc);
+      } else {
+        while (j < to && (p[j] >>> MASK_BITS) < doc) {
+          j++;
+        }
+      }
+      if (j == to || (p[j] >>> MASK_BITS) != doc) {
+        continue;
+      }
+
+      final int m = wordMasks[i] & postingMask(p[j], firstOfWord);
+      if ((m & ALL_FIELDS) == 0) {
+        continue;
+      }
+      cand[kept] = doc;
+      for (final int[] other : masks) {
+        other[kept] = other[i];
+      }
+      wordMasks[kept] = m;
+      kept++;
+    }
+    return kept;
+  }
+
+  /**
+   * Gets the flags a posting leaves its word with.
+   *
+   * @param posting the posting.
+   * @param firstOfWord whether the posting's gram is the start of its word (only then does it say where words start).
+   * @return the flags, in the same layout as a posting's.
+   */
+  private static final int postingMask(final int posting, final boolean firstOfWord) {
+
+    return firstOfWord ? (posting & FLAGS) : ((FLAGS & ~ALL_FIELDS) | (posting & ALL_FIELDS));
+  }
+
+  /**
+   * Finds the first posting at or after an entry.
+   *
+   * @param p the postings.
+   * @param from where to start looking.
+   * @param to end of the posting list (exclusive).
+   * @param doc the entry.
+   * @return the first position in [from, to) whose entry is at least doc, or to if there is none.
+   */
+  private static final int lowerBound(final int[] p, final int from, final int to, final int doc) {
+
+    int lo = from;
+    int hi = to;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if ((p[mid] >>> MASK_BITS) < doc) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Sorts the query's posting lists by length (insertion sort; queries only have a handful), along with the word each
+   * belongs to.
+   *
+   * @param lists the posting list indeces.
+   * @param words the word of each list.
+   * @param firstOfWord whether each list's gram is the start of its word.
+   */
+  private final void sortByLength(final int[] lists, final int[] words, final boolean[] firstOfWord) {
+
+    for (int i = 1; i < lists.length; i++) {
+      final int k = lists[i];
+      final int w = words[i];
+      final boolean f = firstOfWord[i];
+      final int len = this.offsets[k + 1] - this.offsets[k];
+      int j = i - 1;
+      while (j >= 0 && this.offsets[lists[j] + 1] - this.offsets[lists[j]] > len) {
+        lists[j + 1] = lists[j];
+        words[j + 1] = words[j];
+        firstOfWord[j + 1] = firstOfWord[j];
+        j--;
+      }
+      lists[j + 1] = k;
+      words[j + 1] = w;
+      firstOfWord[j + 1] = f;
+    }
+  }
+
+  private static final void siftUp(final long[] heap, final int idx) {
+
+    int i = idx;
+    while (i > 0) {
+      final int parent = (i - 1) >> 1;
+      if (heap[parent] <= heap[i]) {
+        return;
+      }
+      final long tmp = heap[parent];
+      heap[parent] = heap[i];
+      heap[i] = tmp;
+      i = parent;
+    }
+  }
+
+  private static final void siftDown(final long[] heap, final int size) {
+
+    int i = 0;
+    while (true) {
+      final int left = (i << 1) + 1;
+      if (left >= size) {
+        return;
+      }
+      final int right = left + 1;
+      final int smallest = (right < size && heap[right] < heap[left]) ? right : left;
+      if (heap[i] <= heap[smallest]) {
+        return;
+      }
+      final long tmp = heap[smallest];
+      heap[smallest] = heap[i];
+      heap[i] = tmp;
+      i = smallest;
+    }
+  }
+
+  /**
+   * Normalizes text for searching: NFKC (so full-width and half-width forms match), full Unicode case folding, and
+   * every run of non-letters and non-digits turned into a single space.
+   *
+   * @param s the text (may be null).
+   * @return the folded text.
+   */
+  static final String fold(final String s) {
+
+    if (s == null || s.length() == 0) {
+      return "";
+    }
+    final String lower = Normalizer.normalize(s, Normalizer.Form.NFKC).toUpperCase(Locale.ROOT)
+        .toLowerCase(Locale.ROOT);
+    final StringBuilder sb = new StringBuilder(lower.length());
+    boolean space = true;
+    for (int i = 0; i < lower.length(); i++) {
+      final char c = lower.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        sb.append(c);
+        space = false;
+      } else if (!space) {
+        sb.append(' ');
+        space = true;
+      }
+    }
+    if (space && sb.length() > 0) {
+      sb.setLength(sb.length() - 1);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Splits folded text into its distinct words.
+   *
+   * @param folded the folded text.
+   * @return the words, in order.
+   */
+  private static final String[] splitWords(final String folded) {
+
+    if (folded.length() == 0) {
+      return new String[0];
+    }
+    final String[] all = folded.split(" ");
+    final List<String> distinct = new ArrayList<String>(all.length);
+    for (final String w : all) {
+      if (!distinct.contains(w)) {
+        distinct.add(w);
+      }
+    }
+    return distinct.toArray(new String[distinct.size()]);
+  }
+
+  /**
+   * Joins words with single spaces.
+   *
+   * @param words the words.
+   * @return the joined String.
+   */
+  private static final String joinWords(final String[] words) {
+
+    final StringBuilder sb = new StringBuilder();
+    for (final String w : words) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(w);
+    }
+    return sb.toString();
+  }
+}
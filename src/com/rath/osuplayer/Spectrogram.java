@@ -0,0 +1,157 @@
+
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A whole song's bar levels and peaks, one slice per analysis window, read straight out of a memory-mapped cache
+ * file. Looking up the bars for a playback position is just an index into the file, so seeking costs nothing.
+ *
+ * Values are stored as one byte each, square-root companded so quiet bars keep more precision than loud ones.
+ *
+ * File layout (big-endian): magic, version, sample rate (float), samples per slice, bands, slices, then for each slice
+ * the band levels followed by the band peaks.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class Spectrogram {
+
+  /** Identifies a spectrogram file ("OSPG"). */
+  static final int MAGIC = 0x4F535047;
+
+  /** Version of the file format. */
+  static final int VERSION = 1;
+
+  /** Size of the file header, in bytes. */
+  static final int HEADER_SIZE = 24;
+
+  /** Largest value that can be stored; anything louder is clipped (already taller than any screen). */
+  private static final float MAX_VALUE = 512.0F;
+
+  /** Decoded value of each stored byte. */
+  private static final float[] DEQUANTIZE = new float[256];
+
+  static {
+    for (int q = 0; q < 256; q++) {
+      final float f = q / 255.0F;
+      DEQUANTIZE[q] = f * f * MAX_VALUE;
+    }
+  }
+
+  /** The mapped file. */
+  private final ByteBuffer data;
+
+  /** Sample rate of the song. */
+  private final float sampleRate;
+
+  /** Samples covered by each slice. */
+  private final int sliceSamples;
+
+  /** Bands per slice. */
+  private final int bands;
+
+  /** Number of slices. */
+  private final int slices;
+
+  /**
+   * Constructor.
+   *
+   * @param data the file contents, header included.
+   * @throws IOException if the header is wrong or the data is cut short.
+   */
+  Spectrogram(final ByteBuffer data) throws IOException {
+    if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+      throw new IOException("Not a spectrogram file");
+    }
+    this.data = data;
+    this.sampleRate = data.getFloat(8);
+    this.sliceSamples = data.getInt(12);
+    this.bands = data.getInt(16);
+    this.slices = data.getInt(20);
+    if (this.sampleRate <= 0.0F || this.sliceSamples <= 0 || this.bands <= 0 || this.bands > SpectrumAnalyzer.MAX_BANDS
+        || this.slices < 0 || data.capacity() < HEADER_SIZE + (long) this.slices * this.bands * 2) {
+      throw new IOException("Corrupt spectrogram file");
+    }
+  }
+
+  /**
+   * Maps a spectrogram file.
+   *
+   * @param file the file.
+   * @return the Spectrogram.
+   * @throws IOException if the file can't be read or isn't a spectrogram.
+   */
+  public static final Spectrogram map(final File file) throws IOException {
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      return new Spectrogram(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Copies the levels and peaks for a playback position.
+   *
+   * @param millis the playback position, in milliseconds.
+   * @param levels where to copy the band levels.
+   * @param peaks where to copy the band peaks.
+   * @return the number of bands copied, or 0 past the end of the song.
+   */
+  public final int read(final int millis, final float[] levels, final float[] peaks) {
+
+    final long slice = (long) (millis * (double) this.sampleRate / 1000.0D) / this.sliceSamples;
+    if (slice < 0L || slice >= this.slices) {
+      return 0;
+    }
+
+    // Absolute gets, so the buffer can be shared between threads
+    final int off = HEADER_SIZE + (int) slice * this.bands * 2;
+    for (int i = 0; i < this.bands; i++) {
+      levels[i] = DEQUANTIZE[this.data.get(off + i) & 0xFF];
+      peaks[i] = DEQUANTIZE[this.data.get(off + this.bands + i) & 0xFF];
+    }
+    return this.bands;
+  }
+
+  /**
+   * Packs a value into a byte.
+   *
+   * @param value the value, from 0 to MAX_VALUE.
+   * @return the stored byte.
+   */
+  static final byte quantize(final float value) {
+
+    if (!(value > 0.0F)) {
+      return 0;
+    }
+    final float f = (float) Math.sqrt(Math.min(value, MAX_VALUE) / MAX_VALUE);
+    return (byte) Math.round(f * 255.0F);
+  }
+
+  public final float getSampleRate() {
+
+    return this.sampleRate;
+  }
+
+  public final int getSliceSamples() {
+
+    return this.sliceSamples;
+  }
+
+  public final int getBands() {
+
+    return this.bands;
+  }
+
+  public final int getSlices() {
+
+    return this.slices;
+  }
+}
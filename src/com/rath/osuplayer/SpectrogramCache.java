@@ -0,0 +1,376 @@
+
+package com.rath.osuplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Builds and caches a Spectrogram for every song, keyed by a hash of its audio content. The first time a song plays,
+ * a background thread decodes the whole file, runs it through the same SpectrumEngine the live analyzer uses, and
+ * writes the result to disk; every play after that just maps the file. The cache is kept under its size limit by
+ * deleting the least recently used spectrograms.
+ *
+ * Turned on with -Dosuplayer.spectrogram=true; -Dosuplayer.spectrogram.disk.mb sets the size limit.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SpectrogramCache {
+
+  /** Default directory of the cache. */
+  public static final String DEFAULT_DIR = "osuplayer-cache/spectrogram";
+
+  /** Default size of the cache, in MB (override with -Dosuplayer.spectrogram.disk.mb). */
+  private static final long DEFAULT_DISK_MB = 1024L;
+
+  /** Directory of the cache. */
+  private final File dir;
+
+  /** Maximum bytes held by the cache. */
+  private final long maxDiskBytes;
+
+  /** Bytes currently held by the cache. Only touched by the worker thread. */
+  private long diskBytes;
+
+  /** Single worker thread, so only one song is decoded at a time. */
+  private final ExecutorService worker;
+
+  /** Spectrograms found in the cache (guarded by this). */
+  private long hits = 0L;
+
+  /** Spectrograms that had to be built (guarded by this). */
+  private long misses = 0L;
+
+  /**
+   * Constructor. Uses the default cache size.
+   *
+   * @param dir directory of the cache.
+   */
+  public SpectrogramCache(final File dir) {
+    this(dir, Long.getLong("osuplayer.spectrogram.disk.mb", DEFAULT_DISK_MB) * BackgroundCache.MB);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param dir directory of the cache.
+   * @param maxDiskBytes maximum bytes held on disk.
+   */
+  public SpectrogramCache(final File dir, final long maxDiskBytes) {
+    this.dir = dir;
+    this.maxDiskBytes = maxDiskBytes;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      System.err.println("Could not create spectrogram cache directory \"" + dir + "\".");
+    }
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+
+        final Thread t = new Thread(r, "spectrogram");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+    this.worker.submit(new Runnable() {
+
+      @Override
+      public void run() {
+
+        trimDisk();
+      }
+    });
+  }
+
+  /**
+   * Creates the cache if it is turned on.
+   *
+   * @return the cache, or null if spectrograms are off.
+   */
+  public static final SpectrogramCache createIfEnabled() {
+
+    if (!Boolean.getBoolean("osuplayer.spectrogram")) {
+      return null;
+    }
+    return new SpectrogramCache(new File(DEFAULT_DIR));
+  }
+
+  /**
+   * Gets a song's spectrogram in the background, from the cache or by building it.
+   *
+   * @param audioFile the song's audio file.
+   * @param audioHash the song's audio hash from the library index, or null to compute it.
+   * @return the spectrogram once it is ready (null if it couldn't be made). Cancel it if the song changes first.
+   */
+  public final Future<Spectrogram> request(final File audioFile, final String audioHash) {
+
+    return this.worker.submit(new Callable<Spectrogram>() {
+
+      @Override
+      public Spectrogram call() {
+
+        return load(audioFile, audioHash);
+      }
+    });
+  }
+
+  /**
+   * Gets the fraction of requested spectrograms that were already cached.
+   *
+   * @return the hit rate, from 0 to 1.
+   */
+  public final synchronized double getHitRate() {
+
+    final long total = this.hits + this.misses;
+    return (total == 0L) ? 0.0D : this.hits / (double) total;
+  }
+
+  /**
+   * Stops building spectrograms.
+   */
+  public final void shutdown() {
+
+    this.worker.shutdownNow();
+  }
+
+  /**
+   * Maps a song's cached spectrogram, building it first if needed.
+   *
+   * @param audioFile the song's audio file.
+   * @param audioHash the song's audio hash, or null to compute it.
+   * @return the spectrogram, or null if it couldn't be made.
+   */
+  private final Spectrogram load(final File audioFile, final String audioHash) {
+
+    try {
+      final String hash = (audioHash != null) ? audioHash : AudioFingerprint.compute(audioFile);
+      final File file = new File(this.dir, hash + ".spg");
+      if (file.isFile()) {
+        try {
+          final Spectrogram cached = Spectrogram.map(file);
+          file.setLastModified(System.currentTimeMillis());
+          synchronized (this) {
+            this.hits++;
+          }
+          return cached;
+        } catch (IOException e) {
+          System.err.println("Corrupt spectrogram \"" + file + "\", rebuilding.");
+        }
+      }
+
+      synchronized (this) {
+        this.misses++;
+      }
+      final long start = System.nanoTime();
+      if (!build(audioFile, file)) {
+        return null;
+      }
+      System.out.println(String.format("Built spectrogram for \"%s\" in %.0fms.", audioFile.getName(),
+          (System.nanoTime() - start) / 1.0E6D));
+      final Spectrogram built = Spectrogram.map(file);
+      this.diskBytes += file.length();
+      if (this.diskBytes > this.maxDiskBytes) {
+        trimDisk();
+      }
+      return built;
+    } catch (IOException e) {
+      System.err.println("Could not make spectrogram for \"" + audioFile + "\": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Deletes the least recently used spectrograms until the cache is under its size limit. A spectrogram that is still
+   * mapped may not be deletable (on Windows); it is simply kept until next time.
+   */
+  private final void trimDisk() {
+
+    final File[] files = this.dir.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    final long[] mtimes = new long[files.length];
+    long total = 0L;
+    for (int i = 0; i < files.length; i++) {
+      mtimes[i] = files[i].lastModified();
+      total += files[i].length();
+    }
+
+    // Oldest first
+    final Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(final Integer a, final Integer b) {
+
+        return (mtimes[a] < mtimes[b]) ? -1 : ((mtimes[a] == mtimes[b]) ? 0 : 1);
+      }
+    });
+
+    for (int i = 0; i < order.length && total > this.maxDiskBytes; i++) {
+      final File f = files[order[i]];
+      final long len = f.length();
+      if (f.delete()) {
+        total -= len;
+      }
+    }
+    this.diskBytes = total;
+  }
+
+  /**
+   * Decodes a whole song and writes its spectrogram.
+   *
+   * @param audioFile the song's audio file.
+   * @param file where to write the spectrogram.
+   * @return true if it was written, false if the song couldn't be decoded or this thread was interrupted.
+   * @throws IOException if the spectrogram can't be written.
+   */
+  private final boolean build(final File audioFile, final File file) throws IOException {
+
+    final int windowSize = SpectrumAnalyzer.WINDOW_SIZE;
+    final AudioInputStream in = openPcm(audioFile);
+    if (in == null) {
+      return false;
+    }
+
+    final File tmpFile = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      final float sampleRate = in.getFormat().getSampleRate();
+      final int channels = in.getFormat().getChannels();
+      final SpectrumEngine engine = new SpectrumEngine(windowSize);
+      engine.setSampleRate(sampleRate);
+      final int bands = Math.min(engine.getBandCount(), SpectrumAnalyzer.MAX_BANDS);
+
+      // Slice count goes in the header, so it is patched in once decoding is done
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+      out.writeInt(Spectrogram.MAGIC);
+      out.writeInt(Spectrogram.VERSION);
+      out.writeFloat(sampleRate);
+      out.writeInt(windowSize);
+      out.writeInt(bands);
+      out.writeInt(0);
+
+      final byte[] pcm = new byte[windowSize * channels * 2];
+      final float[] window = new float[windowSize];
+      final byte[] slice = new byte[bands * 2];
+      final float scale = 1.0F / (channels * 32768.0F);
+      int slices = 0;
+      while (readFully(in, pcm)) {
+        if (Thread.currentThread().isInterrupted()) {
+          return false;
+        }
+
+        // Mix 16-bit little-endian samples down to mono and analyze, like the live analyzer
+        for (int i = 0, b = 0; i < windowSize; i++) {
+          int sum = 0;
+          for (int c = 0; c < channels; c++, b += 2) {
+            sum += (short) ((pcm[b] & 0xFF) | (pcm[b + 1] << 8));
+          }
+          window[i] = sum * scale;
+        }
+        engine.analyze(window);
+
+        final float[] levels = engine.getLevels();
+        final float[] peaks = engine.getPeaks();
+        for (int i = 0; i < bands; i++) {
+          slice[i] = Spectrogram.quantize(levels[i]);
+          slice[bands + i] = Spectrogram.quantize(peaks[i]);
+        }
+        out.write(slice);
+        slices++;
+      }
+      out.close();
+      out = null;
+
+      // Patch in the slice count
+      final RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+      try {
+        raf.seek(Spectrogram.HEADER_SIZE - 4);
+        raf.writeInt(slices);
+      } finally {
+        raf.close();
+      }
+
+      if (!tmpFile.renameTo(file)) {
+        throw new IOException("Could not rename \"" + tmpFile + "\"");
+      }
+      return true;
+    } finally {
+      LibraryIndex.closeQuietly(out);
+      tmpFile.delete();
+      in.close();
+    }
+  }
+
+  /**
+   * Opens a song as 16-bit little-endian PCM. This goes through Java Sound (and the MP3 SPI in lib/) the same way
+   * Minim does, but without opening an output line.
+   *
+   * @param audioFile the song's audio file.
+   * @return the decoded stream, or null if the format isn't supported.
+   * @throws IOException if the file can't be read.
+   */
+  private static final AudioInputStream openPcm(final File audioFile) throws IOException {
+
+    final InputStream raw = audioFile.getName().toLowerCase().endsWith(".mp3") ? new TagSkippingInputStream(audioFile)
+        : new FileInputStream(audioFile);
+    try {
+      final AudioInputStream encoded = AudioSystem.getAudioInputStream(new BufferedInputStream(raw));
+      final AudioFormat base = encoded.getFormat();
+      final AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, base.getSampleRate(), 16,
+          base.getChannels(), base.getChannels() * 2, base.getSampleRate(), false);
+      return AudioSystem.getAudioInputStream(pcm, encoded);
+    } catch (UnsupportedAudioFileException e) {
+      raw.close();
+      return null;
+    } catch (IllegalArgumentException e) {
+      raw.close();
+      return null;
+    }
+  }
+
+  /**
+   * Fills a buffer from a stream.
+   *
+   * @param in the stream.
+   * @param buf the buffer.
+   * @return true if the buffer was filled, false if the stream ended first.
+   * @throws IOException if the stream can't be read.
+   */
+  private static final boolean readFully(final InputStream in, final byte[] buf) throws IOException {
+
+    int off = 0;
+    while (off < buf.length) {
+      final int n = in.read(buf, off, buf.length - off);
+      if (n < 0) {
+        return false;
+      }
+      off += n;
+    }
+    return true;
+  }
+}
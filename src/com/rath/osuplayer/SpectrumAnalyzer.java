@@ -0,0 +1,218 @@
+
+package com.rath.osuplayer;
+
+import java.util.concurrent.locks.LockSupport;
+
+import ddf.minim.AudioListener;
+import ddf.minim.AudioPlayer;
+
+/**
+ * Runs the spectrum analysis for the visualization straight from the samples the AudioPlayer is playing, so no line-in
+ * capture ("Stereo Mix") is needed.
+ *
+ * Minim's output thread hands each buffer to samples(), which cuts it into WINDOW_SIZE windows in a small ring and
+ * wakes the analysis thread. The analysis thread feeds every window to a SpectrumEngine, in order, and publishes the
+ * smoothed levels and peaks into a second ring. Both rings have a single writer and are published through a volatile
+ * sequence number, so nobody ever blocks: the renderer just copies whichever spectrum is newest.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SpectrumAnalyzer implements AudioListener, Runnable {
+
+  /** Samples per FFT (the size of Minim's default line-in buffer, which the band scaling was tuned for). */
+  static final int WINDOW_SIZE = 1024;
+
+  /** Most bands a spectrum can have (logAverages gives 10 per octave, and no sample rate has 12 octaves above 256Hz). */
+  static final int MAX_BANDS = 128;
+
+  /** Slots in each ring. */
+  private static final int RING_SIZE = 8;
+
+  /** How long the analysis thread waits for samples before checking if it should stop, in nanoseconds. */
+  private static final long IDLE_NANOS = 50000000L;
+
+  /** Sample windows, written by the audio thread. */
+  private final float[][] sampleRing = new float[RING_SIZE][WINDOW_SIZE];
+
+  /** Sequence number of the newest sample window (-1 before the first). */
+  private volatile long sampleSeq = -1L;
+
+  /** Band levels, written by the analysis thread. */
+  private final float[][] levelRing = new float[RING_SIZE][MAX_BANDS];
+
+  /** Band peaks, written by the analysis thread. */
+  private final float[][] peakRing = new float[RING_SIZE][MAX_BANDS];
+
+  /** Number of bands in each spectrum slot. */
+  private final int[] spectrumBands = new int[RING_SIZE];
+
+  /** Sequence number of the newest spectrum (-1 before the first). */
+  private volatile long spectrumSeq = -1L;
+
+  /** Sample rate of the player being analyzed. */
+  private volatile float sampleRate;
+
+  /** Set when the player changes, so the analysis thread starts the bars over. */
+  private volatile boolean reset;
+
+  /** The player being analyzed. */
+  private AudioPlayer player;
+
+  /** The analysis thread. */
+  private final Thread thread;
+
+  /** Whether incoming samples are analyzed at all. */
+  private volatile boolean enabled = true;
+
+  /** Whether the analysis thread should keep going. */
+  private volatile boolean running = true;
+
+  /**
+   * Default constructor. Starts the analysis thread.
+   */
+  public SpectrumAnalyzer() {
+    this.thread = new Thread(this, "spectrum-analysis");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Starts analyzing a different player.
+   *
+   * @param newPlayer the player to analyze.
+   */
+  public final synchronized void attach(final AudioPlayer newPlayer) {
+
+    if (this.player != null) {
+      this.player.removeListener(this);
+    }
+    this.player = newPlayer;
+    if (newPlayer != null) {
+      this.sampleRate = newPlayer.sampleRate();
+      this.reset = true;
+      newPlayer.addListener(this);
+    }
+  }
+
+  /**
+   * Turns analysis on or off without detaching from the player (e.g., while a precomputed Spectrogram is used).
+   *
+   * @param on whether to analyze incoming samples.
+   */
+  public final void setEnabled(final boolean on) {
+
+    this.enabled = on;
+  }
+
+  /**
+   * Copies the newest spectrum.
+   *
+   * @param levels where to copy the band levels (at least MAX_BANDS long).
+   * @param peaks where to copy the band peaks (at least MAX_BANDS long).
+   * @return the number of bands copied, or 0 if nothing has been analyzed yet.
+   */
+  public final int read(final float[] levels, final float[] peaks) {
+
+    while (true) {
+      final long seq = this.spectrumSeq;
+      if (seq < 0L) {
+        return 0;
+      }
+      final int slot = (int) (seq % RING_SIZE);
+      final int bands = this.spectrumBands[slot];
+      System.arraycopy(this.levelRing[slot], 0, levels, 0, bands);
+      System.arraycopy(this.peakRing[slot], 0, peaks, 0, bands);
+
+      // The writer only reuses this slot once it has published RING_SIZE - 1 newer spectra
+      if (this.spectrumSeq - seq < RING_SIZE - 1) {
+        return bands;
+      }
+    }
+  }
+
+  /**
+   * Stops the analysis thread and detaches from the player.
+   */
+  public final void shutdown() {
+
+    attach(null);
+    this.running = false;
+    LockSupport.unpark(this.thread);
+  }
+
+  @Override
+  public void samples(final float[] samp) {
+
+    if (!this.enabled) {
+      return;
+    }
+    long seq = this.sampleSeq;
+    for (int off = 0; off + WINDOW_SIZE <= samp.length; off += WINDOW_SIZE) {
+      seq++;
+      System.arraycopy(samp, off, this.sampleRing[(int) (seq % RING_SIZE)], 0, WINDOW_SIZE);
+      this.sampleSeq = seq;
+    }
+    LockSupport.unpark(this.thread);
+  }
+
+  @Override
+  public void samples(final float[] sampL, final float[] sampR) {
+
+    if (!this.enabled) {
+      return;
+    }
+    long seq = this.sampleSeq;
+    for (int off = 0; off + WINDOW_SIZE <= sampL.length; off += WINDOW_SIZE) {
+      seq++;
+      final float[] window = this.sampleRing[(int) (seq % RING_SIZE)];
+      for (int i = 0; i < WINDOW_SIZE; i++) {
+        window[i] = (sampL[off + i] + sampR[off + i]) * 0.5F;
+      }
+      this.sampleSeq = seq;
+    }
+    LockSupport.unpark(this.thread);
+  }
+
+  @Override
+  public void run() {
+
+    final SpectrumEngine engine = new SpectrumEngine(WINDOW_SIZE);
+    final float[] window = new float[WINDOW_SIZE];
+    long analyzed = -1L;
+
+    while (this.running) {
+      final long newest = this.sampleSeq;
+      if (newest == analyzed) {
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+
+      // Songs don't all have the same sample rate
+      engine.setSampleRate(this.sampleRate);
+      if (this.reset) {
+        this.reset = false;
+        engine.reset();
+      }
+
+      // Analyze every window in order so the smoothing keeps time, unless we fell too far behind to catch up
+      long seq = Math.max(analyzed + 1, newest - (RING_SIZE - 2));
+      for (; seq <= newest; seq++) {
+        System.arraycopy(this.sampleRing[(int) (seq % RING_SIZE)], 0, window, 0, WINDOW_SIZE);
+        if (this.sampleSeq - seq >= RING_SIZE - 1) {
+          continue;
+        }
+        engine.analyze(window);
+      }
+      analyzed = newest;
+
+      // Publish the levels and peaks
+      final long outSeq = this.spectrumSeq + 1;
+      final int slot = (int) (outSeq % RING_SIZE);
+      final int bands = Math.min(engine.getBandCount(), MAX_BANDS);
+      System.arraycopy(engine.getLevels(), 0, this.levelRing[slot], 0, bands);
+      System.arraycopy(engine.getPeaks(), 0, this.peakRing[slot], 0, bands);
+      this.spectrumBands[slot] = bands;
+      this.spectrumSeq = outSeq;
+    }
+  }
+}
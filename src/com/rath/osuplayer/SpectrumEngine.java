@@ -0,0 +1,213 @@
+
+package com.rath.osuplayer;
+
+import ddf.minim.analysis.FFT;
+
+/**
+ * Turns sample windows into smoothed, log-spaced bar levels without allocating. Everything it needs (the FFT, the
+ * band-to-bin table, the level and peak arrays) is allocated once per sample rate in setSampleRate(), and analyze()
+ * only writes into those arrays.
+ *
+ * Bands are laid out the same way Minim's logAverages(NUM_BANDS, 10) did (ten per octave, the lowest octave starting
+ * at 0Hz), so the bars look the same, but the bins each band covers are looked up in a table instead of being worked
+ * out again on every frame. Levels rise quickly and fall slowly, and each band's peak is held briefly before falling.
+ *
+ * Not thread safe; SpectrumAnalyzer keeps it on the analysis thread.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SpectrumEngine {
+
+  /** Bands per octave. */
+  private static final int BANDS_PER_OCTAVE = 10;
+
+  /** Time for a level to rise most of the way to a louder value, in seconds. */
+  private static final float ATTACK_SECS = 0.015F;
+
+  /** Time for a level to fall most of the way to a quieter value, in seconds. */
+  private static final float DECAY_SECS = 0.18F;
+
+  /** How long a peak stays put before it starts falling, in seconds. */
+  private static final float PEAK_HOLD_SECS = 0.35F;
+
+  /** How fast a peak falls once released, in band units per second. */
+  private static final float PEAK_FALL_PER_SEC = 160.0F;
+
+  /** Samples per window. */
+  private final int windowSize;
+
+  /** Sample rate the tables were built for (0 until setSampleRate() is called). */
+  private float sampleRate;
+
+  /** The FFT. */
+  private FFT fft;
+
+  /** Number of bands. */
+  private int bandCount;
+
+  /** First FFT bin of each band. */
+  private int[] binLo;
+
+  /** Last FFT bin of each band (inclusive). */
+  private int[] binHi;
+
+  /** 1 / number of bins in each band. */
+  private float[] binScale;
+
+  /** Smoothed level of each band. */
+  private float[] levels;
+
+  /** Peak of each band. */
+  private float[] peaks;
+
+  /** Seconds left before each band's peak starts falling. */
+  private float[] peakHold;
+
+  /** Smoothing factor per window for rising levels. */
+  private float attack;
+
+  /** Smoothing factor per window for falling levels. */
+  private float decay;
+
+  /** Seconds covered by one window. */
+  private float windowSecs;
+
+  /**
+   * Constructor.
+   *
+   * @param windowSize samples per window (a power of 2).
+   */
+  public SpectrumEngine(final int windowSize) {
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Builds the FFT and band tables for a sample rate. Does nothing if the rate hasn't changed.
+   *
+   * @param rate the sample rate, in Hz.
+   */
+  public final void setSampleRate(final float rate) {
+
+    if (rate == this.sampleRate && this.fft != null) {
+      return;
+    }
+    this.sampleRate = rate;
+    this.fft = new FFT(this.windowSize, rate);
+    this.fft.noAverages();
+
+    // Halve the Nyquist frequency until it reaches the narrowest octave
+    final float nyquist = rate / 2.0F;
+    int octaves = 1;
+    float f = nyquist;
+    while ((f /= 2.0F) > SongPanel.NUM_BANDS) {
+      octaves++;
+    }
+
+    this.bandCount = octaves * BANDS_PER_OCTAVE;
+    this.binLo = new int[this.bandCount];
+    this.binHi = new int[this.bandCount];
+    this.binScale = new float[this.bandCount];
+    this.levels = new float[this.bandCount];
+    this.peaks = new float[this.bandCount];
+    this.peakHold = new float[this.bandCount];
+
+    for (int oct = 0; oct < octaves; oct++) {
+      final float lowFreq = (oct == 0) ? 0.0F : nyquist / (float) Math.pow(2, octaves - oct);
+      final float hiFreq = nyquist / (float) Math.pow(2, octaves - oct - 1);
+      final float step = (hiFreq - lowFreq) / BANDS_PER_OCTAVE;
+      float freq = lowFreq;
+      for (int j = 0; j < BANDS_PER_OCTAVE; j++) {
+        final int band = oct * BANDS_PER_OCTAVE + j;
+        this.binLo[band] = this.fft.freqToIndex(freq);
+        this.binHi[band] = Math.max(this.binLo[band], this.fft.freqToIndex(freq + step));
+        this.binScale[band] = 1.0F / (this.binHi[band] - this.binLo[band] + 1);
+        freq += step;
+      }
+    }
+
+    // Per-window smoothing factors for the time constants
+    this.windowSecs = this.windowSize / rate;
+    this.attack = 1.0F - (float) Math.exp(-this.windowSecs / ATTACK_SECS);
+    this.decay = 1.0F - (float) Math.exp(-this.windowSecs / DECAY_SECS);
+  }
+
+  /**
+   * Analyzes the next window of samples, updating the levels and peaks in place.
+   *
+   * @param window windowSize samples (may be changed by the FFT).
+   */
+  public final void analyze(final float[] window) {
+
+    this.fft.forward(window);
+
+    final FFT f = this.fft;
+    final int[] lo = this.binLo;
+    final int[] hi = this.binHi;
+    final float[] lvl = this.levels;
+    final float[] pk = this.peaks;
+    final float[] hold = this.peakHold;
+    for (int band = 0; band < this.bandCount; band++) {
+
+      // Average the band's bins
+      float sum = 0.0F;
+      for (int bin = lo[band]; bin <= hi[band]; bin++) {
+        sum += f.getBand(bin);
+      }
+      final float target = sum * this.binScale[band];
+
+      // Rise fast, fall slow
+      final float level = lvl[band];
+      lvl[band] = level + (target - level) * ((target > level) ? this.attack : this.decay);
+
+      // Hold the peak, then let it fall
+      if (lvl[band] >= pk[band]) {
+        pk[band] = lvl[band];
+        hold[band] = PEAK_HOLD_SECS;
+      } else if (hold[band] > 0.0F) {
+        hold[band] -= this.windowSecs;
+      } else {
+        pk[band] = Math.max(lvl[band], pk[band] - PEAK_FALL_PER_SEC * this.windowSecs);
+      }
+    }
+  }
+
+  /**
+   * Drops all levels and peaks to zero (e.g., when a new song starts).
+   */
+  public final void reset() {
+
+    if (this.levels == null) {
+      return;
+    }
+    for (int band = 0; band < this.bandCount; band++) {
+      this.levels[band] = 0.0F;
+      this.peaks[band] = 0.0F;
+      this.peakHold[band] = 0.0F;
+    }
+  }
+
+  public final int getBandCount() {
+
+    return this.bandCount;
+  }
+
+  /**
+   * Gets the smoothed band levels. The array is reused by every call to analyze().
+   *
+   * @return the levels (only the first getBandCount() are used).
+   */
+  public final float[] getLevels() {
+
+    return this.levels;
+  }
+
+  /**
+   * Gets the band peaks. The array is reused by every call to analyze().
+   *
+   * @return the peaks (only the first getBandCount() are used).
+   */
+  public final float[] getPeaks() {
+
+    return this.peaks;
+  }
+}
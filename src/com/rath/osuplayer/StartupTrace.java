@@ -0,0 +1,72 @@
+package com.rath.osuplayer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times startup, phase by phase, from main() to the first frame drawn, and prints the trace once that frame is done.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class StartupTrace {
+
+  /** When main() started, from System.nanoTime() (guarded by the class). */
+  private static long start = 0L;
+
+  /** When the last phase ended, from System.nanoTime() (guarded by the class). */
+  private static long last = 0L;
+
+  /** Time from JVM start to main(), in milliseconds (guarded by the class). */
+  private static long jvmMillis = 0L;
+
+  /** Finished phases, formatted (guarded by the class; null once printed). */
+  private static List<String> phases = new ArrayList<String>();
+
+  private StartupTrace() {}
+
+  /**
+   * Starts the trace. Call first thing in main().
+   */
+  public static final synchronized void begin() {
+
+    start = System.nanoTime();
+    last = start;
+    jvmMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+  }
+
+  /**
+   * Ends a phase.
+   *
+   * @param phase what was done since the last phase ended.
+   */
+  public static final synchronized void mark(final String phase) {
+
+    if (phases == null || start == 0L) {
+      return;
+    }
+    final long now = System.nanoTime();
+    phases.add(String.format("  %7.1fms %7.1fms  %s", (now - last) / 1.0E6D, (now - start) / 1.0E6D, phase));
+    last = now;
+  }
+
+  /**
+   * Ends the trace when the first frame has been drawn, and prints it. Does nothing after the first call.
+   */
+  public static final synchronized void firstFrame() {
+
+    if (phases == null || start == 0L) {
+      return;
+    }
+    mark("first frame");
+
+    final StringBuilder sb = new StringBuilder("Startup trace (JVM start to main: ").append(jvmMillis)
+        .append("ms):\n     phase   total\n");
+    for (final String p : phases) {
+      sb.append(p).append('\n');
+    }
+    sb.append(Assets.shared());
+    System.out.println(sb);
+    phases = null;
+  }
+}
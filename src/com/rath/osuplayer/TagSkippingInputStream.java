@@ -0,0 +1,263 @@
+
+package com.rath.osuplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads only the MPEG audio of an .mp3 file. A leading ID3v2 tag is skipped, and trailing ID3v1, Lyrics3v2, and APEv2
+ * tags are cut off, so Minim never sees them. Nothing is copied; the file is read in place.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class TagSkippingInputStream extends InputStream {
+
+  /** Size of an ID3v2 header or footer. */
+  private static final int ID3V2_HEADER_SIZE = 10;
+
+  /** Size of an ID3v1 tag. */
+  private static final int ID3V1_SIZE = 128;
+
+  /** Size of an APEv2 header or footer. */
+  private static final int APE_FOOTER_SIZE = 32;
+
+  /** Size of the Lyrics3v2 end marker plus its size field. */
+  private static final int LYRICS3_FOOTER_SIZE = 15;
+
+  /** The file being read. */
+  private final RandomAccessFile raf;
+
+  /** Offset of the first audio byte. */
+  private final long audioStart;
+
+  /** Offset just past the last audio byte. */
+  private final long audioEnd;
+
+  /** Current read position. */
+  private long pos;
+
+  /**
+   * Default constructor.
+   *
+   * @param file the .mp3 file.
+   * @throws IOException if the file can't be opened.
+   */
+  public TagSkippingInputStream(final File file) throws IOException {
+    this.raf = new RandomAccessFile(file, "r");
+    try {
+      this.audioStart = findAudioStart(this.raf);
+      this.audioEnd = Math.max(this.audioStart, findAudioEnd(this.raf));
+    } catch (IOException e) {
+      this.raf.close();
+      throw e;
+    }
+    this.pos = this.audioStart;
+    this.raf.seek(this.pos);
+  }
+
+  /**
+   * Gets the offset of the first audio byte in the file.
+   *
+   * @return the offset.
+   */
+  public final long getAudioStart() {
+
+    return this.audioStart;
+  }
+
+  /**
+   * Gets the number of audio bytes in the file, not counting tags.
+   *
+   * @return the audio length in bytes.
+   */
+  public final long getAudioLength() {
+
+    return this.audioEnd - this.audioStart;
+  }
+
+  @Override
+  public int read() throws IOException {
+
+    if (this.pos >= this.audioEnd) {
+      return -1;
+    }
+    final int b = this.raf.read();
+    if (b >= 0) {
+      this.pos++;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+
+    if (len == 0) {
+      return 0;
+    }
+    final long left = this.audioEnd - this.pos;
+    if (left <= 0) {
+      return -1;
+    }
+    final int n = this.raf.read(b, off, (int) Math.min(len, left));
+    if (n > 0) {
+      this.pos += n;
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+
+    final long skipped = Math.max(0L, Math.min(n, this.audioEnd - this.pos));
+    this.pos += skipped;
+    this.raf.seek(this.pos);
+    return skipped;
+  }
+
+  /**
+   * Gets the number of audio bytes left. Minim uses this as the stream length when working out a song's duration, so
+   * it never includes the trailing tags.
+   */
+  @Override
+  public int available() throws IOException {
+
+    return (int) Math.min(Integer.MAX_VALUE, this.audioEnd - this.pos);
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    this.raf.close();
+  }
+
+  /**
+   * Skips any ID3v2 tags at the start of the file.
+   *
+   * @param raf the file.
+   * @return the offset of the first audio byte.
+   * @throws IOException if the file can't be read.
+   */
+  private static final long findAudioStart(final RandomAccessFile raf) throws IOException {
+
+    final byte[] header = new byte[ID3V2_HEADER_SIZE];
+    long start = 0L;
+
+    // Some files have more than one ID3v2 tag in a row
+    while (start + ID3V2_HEADER_SIZE <= raf.length()) {
+      raf.seek(start);
+      raf.readFully(header);
+      if (header[0] != 'I' || header[1] != 'D' || header[2] != '3') {
+        break;
+      }
+
+      final long size = ((header[6] & 0x7F) << 21) | ((header[7] & 0x7F) << 14) | ((header[8] & 0x7F) << 7)
+          | (header[9] & 0x7F);
+      final boolean hasFooter = (header[5] & 0x10) != 0;
+      start += ID3V2_HEADER_SIZE + size + (hasFooter ? ID3V2_HEADER_SIZE : 0);
+    }
+
+    return Math.min(start, raf.length());
+  }
+
+  /**
+   * Works backwards from the end of the file past any ID3v1, Lyrics3v2, and APEv2 tags.
+   *
+   * @param raf the file.
+   * @return the offset just past the last audio byte.
+   * @throws IOException if the file can't be read.
+   */
+  private static final long findAudioEnd(final RandomAccessFile raf) throws IOException {
+
+    long end = raf.length();
+    final byte[] buf = new byte[APE_FOOTER_SIZE];
+
+    // ID3v1 ("TAG" + 125 bytes)
+    if (end >= ID3V1_SIZE) {
+      raf.seek(end - ID3V1_SIZE);
+      raf.readFully(buf, 0, 3);
+      if (buf[0] == 'T' && buf[1] == 'A' && buf[2] == 'G') {
+        end -= ID3V1_SIZE;
+      }
+    }
+
+    // Lyrics3v2 (6-digit size + "LYRICS200"), which sits just before ID3v1
+    if (end >= LYRICS3_FOOTER_SIZE) {
+      raf.seek(end - LYRICS3_FOOTER_SIZE);
+      raf.readFully(buf, 0, LYRICS3_FOOTER_SIZE);
+      if (startsWith(buf, 6, "LYRICS200")) {
+        final long size = parseDigits(buf, 0, 6);
+        if (size > 0 && size + LYRICS3_FOOTER_SIZE <= end) {
+          end -= size + LYRICS3_FOOTER_SIZE;
+        }
+      }
+    }
+
+    // APEv2 footer ("APETAGEX", version, size, item count, flags, reserved)
+    if (end >= APE_FOOTER_SIZE) {
+      raf.seek(end - APE_FOOTER_SIZE);
+      raf.readFully(buf, 0, APE_FOOTER_SIZE);
+      if (startsWith(buf, 0, "APETAGEX")) {
+        final long size = littleEndianInt(buf, 12) & 0xFFFFFFFFL;
+        final boolean hasHeader = (buf[23] & 0x80) != 0;
+        final long total = size + (hasHeader ? APE_FOOTER_SIZE : 0);
+        if (total <= end) {
+          end -= total;
+        }
+      }
+    }
+
+    return end;
+  }
+
+  /**
+   * Checks if bytes at an offset match an ASCII String.
+   *
+   * @param b the bytes.
+   * @param off where to start comparing.
+   * @param s the String.
+   * @return true if they match.
+   */
+  private static final boolean startsWith(final byte[] b, final int off, final String s) {
+
+    for (int i = 0; i < s.length(); i++) {
+      if (b[off + i] != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses ASCII decimal digits.
+   *
+   * @param b the bytes.
+   * @param off first digit.
+   * @param len number of digits.
+   * @return the value, or -1 if a byte is not a digit.
+   */
+  private static final long parseDigits(final byte[] b, final int off, final int len) {
+
+    long val = 0L;
+    for (int i = off; i < off + len; i++) {
+      if (b[i] < '0' || b[i] > '9') {
+        return -1L;
+      }
+      val = val * 10 + (b[i] - '0');
+    }
+    return val;
+  }
+
+  /**
+   * Reads a little-endian 32-bit int.
+   *
+   * @param b the bytes.
+   * @param off offset of the lowest byte.
+   * @return the int.
+   */
+  private static final int littleEndianInt(final byte[] b, final int off) {
+
+    return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+  }
+}
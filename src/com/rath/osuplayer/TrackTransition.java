@@ -0,0 +1,446 @@
+package com.rath.osuplayer;
+
+import javax.swing.SwingUtilities;
+
+import ddf.minim.AudioPlayer;
+import ddf.minim.Controller;
+import ddf.minim.Minim;
+
+/**
+ * Hands playback over from one song to the next without waiting for the repaint timer to notice the song ended. A
+ * watcher thread starts the prefetched song's player (already opened and buffered by SongPrefetcher) just before the
+ * current one runs out, optionally fading between the two with an equal-power crossfade, and only then tells SongPanel
+ * on the EDT to swap the song in.
+ *
+ * Every Minim player has its own output line, so the handover can't be spliced sample by sample; instead the next
+ * player is started a little early, and how early is adjusted after every transition by the gap that was measured.
+ *
+ * Turned on with -Dosuplayer.gapless=true; -Dosuplayer.crossfade=(milliseconds) adds a crossfade.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class TrackTransition implements Runnable {
+
+  /** How often the watcher checks the current song, in milliseconds. */
+  private static final long POLL_MS = 10L;
+
+  /** How often the watcher checks the current song near its end or during a transition, in milliseconds. */
+  private static final long FAST_POLL_MS = 1L;
+
+  /** How soon before its end the watcher starts checking the current song quickly, in milliseconds. */
+  private static final int FAST_POLL_WINDOW_MS = 250;
+
+  /** How early the next song starts at first, in milliseconds (about one audio buffer). */
+  private static final double INITIAL_LEAD_MS = 50.0D;
+
+  /** Most the next song ever starts early without a crossfade, in milliseconds. */
+  private static final double MAX_LEAD_MS = 500.0D;
+
+  /** How much of each measured gap the lead is corrected by. */
+  private static final double LEAD_CORRECTION = 0.5D;
+
+  /** Quietest gain used while fading, in decibels. */
+  private static final float SILENT_DB = -80.0F;
+
+  /** Longest a transition is measured for before giving up on it, in milliseconds. */
+  private static final long MEASURE_TIMEOUT_MS = 2000L;
+
+  /**
+   * Receives songs that were started by a transition.
+   */
+  public interface Handler {
+
+    /**
+     * Called on the EDT once the next song is playing. The previous song's player is closed by the transition.
+     *
+     * @param next the song that is now playing.
+     */
+    void transitioned(PreparedSong next);
+  }
+
+  /** The Minim object the players were opened with. */
+  private final Minim minim;
+
+  /** Where the next song comes from. */
+  private final SongPrefetcher prefetcher;
+
+  /** Who gets told about transitions. */
+  private final Handler handler;
+
+  /** Crossfade length in milliseconds (0 for a plain gapless handover). */
+  private final int crossfadeMs;
+
+  /** The watcher thread. */
+  private final Thread thread;
+
+  /** How early the next song is started, in milliseconds. Only touched by the watcher thread. */
+  private double leadMs = INITIAL_LEAD_MS;
+
+  /** The song playing now, as far as SongPanel knows (guarded by this). */
+  private AudioPlayer current;
+
+  /** The song being faded out or run out after a transition, or null (guarded by this). */
+  private AudioPlayer outgoing;
+
+  /** The song started by the latest transition (guarded by this). */
+  private AudioPlayer incoming;
+
+  /** Whether the incoming song's crossfade is still running (guarded by this). */
+  private boolean fading;
+
+  /** Whether the latest transition's gap still has to be measured (guarded by this). */
+  private boolean measuring;
+
+  /** Whether the current song already ran out of time with no song ready (guarded by this). */
+  private boolean missed;
+
+  /** When the latest transition started, from System.nanoTime() (guarded by this). */
+  private long transitionStart;
+
+  /** When the outgoing song stopped, from System.nanoTime(), or 0 while it is still playing (guarded by this). */
+  private long outgoingEnd;
+
+  /** When the incoming song started moving, from System.nanoTime(), or 0 until it does (guarded by this). */
+  private long incomingStart;
+
+  /** Bumped whenever a transition is called off, so a swap that's already on its way to the EDT is dropped. */
+  private int generation;
+
+  /** Whether a transition has started that SongPanel hasn't swapped in yet (guarded by this). */
+  private boolean pending;
+
+  /** Whether the watcher should keep going. */
+  private volatile boolean running = true;
+
+  /** Time between the outgoing song stopping and the incoming one starting. */
+  private final LatencyStats gapStats = new LatencyStats("Transition gap");
+
+  /** Transitions where the incoming song started before the outgoing one stopped (guarded by this). */
+  private int overlaps;
+
+  /** Transitions that found no song ready, so the repaint timer had to load one (guarded by this). */
+  private int misses;
+
+  /**
+   * Constructor. Starts the watcher thread.
+   *
+   * @param minim the Minim object the players were opened with.
+   * @param prefetcher where the next song comes from.
+   * @param crossfadeMs crossfade length in milliseconds (0 for none).
+   * @param handler who gets told about transitions.
+   */
+  public TrackTransition(final Minim minim, final SongPrefetcher prefetcher, final int crossfadeMs,
+      final Handler handler) {
+    this.minim = minim;
+    this.prefetcher = prefetcher;
+    this.crossfadeMs = Math.max(0, crossfadeMs);
+    this.handler = handler;
+    this.thread = new Thread(this, "track-transition");
+    this.thread.setDaemon(true);
+    this.thread.setPriority(Thread.MAX_PRIORITY);
+    this.thread.start();
+  }
+
+  /**
+   * Creates a transition if gapless playback is turned on.
+   *
+   * @param minim the Minim object the players were opened with.
+   * @param prefetcher where the next song comes from.
+   * @param handler who gets told about transitions.
+   * @return the transition, or null if gapless playback is off.
+   */
+  public static final TrackTransition createIfEnabled(final Minim minim, final SongPrefetcher prefetcher,
+      final Handler handler) {
+
+    if (!Boolean.getBoolean("osuplayer.gapless")) {
+      return null;
+    }
+    return new TrackTransition(minim, prefetcher, Integer.getInteger("osuplayer.crossfade", 0), handler);
+  }
+
+  /**
+   * Sets the song that is playing now. Called by SongPanel whenever it swaps in a song, which also ends any pending
+   * transition.
+   *
+   * @param player the song's player.
+   */
+  public final synchronized void setCurrent(final AudioPlayer player) {
+
+    this.current = player;
+    this.pending = false;
+    this.missed = false;
+  }
+
+  /**
+   * Checks if a transition has started that SongPanel hasn't swapped in yet. While it has, the current player has
+   * stopped on purpose and must not be treated as finished.
+   *
+   * @return true if a transition is on its way.
+   */
+  public final synchronized boolean isPending() {
+
+    return this.pending;
+  }
+
+  /**
+   * Calls off any transition in progress (e.g. when the user skips): the outgoing song is closed, and a song that was
+   * started but not yet swapped in is stopped and never handed over.
+   */
+  public final synchronized void cancel() {
+
+    // The swap on its way to the EDT sees the new generation and discards the song, and SongPanel still owns the
+    // outgoing song
+    this.generation++;
+    if (this.pending) {
+      this.incoming.pause();
+      this.outgoing = null;
+      this.fading = false;
+      this.pending = false;
+    }
+    this.measuring = false;
+    finishFade();
+  }
+
+  /**
+   * Cuts any crossfade short: the outgoing song is closed and the incoming one goes to full volume. Does nothing while
+   * a transition is waiting to be swapped in.
+   */
+  public final synchronized void finishFade() {
+
+    if (this.pending) {
+      return;
+    }
+    if (this.fading && this.incoming != null && hasGain(this.incoming)) {
+      this.incoming.setGain(0.0F);
+    }
+    this.fading = false;
+    closeOutgoing();
+  }
+
+  /**
+   * Stops the watcher thread and closes the outgoing song.
+   */
+  public final void shutdown() {
+
+    this.running = false;
+    this.thread.interrupt();
+    try {
+      this.thread.join(POLL_MS * 10);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finishFade();
+  }
+
+  @Override
+  public void run() {
+
+    while (this.running) {
+      final long sleepMs;
+      synchronized (this) {
+        sleepMs = step();
+      }
+      try {
+        Thread.sleep(sleepMs);
+      } catch (InterruptedException e) {
+        // Shutting down
+      }
+    }
+  }
+
+  /**
+   * Checks on the current song and any transition in progress (caller holds the lock).
+   *
+   * @return how long to wait before the next check, in milliseconds.
+   */
+  private final long step() {
+
+    final long now = System.nanoTime();
+    if (this.outgoing != null) {
+      if (this.fading) {
+        fade(now);
+      } else {
+        measure(now);
+      }
+      return FAST_POLL_MS;
+    }
+
+    final AudioPlayer player = this.current;
+    if (this.pending || player == null || !player.isPlaying()) {
+      return POLL_MS;
+    }
+
+    // Only start early for a crossfade once both songs are known to have a volume control; otherwise the next song
+    // would play at full volume over this one
+    final int remaining = player.length() - player.position();
+    boolean canFade = (this.crossfadeMs > 0) && hasGain(player);
+    if (canFade) {
+      final PreparedSong ready = this.prefetcher.peekIfReady();
+      canFade = (ready == null) || hasGain(ready.getAudioPlayer());
+    }
+    final double startAt = canFade ? Math.min(this.crossfadeMs, player.length() / 2) : this.leadMs;
+    if (remaining > startAt) {
+      return (remaining - startAt <= FAST_POLL_WINDOW_MS) ? FAST_POLL_MS : POLL_MS;
+    }
+
+    // Nothing ready yet; keep checking, and the repaint timer loads a song if this one runs out first
+    final PreparedSong next = this.prefetcher.takeIfReady();
+    if (next == null) {
+      if (!this.missed) {
+        this.misses++;
+        this.missed = true;
+      }
+      return FAST_POLL_MS;
+    }
+    if (canFade && !hasGain(next.getAudioPlayer()) && remaining > this.leadMs) {
+
+      // A different song was queued up since it was looked at; it can't fade, so it waits for the gapless lead
+      this.prefetcher.putBack(next);
+      return FAST_POLL_MS;
+    }
+    start(player, next, canFade && hasGain(next.getAudioPlayer()), now);
+    return FAST_POLL_MS;
+  }
+
+  /**
+   * Starts the next song and sends it to SongPanel (caller holds the lock).
+   *
+   * @param player the song playing now.
+   * @param next the next song.
+   * @param crossfade whether to fade between them.
+   * @param now the time, from System.nanoTime().
+   */
+  private final void start(final AudioPlayer player, final PreparedSong next, final boolean crossfade,
+      final long now) {
+
+    this.outgoing = player;
+    this.incoming = next.getAudioPlayer();
+    this.fading = crossfade;
+    this.measuring = !crossfade;
+    this.transitionStart = now;
+    this.outgoingEnd = 0L;
+    this.incomingStart = 0L;
+    this.pending = true;
+
+    if (crossfade) {
+      this.incoming.setGain(SILENT_DB);
+    }
+    this.incoming.play();
+
+    final int gen = this.generation;
+    SwingUtilities.invokeLater(new Runnable() {
+
+      @Override
+      public void run() {
+
+        synchronized (TrackTransition.this) {
+          if (gen != generation) {
+            next.discard();
+            return;
+          }
+        }
+        handler.transitioned(next);
+      }
+    });
+  }
+
+  /**
+   * Steps the crossfade: the outgoing song follows cos(x * pi / 2) and the incoming one sin(x * pi / 2), so the total
+   * power stays the same the whole way through (caller holds the lock).
+   *
+   * @param now the time, from System.nanoTime().
+   */
+  private final void fade(final long now) {
+
+    final double x = Math.min(1.0D, (now - this.transitionStart) / (this.crossfadeMs * 1.0E6D));
+    this.incoming.setGain(toDecibels(Math.sin(x * Math.PI / 2.0D)));
+    if (hasGain(this.outgoing)) {
+      this.outgoing.setGain(toDecibels(Math.cos(x * Math.PI / 2.0D)));
+    }
+    if (x >= 1.0D) {
+      this.fading = false;
+      closeOutgoing();
+    }
+  }
+
+  /**
+   * Times a gapless transition: when the outgoing song stops and when the incoming one starts moving. The difference
+   * corrects how early the next song starts, and the outgoing song is closed once it has stopped (caller holds the
+   * lock).
+   *
+   * @param now the time, from System.nanoTime().
+   */
+  private final void measure(final long now) {
+
+    if (this.outgoingEnd == 0L && !this.outgoing.isPlaying()) {
+      this.outgoingEnd = now;
+    }
+    if (this.incomingStart == 0L && this.incoming.position() > 0) {
+      this.incomingStart = now;
+    }
+
+    if (this.measuring && this.outgoingEnd != 0L && this.incomingStart != 0L) {
+      final long gap = this.incomingStart - this.outgoingEnd;
+      if (gap < 0L) {
+        this.overlaps++;
+      }
+      this.gapStats.record(Math.max(0L, gap));
+      this.leadMs = Math.max(0.0D, Math.min(MAX_LEAD_MS, this.leadMs + LEAD_CORRECTION * gap / 1.0E6D));
+      this.measuring = false;
+    }
+
+    final boolean timedOut = now - this.transitionStart > MEASURE_TIMEOUT_MS * 1000000L;
+    if ((this.outgoingEnd != 0L && !this.measuring) || timedOut) {
+      this.measuring = false;
+      closeOutgoing();
+    }
+  }
+
+  /**
+   * Closes the outgoing song, if there is one (caller holds the lock).
+   */
+  private final void closeOutgoing() {
+
+    PreparedSong.closePlayer(this.minim, this.outgoing);
+    this.outgoing = null;
+  }
+
+  /**
+   * Checks if a player's gain can be set. Minim deprecates its line controls in favor of UGens, but an AudioPlayer has
+   * no other volume control.
+   *
+   * @param player the player.
+   * @return true if setGain() works.
+   */
+  @SuppressWarnings("deprecation")
+  private static final boolean hasGain(final AudioPlayer player) {
+
+    return player.hasControl(Controller.GAIN);
+  }
+
+  /**
+   * Converts an amplitude to decibels.
+   *
+   * @param amplitude the amplitude, from 0 to 1.
+   * @return the gain in decibels, no quieter than SILENT_DB.
+   */
+  private static final float toDecibels(final double amplitude) {
+
+    if (amplitude <= 0.0D) {
+      return SILENT_DB;
+    }
+    return (float) Math.max(SILENT_DB, 20.0D * Math.log10(amplitude));
+  }
+
+  public final LatencyStats getGapStats() {
+
+    return this.gapStats;
+  }
+
+  @Override
+  public synchronized String toString() {
+
+    return String.format("%s\nTransitions: %d overlapped, %d with no song ready, lead %.0fms, crossfade %dms",
+        this.gapStats, this.overlaps, this.misses, this.leadMs, this.crossfadeMs);
+  }
+}
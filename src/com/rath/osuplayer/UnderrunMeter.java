@@ -0,0 +1,86 @@
+package com.rath.osuplayer;
+
+import ddf.minim.AudioListener;
+import ddf.minim.AudioPlayer;
+
+/**
+ * Counts audio underruns of whatever song is playing. Minim hands every buffer it plays to its listeners, so a buffer
+ * that shows up much later than the one before it means the output line ran dry.
+ *
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class UnderrunMeter implements AudioListener {
+
+  /** How much later than expected an audio buffer has to arrive to count as an underrun. */
+  private static final double UNDERRUN_FACTOR = 2.0D;
+
+  /** Gaps between audio buffers longer than this are pauses, not underruns, in nanoseconds. */
+  private static final long PAUSE_NANOS = 500000000L;
+
+  /** The player being timed, or null. Only touched on the EDT. */
+  private AudioPlayer player;
+
+  /** When the last audio buffer arrived, from System.nanoTime() (0 after a new player is attached). */
+  private volatile long lastBufferNanos;
+
+  /** Expected time between audio buffers, in nanoseconds. */
+  private volatile long bufferNanos;
+
+  /** Buffers that arrived late enough to count as underruns (audio thread only, read anywhere). */
+  private volatile int underruns;
+
+  /**
+   * Starts timing a player's buffers instead of the previous one's. Must be called on the EDT.
+   *
+   * @param next the player (null to stop timing).
+   */
+  public final void attach(final AudioPlayer next) {
+
+    if (this.player != null) {
+      this.player.removeListener(this);
+    }
+    this.player = next;
+    this.lastBufferNanos = 0L;
+    if (next != null) {
+      this.bufferNanos = (long) (next.bufferSize() * 1.0E9D / next.sampleRate());
+      next.addListener(this);
+    }
+  }
+
+  @Override
+  public void samples(final float[] samp) {
+
+    bufferArrived();
+  }
+
+  @Override
+  public void samples(final float[] sampL, final float[] sampR) {
+
+    bufferArrived();
+  }
+
+  /**
+   * Counts an underrun if an audio buffer arrived much later than the one before it. Runs on Minim's output thread,
+   * which is the only writer of the underrun count.
+   */
+  private final void bufferArrived() {
+
+    final long now = System.nanoTime();
+    final long last = this.lastBufferNanos;
+    if (last != 0L && now - last > this.bufferNanos * UNDERRUN_FACTOR && now - last < PAUSE_NANOS) {
+      this.underruns++;
+    }
+    this.lastBufferNanos = now;
+  }
+
+  public final int getUnderruns() {
+
+    return this.underruns;
+  }
+
+  @Override
+  public String toString() {
+
+    return "Audio underruns: " + this.underruns;
+  }
+}